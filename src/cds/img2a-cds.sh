@@ -0,0 +1,24 @@
+#!/bin/sh
+
+# Create the class data sharing archive used by the img2a launcher, from the
+# class list recorded by a training run when img2a was packaged.
+#
+# An archive only works with the JVM that created it, run this again
+# after the JVM is updated.
+
+APP_DIR=/usr/share/img2a/app
+
+rm -f "$APP_DIR/img2a.jsa"
+
+if [ ! -s "$APP_DIR/img2a.classlist" ]; then
+    exit 0
+fi
+
+# the class path must be exactly the one the launcher uses
+
+java -Xshare:dump \
+    -XX:SharedClassListFile="$APP_DIR/img2a.classlist" \
+    -XX:SharedArchiveFile="$APP_DIR/img2a.jsa" \
+    -cp "$APP_DIR/img2a-standalone.jar" > /dev/null 2>&1 || rm -f "$APP_DIR/img2a.jsa"
+
+exit 0
@@ -1,3 +1,13 @@
 #!/bin/sh
 
-java -jar /usr/share/img2a/app/img2a-standalone.jar "$@"
\ No newline at end of file
+APP_DIR=/usr/share/img2a/app
+
+# img2a-cds creates the archive when the package is installed, a JVM
+# which can not use it, such as one updated since, falls back to not sharing.
+
+if [ -f "$APP_DIR/img2a.jsa" ]; then
+    exec java -XX:+IgnoreUnrecognizedVMOptions -Xshare:auto -XX:SharedArchiveFile="$APP_DIR/img2a.jsa" \
+        -jar "$APP_DIR/img2a-standalone.jar" "$@"
+fi
+
+exec java -jar "$APP_DIR/img2a-standalone.jar" "$@"
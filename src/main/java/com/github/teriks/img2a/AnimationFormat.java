@@ -0,0 +1,76 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+/**
+ * Animated image formats written by {@link AsciiAnimationWriter}.
+ */
+public enum AnimationFormat {
+
+    /**
+     * Animated GIF, with at most 255 colors per frame.
+     */
+    GIF("gif"),
+
+    /**
+     * Animated PNG, with full color frames.  Viewers without
+     * APNG support show the first frame as a still image.
+     */
+    APNG("apng");
+
+    private final String m_name;
+
+    AnimationFormat(String name) {
+        m_name = name;
+    }
+
+    /**
+     * Find an animation format by name, ignoring case.
+     *
+     * @param name The format name, "gif" or "apng".
+     * @return The {@link AnimationFormat}, or null if there is no format with the given name.
+     */
+    public static AnimationFormat forName(String name) {
+        for (AnimationFormat format : values()) {
+            if (format.m_name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the name of the format.
+     *
+     * @return The format name.
+     */
+    public final String getName() {
+        return m_name;
+    }
+}
@@ -28,20 +28,24 @@
 package com.github.teriks.img2a;
 
 import com.github.teriks.img2a.utils.CssColors;
+import com.github.teriks.img2a.utils.PngFilter;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.impl.action.StoreTrueArgumentAction;
-import net.sourceforge.argparse4j.impl.action.VersionArgumentAction;
 import net.sourceforge.argparse4j.inf.*;
-import org.slf4j.bridge.SLF4JBridgeHandler;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * img2a command line tool entry point.
@@ -53,9 +57,9 @@ class App {
     private App() {
     }
 
-    private static Point calcOutputSize(Namespace arguments,
-                                        ImageAsciiReader imgReader,
-                                        float height_scale) {
+    static Point calcOutputSize(Namespace arguments,
+                                ImageAsciiReader imgReader,
+                                float height_scale) {
 
         boolean arg_preserve_aspect = arguments.get("preserve_aspect");
 
@@ -87,7 +91,7 @@ class App {
         return output_size;
     }
 
-    private static ArgumentParser createArgumentParser() {
+    static ArgumentParser createArgumentParser() {
 
         ArgumentParser parser = ArgumentParsers.newArgumentParser(PROG_NAME)
                 .description("Convert an image file to ASCII");
@@ -99,12 +103,13 @@ class App {
 
 
         parser.addArgument("-v", "--version")
-                .action(new VersionArgumentAction());
+                .action(new ArgVersionAction());
 
 
         parser.addArgument("input")
-                .required(true)
-                .help("Input image file or url.");
+                .nargs("*")
+                .help("Input image file or url, or - to read from stdin. Not used with --serve. " +
+                        "More than one input, directories and glob patterns can be converted with --batch-out.");
 
         parser.addArgument("--preserve-aspect")
                 .action(new StoreTrueArgumentAction())
@@ -164,6 +169,69 @@ class App {
                 .action(new StoreTrueArgumentAction())
                 .help("Flip the generated output along the Y (vertical) axis.");
 
+        parser.addArgument("--live")
+                .action(new StoreTrueArgumentAction())
+                .help("Keep running after writing to the terminal, and re-render the output " +
+                        "whenever the terminal window is resized. Output is always fitted to the " +
+                        "terminal in this mode, press Ctrl+C to exit. " +
+                        "This option has no effect when using --html, --svg or --image-out.");
+
+        parser.addArgument("--compress")
+                .type(new ArgCompressionType())
+                .help("Compress the output written to stdout, one of: \"gzip\", \"deflate\". " +
+                        "Output is compressed as it is generated, which is useful for writing large " +
+                        "--html documents straight to a .gz file or a web server. This option has " +
+                        "no effect on --live, animation playback, or --image-out.");
+
+        parser.addArgument("--compress-level")
+                .type(Integer.class)
+                .choices(Arguments.range(0, 9))
+                .help("(Default 6) Compression level used by --compress, from 0 (fastest) " +
+                        "to 9 (smallest output).");
+
+        ArgumentGroup animation_group = parser.addArgumentGroup("Animation Options")
+                .description("Options for playing animated GIF images and image streams in the terminal. " +
+                        "Animated GIF input is played back frame by frame when writing " +
+                        "to the terminal, and written as an animation by --image-out when the " +
+                        "output format is \"gif\" or \"apng\". --html, --svg and other " +
+                        "--image-out formats use the first frame.");
+
+        animation_group.addArgument("--stream")
+                .action(new StoreTrueArgumentAction())
+                .help("Read the input as a stream of concatenated JPEG or PNG images, such as " +
+                        "the output of ffmpeg's image2pipe or mjpeg formats, and play it in the " +
+                        "terminal. With --raw-format, the stream is read as raw frames instead. " +
+                        "Use - as the input to read the stream from stdin. Streams are " +
+                        "played at 10 frames per second unless --fps is given. This option can " +
+                        "not be used with --html or --image-out.");
+
+        animation_group.addArgument("--loop")
+                .action(new StoreTrueArgumentAction())
+                .help("Play the animation in a loop until interrupted with Ctrl+C.");
+
+        animation_group.addArgument("--fps")
+                .type(new ArgFrameRateType())
+                .help("Play the animation at a fixed frame rate, instead of " +
+                        "using the frame timing stored in the image. Frames are " +
+                        "dropped if they cannot be rendered fast enough. Animated " +
+                        "--image-out output is written at this frame rate, without dropping frames.");
+
+        ArgumentGroup raw_group = parser.addArgumentGroup("Raw Input Options")
+                .description("Options for reading raw, uncompressed pixel data instead of an " +
+                        "image file, such as the output of ffmpeg's rawvideo format. " +
+                        "The pixels are used directly without decoding an image.");
+
+        raw_group.addArgument("--raw-format")
+                .type(new ArgRawPixelFormatType())
+                .help("Read the input as raw pixels in the given format. One of: \"rgb24\" " +
+                        "(3 bytes per pixel, red green blue), \"gray\" (1 byte per pixel). " +
+                        "Rows are stored top to bottom without padding. Requires --raw-size. " +
+                        "Only the first frame is used unless --stream is given.");
+
+        raw_group.addArgument("--raw-size")
+                .type(new ArgSizeType())
+                .help("Size of each raw frame in pixels, in the format WxH.");
+
         ArgumentGroup html_group = parser.addArgumentGroup("HTML Output Options")
                 .description("Options for producing HTML5 output.");
 
@@ -209,6 +277,76 @@ class App {
                 .help("CSS default foreground color for html output. Defaults to \"white\". " +
                         "The value given here is passed directly into CSS in raw form.");
 
+        html_group.addArgument("--html-compact")
+                .action(new StoreTrueArgumentAction())
+                .help("Write --colors output in a compact form. Each color is declared once as " +
+                        "a CSS class, and runs of adjacent characters with the same color share " +
+                        "one span element, instead of every character having its own inline style. " +
+                        "The output is usually several times smaller and much faster for browsers to display.");
+
+        html_group.addArgument("--html-canvas")
+                .action(new StoreTrueArgumentAction())
+                .help("Write --colors output as data painted onto a canvas element by a small " +
+                        "inline script, instead of as HTML text. This produces the smallest " +
+                        "documents and displays fastest, but the text can not be selected. " +
+                        "Takes precedence over --html-compact.");
+
+        html_group.addArgument("--html-color-bits")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 8))
+                .setDefault(8)
+                .help("(Default 8) Bits of precision kept for each red, green and blue color " +
+                        "component with --html-compact or --html-canvas. Lower values limit the output to a palette " +
+                        "of at most 2^(3*bits) colors, which makes color runs longer and the output smaller.");
+
+        html_group.addArgument("--html-stats")
+                .action(new StoreTrueArgumentAction())
+                .help("After writing HTML output, print its size and generation time to stderr, " +
+                        "compared with the same output written with one inline styled span per character.");
+
+        ArgumentGroup svg_group = parser.addArgumentGroup("SVG Output Options")
+                .description("Options for producing SVG output.");
+
+        svg_group.addArgument("--svg")
+                .action(new StoreTrueArgumentAction())
+                .help("Output an SVG image. The image can be scaled to any size without " +
+                        "losing quality. With --colors, adjacent characters of the same color " +
+                        "are written as one text run, and --fill colors as one rectangle per run.");
+
+        svg_group.addArgument("--svg-title")
+                .help("Set the image title when using --svg.");
+
+        svg_group.addArgument("--svg-font")
+                .setDefault("monospace")
+                .help("Font family to use for the text, a monospace font is required for the " +
+                        "characters to line up. The value is passed to SVG in raw form, the " +
+                        "default value is \"monospace\".");
+
+        svg_group.addArgument("--svg-font-size")
+                .type(new ArgFontSizeType())
+                .setDefault(12)
+                .help("Font size in pixels, which determines the size of the image. Each character " +
+                        "is 0.6 times the font size wide and 1.2 times the font size tall. " +
+                        "The default value is 12.");
+
+        svg_group.addArgument("--svg-background")
+                .setDefault("black")
+                .help("SVG background color. Defaults to \"black\", use \"none\" for a transparent " +
+                        "background. The value is passed to SVG in raw form.");
+
+        svg_group.addArgument("--svg-foreground")
+                .setDefault("white")
+                .help("SVG text color when not using --colors. Defaults to \"white\". " +
+                        "The value is passed to SVG in raw form.");
+
+        svg_group.addArgument("--svg-color-bits")
+                .type(Integer.class)
+                .choices(Arguments.range(1, 8))
+                .setDefault(8)
+                .help("(Default 8) Bits of precision kept for each red, green and blue color " +
+                        "component. Lower values make runs of the same color longer, which " +
+                        "makes the output smaller.");
+
         ArgumentGroup image_output_group =
                 parser.addArgumentGroup("Image Output Options")
                         .description("Options for rendering output directly to another image. ");
@@ -219,7 +357,8 @@ class App {
                         "want to render the generated ASCII art to an image " +
                         "as output. --size is interpreted as the output dimensions " +
                         "in pixels for the image itself. The options --colors, --fill, --invert, " +
-                        "and --grayscale are fully supported.");
+                        "and --grayscale are fully supported. PNG images are rendered and written " +
+                        "a band of rows at a time, so very large PNG images need little memory.");
 
         image_output_group.addArgument("--image-out-format")
                 .type(String.class)
@@ -227,7 +366,20 @@ class App {
                         "determined by the file extension of the specified output file. " +
                         "It defaults to \"png\" if the output image file does not possess " +
                         "a file extension. The file extension will not be added to the file name " +
-                        "if it is missing.");
+                        "if it is missing. Animated GIF input is written as an animation with " +
+                        "the formats \"gif\" and \"apng\" (animated PNG), other formats use the " +
+                        "first frame. \"apng\" output of a still image is a regular PNG image.");
+
+        image_output_group.addArgument("--image-compression")
+                .type(Integer.class)
+                .choices(Arguments.range(0, 9))
+                .help("(Default 6) PNG compression level, from 0 (fastest) to 9 (smallest file).");
+
+        image_output_group.addArgument("--image-filter")
+                .type(new ArgPngFilterType())
+                .help("PNG row filter strategy, one of: \"adaptive\", \"none\", \"sub\", \"up\", " +
+                        "\"average\", \"paeth\". The default is \"adaptive\", which picks the best " +
+                        "filter for each row. A fixed filter is faster to encode.");
 
         image_output_group.addArgument("--image-font")
                 .setDefault("Monospaced")
@@ -263,6 +415,150 @@ class App {
                         "This value will have no effect if you specify the --colors option.")
                 .setDefault(Color.white);
 
+        image_output_group.addArgument("--image-threads")
+                .type(Integer.class)
+                .help("Amount of threads used to render the image, which is split into bands of " +
+                        "text rows that are drawn at the same time. The output is the same for " +
+                        "any amount of threads. PNG output is also compressed by this many threads. " +
+                        "Defaults to the amount of available processors.");
+
+        ArgumentGroup out_group = parser.addArgumentGroup("Multiple Output Options")
+                .description("Options for writing more than one kind of output from a single run, each to its " +
+                        "own file, instead of writing one of them to stdout or --image-out. The image is decoded " +
+                        "once, scaled once for each distinct output size, and converted once for the outputs " +
+                        "which share a size, and the files are written at the same time. The size, color and " +
+                        "format options above apply to the outputs they would apply to on their own, except " +
+                        "that text is fitted into 80x80 characters when no size is given. Animated GIF input " +
+                        "uses the first frame.");
+
+        out_group.addArgument("--out-text")
+                .help("Write text output to the given file.");
+
+        out_group.addArgument("--out-html")
+                .help("Write --html output to the given file.");
+
+        out_group.addArgument("--out-svg")
+                .help("Write --svg output to the given file.");
+
+        out_group.addArgument("--out-image")
+                .help("Render the output to the given image file, the same as --image-out.");
+
+        ArgumentGroup server_group = parser.addArgumentGroup("Server Options")
+                .description("Options for running img2a as an HTTP conversion server, which avoids paying " +
+                        "for JVM startup, font loading and image decoder initialization on every image. " +
+                        "POST an image as the request body, or GET with a \"url\" query parameter to have " +
+                        "the server fetch an http or https url. Other query parameters are the options of " +
+                        "this command without their leading dashes, parameters without a value are flags, " +
+                        "for example: \"/?size=80x40&colors\". The response is text unless the query " +
+                        "contains \"html\", \"svg\" or \"image-out-format\". Options which read or write " +
+                        "files on the server, or play output in a terminal, are not accepted.");
+
+        server_group.addArgument("--serve")
+                .type(Integer.class)
+                .help("Run the conversion server on the given port instead of converting an input " +
+                        "image. Port 0 picks any free port, the address served on is printed to stderr.");
+
+        server_group.addArgument("--serve-address")
+                .setDefault("127.0.0.1")
+                .help("Address for --serve to listen on. Defaults to \"127.0.0.1\", " +
+                        "use \"0.0.0.0\" to accept connections from other hosts.");
+
+        server_group.addArgument("--serve-concurrency")
+                .type(Integer.class)
+                .help("Amount of requests --serve converts at the same time, further requests wait " +
+                        "for their turn. Twice as many requests may be receiving their upload or fetching " +
+                        "their url at the same time, which bounds the memory held by waiting requests. " +
+                        "Urls time out after 30 seconds without a response. " +
+                        "Requests run on virtual threads when the JVM supports them. " +
+                        "Defaults to the amount of available processors.");
+
+        ArgumentGroup daemon_group = parser.addArgumentGroup("Daemon Options")
+                .description("Options for keeping a warm JVM in the background, so that scripts which run " +
+                        "img2a many times do not pay for JVM startup on every call. Commands are sent to " +
+                        "the daemon by running the class com.github.teriks.img2a.DaemonClient with the usual " +
+                        "arguments, it forwards stdin, stdout, stderr and the exit status, and runs the command " +
+                        "itself if no daemon is listening. Relative file names are resolved against the " +
+                        "client's working directory. Output through the daemon is never fitted to or played " +
+                        "back in a terminal, and --live, --serve and --daemon are refused. " +
+                        "Requires Java 16 or later for Unix domain sockets.");
+
+        daemon_group.addArgument("--daemon")
+                .action(new StoreTrueArgumentAction())
+                .help("Run the daemon in the foreground until it is interrupted.");
+
+        daemon_group.addArgument("--daemon-socket")
+                .help("Unix domain socket the daemon listens on. The client connects to the socket given " +
+                        "by the IMG2A_SOCKET environment variable. Both default to IMG2A_SOCKET if it is set, " +
+                        "otherwise to daemon.sock in a directory named img2a-USER inside the temporary " +
+                        "directory, which is only accessible to its owner.");
+
+        ArgumentGroup batch_group = parser.addArgumentGroup("Batch Options")
+                .description("Options for converting many images in one process. Every input is converted " +
+                        "with the same options, unless a --batch-manifest entry gives its own, and written to " +
+                        "its own file. Inputs may be image files, urls, " +
+                        "directories, which are searched recursively for files with an image extension, and " +
+                        "quoted glob patterns such as \"photos/**/*.jpg\", where ** matches any amount of directories, " +
+                        "including none. Images are converted at the same time, " +
+                        "an image which can not be converted is reported and skipped, and the conversion rate " +
+                        "is reported to stderr. The exit status is 3 if any image failed.");
+
+        batch_group.addArgument("--batch-out")
+                .help("Convert every input in batch mode, writing each output to the file name given by " +
+                        "this template. {name} is replaced with the input file name without its extension, " +
+                        "{ext} with its extension, {dir} with its directory relative to the directory or glob " +
+                        "pattern it was found by, and {index} with its position counting from 1, for " +
+                        "example: \"out/{dir}/{name}.txt\". The output is text, --html or --svg, or an image " +
+                        "when the template ends in an image file extension or --image-out-format is given. " +
+                        "Directories are created as needed.");
+
+        batch_group.addArgument("--batch-threads")
+                .type(Integer.class)
+                .help("Amount of threads --batch-out decodes images on, and the amount it converts " +
+                        "them on. Reading, converting and writing files happen at the same time. " +
+                        "Defaults to the amount of available processors.");
+
+        batch_group.addArgument("--batch-memory")
+                .type(Integer.class)
+                .help("Memory budget in MiB for the images --batch-out holds at the same time, from " +
+                        "decoding them until their output is written, which are estimated from their dimensions. " +
+                        "Images wait for their turn when decoding them would go over the budget. " +
+                        "Defaults to half of the maximum heap size.");
+
+        batch_group.addArgument("--batch-watch")
+                .action(new StoreTrueArgumentAction())
+                .help("Keep watching the input directories after converting the images in them, and convert " +
+                        "images as they are added or changed, until the process is stopped. Images whose " +
+                        "output is newer than them, or whose content is the same as when their output was " +
+                        "written, are skipped. Every input must be a directory, and the --batch-out template " +
+                        "can not contain {index}.");
+
+        batch_group.addArgument("--batch-settle")
+                .type(Integer.class)
+                .help("Time in milliseconds an image in a --batch-watch directory must go without changing " +
+                        "before it is converted, so that images which are still being written are not read. " +
+                        "Defaults to 1000.");
+
+        batch_group.addArgument("--batch-manifest")
+                .help("Convert the entries of a JSONL manifest in batch mode, instead of inputs given on the " +
+                        "command line. Each line is a JSON object with an \"input\" file name or url, an optional " +
+                        "\"output\" file name which defaults to the --batch-out template, with {index} being the " +
+                        "line number, an optional \"options\" object of command line options without their " +
+                        "leading dashes, which are applied on top of the ones given on the command line, with " +
+                        "true for flags, and an optional \"id\" which identifies the entry instead of its whole " +
+                        "line. Relative file names are relative to the directory of the manifest. Completed " +
+                        "entries are recorded in a journal, and skipped when the manifest is run again.");
+
+        batch_group.addArgument("--batch-journal")
+                .help("Journal file which --batch-manifest records completed entries in. Defaults to the " +
+                        "manifest file name followed by \".journal\", or by \".shard-I-of-N.journal\" " +
+                        "with --shard.");
+
+        batch_group.addArgument("--shard")
+                .help("Only convert the entries of --batch-manifest which belong to shard I of N, in the " +
+                        "form I/N, counting from 1. Entries are divided by a hash of their id or line, so that " +
+                        "machines given the same manifest and a different shard each convert their own share " +
+                        "of it, without any coordination between them.");
+
         ArgumentGroup color_group =
                 parser.addArgumentGroup("Color/Shading Options")
                         .description("Options for controlling coloration and shading.");
@@ -285,12 +581,12 @@ class App {
         color_group.addArgument("--colors")
                 .action(new StoreTrueArgumentAction())
                 .help("Colorize output, this works with plain terminal output " +
-                        "(color is approximated), --html output, and --image-out.");
+                        "(color is approximated), --html and --svg output, and --image-out.");
 
         color_group.addArgument("--fill")
                 .action(new StoreTrueArgumentAction())
                 .help("Fill in background color when using --colors. " +
-                        "This also works with --html and --image-out.");
+                        "This also works with --html, --svg and --image-out.");
 
         color_group.addArgument("--grayscale")
                 .action(new StoreTrueArgumentAction())
@@ -311,7 +607,7 @@ class App {
         return parser;
     }
 
-    private static AsciiPrinter createConsolePrinter(
+    static ConsolePrinter createConsolePrinter(
             Namespace arguments, ImageAsciiReader imgReader) {
 
         ConsolePrinter printer = new ConsolePrinter(imgReader);
@@ -326,10 +622,115 @@ class App {
         printer.setUseColors(arg_colors);
         printer.setColorFill(arg_fill);
 
+        configureCompression(arguments, printer);
+
+        return printer;
+    }
+
+    /**
+     * Create the printer for the text, --html or --svg output the arguments ask for.
+     *
+     * @param arguments Parsed command line arguments.
+     * @param imgReader The image reader.
+     * @return The printer.
+     */
+    static AsciiPrinter createPrinter(Namespace arguments, ImageAsciiReader imgReader) {
+        return createPrinter(arguments, imgReader, arguments.getBoolean("html"), arguments.getBoolean("svg"));
+    }
+
+    /**
+     * Create a text, HTML or SVG printer, regardless of the --html and --svg arguments.
+     *
+     * @param arguments Parsed command line arguments.
+     * @param imgReader The image reader.
+     * @param html      Create an HTML printer.
+     * @param svg       Create an SVG printer, if html is False.
+     * @return The printer.
+     */
+    static AsciiPrinter createPrinter(Namespace arguments, ImageAsciiReader imgReader, boolean html, boolean svg) {
+        if (html) {
+            return createHtmlPrinter(arguments, imgReader);
+        } else if (svg) {
+            return createSvgPrinter(arguments, imgReader);
+        } else {
+            return createConsolePrinter(arguments, imgReader);
+        }
+    }
+
+    /**
+     * Calculate the size of output which is written to a file or sent somewhere other than the terminal.
+     * <br>
+     * This is the size given by the size options, or else the default size of the printer,
+     * except that text is fitted into 80x80 characters instead of the terminal the process happens to run in.
+     *
+     * @param arguments Parsed command line arguments.
+     * @param printer   The printer, See: {@link #createPrinter(Namespace, ImageAsciiReader)}
+     * @return Point(cols, rows)
+     */
+    static Point calcFileOutputSize(Namespace arguments, AsciiPrinter printer) {
+        ImageAsciiReader imgReader = printer.getReader();
+
+        float arg_height_scale = arguments.get("height_scale");
+
+        Point output_size = calcOutputSize(arguments, imgReader, arg_height_scale);
+
+        if (output_size != null) {
+            return output_size;
+        }
+
+        return printer instanceof ConsolePrinter ?
+                imgReader.calcAspectCorrectSize(new Point(80, 80), arg_height_scale) :
+                printer.getDefaultSize();
+    }
+
+    private static void configureCompression(Namespace arguments, AsciiPrinter printer) {
+        OutputCompression arg_compress = arguments.get("compress");
+        Integer arg_compress_level = arguments.get("compress_level");
+
+        if (arg_compress != null) {
+            printer.setCompression(arg_compress);
+        }
+
+        if (arg_compress_level != null) {
+            printer.setCompressionLevel(arg_compress_level);
+        }
+    }
+
+    static SvgPrinter createSvgPrinter(
+            Namespace arguments, ImageAsciiReader imgReader) {
+
+        String arg_svg_title = arguments.get("svg_title");
+        String arg_svg_font = arguments.get("svg_font");
+        int arg_svg_font_size = arguments.get("svg_font_size");
+        int arg_svg_color_bits = arguments.get("svg_color_bits");
+
+        String arg_svg_background = arguments.get("svg_background");
+        String arg_svg_foreground = arguments.get("svg_foreground");
+
+        boolean arg_colors = arguments.get("colors");
+        boolean arg_fill = arguments.get("fill");
+
+        float arg_height_scale = arguments.get("height_scale");
+
+        SvgPrinter printer = new SvgPrinter(imgReader);
+
+        printer.setDefaultHeightScale(arg_height_scale);
+
+        printer.setUseColors(arg_colors);
+        printer.setColorFill(arg_fill);
+        printer.setColorBits(arg_svg_color_bits);
+        printer.setTitle(arg_svg_title);
+        printer.setFontFamily(arg_svg_font);
+        printer.setFontSize(arg_svg_font_size);
+        printer.setBackground(arg_svg_background);
+        printer.setForeground(arg_svg_foreground);
+
+        configureCompression(arguments, printer);
+
         return printer;
     }
 
-    private static AsciiPrinter createHtmlPrinter(
+    static HtmlPrinter createHtmlPrinter(
             Namespace arguments, ImageAsciiReader imgReader) {
 
         String arg_html_title = arguments.get("html_title");
@@ -341,6 +742,8 @@ class App {
         String arg_html_foreground = arguments.get("html_foreground");
 
         boolean arg_html_raw = arguments.get("html_raw");
+        boolean arg_html_compact = arguments.get("html_compact");
+        int arg_html_color_bits = arguments.get("html_color_bits");
         boolean arg_colors = arguments.get("colors");
         boolean arg_fill = arguments.get("fill");
 
@@ -352,8 +755,13 @@ class App {
 
         printer.setUseColors(arg_colors);
         printer.setColorFill(arg_fill);
+        printer.setCompact(arg_html_compact);
+        printer.setCanvas(arguments.getBoolean("html_canvas"));
+        printer.setColorBits(arg_html_color_bits);
         printer.setRaw(arg_html_raw);
 
+        configureCompression(arguments, printer);
+
 
         if (arg_html_title != null) {
             printer.setTitle(arg_html_title);
@@ -382,23 +790,66 @@ class App {
         return printer;
     }
 
-    private static ImageAsciiReader createImageAsciiReader(Namespace arguments) throws
-            IOException,
-            InvalidImageDataException {
-
-        ImageAsciiReader imgReader;
+    private static InputStream openInput(Namespace arguments) throws IOException {
 
         String arg_input = arguments.get("input");
 
+        if (arg_input.equals("-")) {
+            return System.in;
+        }
+
         try {
             String arg_user_agent = arguments.get("user_agent");
 
-            imgReader = new ImageAsciiReader(new URL(arg_input), arg_user_agent);
+            return ImageAsciiReader.openStream(new URL(arg_input), arg_user_agent);
 
         } catch (MalformedURLException err) {
-            imgReader = new ImageAsciiReader(new File(arg_input));
+            File file = new File(arg_input);
+
+            if (!file.exists()) {
+                throw new FileNotFoundException(file.toString());
+            }
+
+            return new FileInputStream(file);
+        }
+    }
+
+    private static ImageInputStream openImageInput(Namespace arguments) throws IOException {
+
+        String arg_input = arguments.get("input");
+
+        ImageInputStream input;
+
+        File file = new File(arg_input);
+
+        if (file.isFile()) {
+            // random access, instead of a cached stream
+            input = ImageIO.createImageInputStream(file);
+        } else {
+            input = ImageIO.createImageInputStream(openInput(arguments));
+        }
+
+        if (input == null) {
+            throw new IOException(String.format("Cannot read image data from: \"%s\"", arg_input));
         }
 
+        return input;
+    }
+
+    private static ImageAsciiReader createImageAsciiReader(Namespace arguments,
+                                                           ImageInputStream input) throws
+            IOException,
+            InvalidImageDataException {
+
+        ImageAsciiReader imgReader = new ImageAsciiReader(input);
+
+        configureImageAsciiReader(arguments, imgReader);
+
+        return imgReader;
+    }
+
+    static void configureImageAsciiReader(Namespace arguments, ImageAsciiReader imgReader) {
+
         String arg_palette = arguments.get("palette");
 
         if (arg_palette != null) {
@@ -432,199 +883,1238 @@ class App {
         if (arg_resample_filter != null) {
             imgReader.setResampleFilter(arg_resample_filter);
         }
-
-        return imgReader;
     }
 
+    private static ImageFrameSource openRawInput(Namespace arguments) throws IOException {
 
-    public static void main(String[] args) {
-        SLF4JBridgeHandler.removeHandlersForRootLogger();
-        SLF4JBridgeHandler.install();
+        RawPixelFormat arg_raw_format = arguments.get("raw_format");
+        Point arg_raw_size = arguments.get("raw_size");
 
-        ArgumentParser parser = createArgumentParser();
+        return new RawFrameReader(openInput(arguments), arg_raw_size.x, arg_raw_size.y, arg_raw_format);
+    }
 
-        Namespace arguments;
+    private static ImageAsciiReader createRawImageAsciiReader(Namespace arguments) throws
+            IOException,
+            InvalidImageDataException {
 
-        try {
-            arguments = parser.parseArgs(args);
-        } catch (ArgumentParserException e) {
-            parser.handleError(e);
-            System.exit(1);
-            return;
-        }
+        ImageFrameSource input = openRawInput(arguments);
 
-        if (arguments == null) {
-            return;
-        }
+        try {
+            BufferedImage frame = input.nextFrame();
 
-        ImageAsciiReader imgReader;
+            if (frame == null) {
+                throw new InvalidImageDataException("Not enough data for one raw frame.");
+            }
 
-        try {
-            imgReader = createImageAsciiReader(arguments);
+            ImageAsciiReader imgReader = new ImageAsciiReader(frame);
 
-        } catch (InvalidImageDataException e) {
-            System.err.println("Provided image source contained invalid image data.");
-            System.exit(3);
-            return;
-        } catch (FileNotFoundException e) {
+            configureImageAsciiReader(arguments, imgReader);
 
-            System.err.println(
-                    String.format("File not found: %s", e.getMessage())
-            );
+            return imgReader;
 
-            System.exit(3);
-            return;
-        } catch (IOException e) {
-            System.err.println("Error reading from provided image source.");
-            System.exit(3);
-            return;
+        } finally {
+            input.close();
         }
+    }
 
+    private static void playStream(Namespace arguments, ImageFrameSource stream) throws
+            IOException,
+            InvalidImageDataException {
 
-        String arg_image_out = arguments.get("image_out");
+        try {
+            BufferedImage first_frame = stream.nextFrame();
 
+            if (first_frame == null) {
+                throw new InvalidImageDataException();
+            }
 
-        if (arg_image_out != null) {
+            ImageAsciiReader imgReader = new ImageAsciiReader(first_frame);
 
-            Point output_size = calcOutputSize(arguments, imgReader, 1.0f);
+            configureImageAsciiReader(arguments, imgReader);
 
-            renderImageOut(arguments, imgReader, output_size, arg_image_out);
+            ConsoleFrameRenderer renderer =
+                    new ConsoleFrameRenderer(createConsolePrinter(arguments, imgReader));
 
-            return;
-        }
+            ConsoleAnimationPlayer player = new ConsoleAnimationPlayer(renderer);
 
+            player.setRealTime(true);
 
-        boolean arg_html = arguments.get("html");
+            Float arg_fps = arguments.get("fps");
 
-        AsciiPrinter printer;
+            if (arg_fps != null) {
+                player.setFrameDelay(Math.round(1000.0f / arg_fps));
+            }
 
-        if (arg_html) {
-            printer = createHtmlPrinter(
+            Point output_size = calcOutputSize(
                     arguments,
-                    imgReader);
+                    imgReader,
+                    arguments.getFloat("height_scale"));
 
-        } else {
-            printer = createConsolePrinter(
-                    arguments,
-                    imgReader);
-        }
+            OutputStreamWriter writer = new OutputStreamWriter(System.out);
 
-        Point output_size = calcOutputSize(
-                arguments,
-                imgReader,
-                arguments.getFloat("height_scale"));
+            renderer.writeFrame(
+                    output_size == null ? renderer.getPrinter().getDefaultSize() : output_size,
+                    writer);
 
-        try {
-            printer.print(output_size);
-        } catch (IOException e) {
-            System.err.println(String.format("IO Error while writing output: %s", e.getMessage()));
-            System.exit(3);
+            player.play(stream, output_size, writer);
+
+        } finally {
+            stream.close();
         }
     }
 
-    private static void renderImageOut(Namespace arguments,
-                                       ImageAsciiReader reader,
-                                       Point output_size,
-                                       String out_path) {
-
-        String arg_image_out_format = arguments.get("image_out_format");
+    private static void playAnimation(Namespace arguments, GifFrameReader animation) throws
+            IOException,
+            InvalidImageDataException {
 
-        if (output_size == null) {
-            output_size = new Point(
-                    reader.getImageWidth(),
-                    reader.getImageHeight());
-        }
+        try {
+            BufferedImage first_frame = animation.nextFrame();
 
-        AsciiImageRenderer render = new AsciiImageRenderer(reader);
+            if (first_frame == null) {
+                throw new InvalidImageDataException();
+            }
 
-        render.setUseColors(arguments.getBoolean("colors"));
-        render.setColorFill(arguments.getBoolean("fill"));
+            animation.rewind();
+            animation.setLoop(arguments.getBoolean("loop"));
 
-        render.setBackground((Color) arguments.get("image_background"));
-        render.setForeground((Color) arguments.get("image_foreground"));
+            ImageAsciiReader imgReader = new ImageAsciiReader(first_frame);
 
-        int arg_image_font_size = arguments.get("image_font_size");
+            configureImageAsciiReader(arguments, imgReader);
 
-        String arg_image_font = arguments.get("image_font");
+            ConsoleAnimationPlayer player = new ConsoleAnimationPlayer(
+                    new ConsoleFrameRenderer(createConsolePrinter(arguments, imgReader)));
 
-        int arg_image_font_style = arguments.get("image_font_style");
+            Float arg_fps = arguments.get("fps");
 
-        //noinspection MagicConstant
-        render.setFont(new Font(
-                arg_image_font,
-                arg_image_font_style,
-                arg_image_font_size));
+            if (arg_fps != null) {
+                player.setFrameDelay(Math.round(1000.0f / arg_fps));
+            }
 
-        if (arg_image_out_format == null) {
-            int ext_dot = out_path.lastIndexOf('.');
+            Point output_size = calcOutputSize(
+                    arguments,
+                    imgReader,
+                    arguments.getFloat("height_scale"));
 
-            arg_image_out_format = "png";
+            player.play(animation, output_size);
 
-            if (ext_dot != -1) {
-                arg_image_out_format = out_path.substring(
-                        ext_dot + 1,
-                        out_path.length());
-            }
+        } finally {
+            animation.close();
         }
+    }
 
-        BufferedImage img = render.render(output_size);
 
-        try {
+    /**
+     * Check the combinations of parsed arguments which the argument parser itself can not.
+     *
+     * @param parser    The parser the arguments came from.
+     * @param arguments The parsed arguments.
+     * @throws ArgumentParserException If the arguments can not be used together.
+     */
+    static void checkArguments(ArgumentParser parser, Namespace arguments) throws ArgumentParserException {
 
-            if (!ImageIO.write(img, arg_image_out_format, new File(out_path))) {
+        if (arguments.getBoolean("svg") && arguments.getBoolean("html")) {
+            throw new ArgumentParserException(
+                    "argument --svg: not allowed with argument --html", parser);
+        }
 
-                System.err.println(
-                        String.format("Unknown image output format: \"%s\"", arg_image_out_format));
+        String out_option = null;
 
-                System.exit(3);
+        for (MultiOutputWriter.Kind kind : MultiOutputWriter.Kind.values()) {
+            if (arguments.get(getOutOption(kind)) != null) {
+                out_option = kind.getOption();
+                break;
             }
+        }
 
-        } catch (IOException e) {
+        if (out_option != null) {
+            String[][] refused = {
+                    {"image_out", "--image-out"},
+                    {"html", "--html"},
+                    {"svg", "--svg"},
+                    {"live", "--live"},
+                    {"stream", "--stream"},
+                    {"html_stats", "--html-stats"}
+            };
+
+            for (String[] option : refused) {
+                Object value = arguments.get(option[0]);
+
+                if (value != null && !Boolean.FALSE.equals(value)) {
+                    throw new ArgumentParserException(
+                            String.format("argument %s: not allowed with argument %s", out_option, option[1]), parser);
+                }
+            }
+        }
 
-            System.err.println(
-                    String.format("IO Error writing to image file: \"%s\"", out_path));
+        Integer arg_image_threads = arguments.get("image_threads");
 
-            System.exit(3);
+        if (arg_image_threads != null && arg_image_threads < 1) {
+            throw new ArgumentParserException(
+                    "argument --image-threads: Thread count must be at least 1.", parser);
         }
-    }
 
-    private static class ArgPaletteStringType implements ArgumentType<String> {
+        if (arguments.get("raw_format") != null) {
+            Point arg_raw_size = arguments.get("raw_size");
 
-        public String convert(ArgumentParser argumentParser,
-                              Argument argument,
-                              String input) throws ArgumentParserException {
+            if (arg_raw_size == null) {
+                throw new ArgumentParserException(
+                        "argument --raw-format: requires argument --raw-size", parser);
+            }
 
-            if (input.length() < 2) {
+            if (arg_raw_size.x <= 0 || arg_raw_size.y <= 0) {
                 throw new ArgumentParserException(
-                        String.format("argument %s: Palette string must " +
-                                        "contain at least two characters.",
-                                argument.textualName()),
-                        argumentParser);
+                        "argument --raw-size: Raw frame dimensions must be greater than 0.", parser);
             }
+        }
+    }
 
-            return input;
+    private static String getOutOption(MultiOutputWriter.Kind kind) {
+        return kind.getOption().substring(2).replace('-', '_');
+    }
+
+    private static Namespace resolvePaths(Namespace arguments, File directory) {
+        Map<String, Object> attrs = new HashMap<String, Object>(arguments.getAttrs());
+
+        String arg_input = arguments.get("input");
+
+        if (!arg_input.equals("-") && !isUrl(arg_input)) {
+            attrs.put("input", resolvePath(directory, arg_input));
         }
+
+        for (String option : new String[]{"image_out", "out_text", "out_html", "out_svg", "out_image"}) {
+            String path = arguments.get(option);
+
+            if (path != null) {
+                attrs.put(option, resolvePath(directory, path));
+            }
+        }
+
+        return new Namespace(attrs);
     }
 
-    private static class ArgSizeType implements ArgumentType<Point> {
+    static boolean isUrl(String input) {
+        try {
+            new URL(input);
+            return true;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
 
-        public Point convert(ArgumentParser argumentParser,
-                             Argument argument,
-                             String input) throws ArgumentParserException {
+    private static String resolvePath(File directory, String path) {
+        if (path == null) {
+            return null;
+        }
 
-            String[] parts = input.toLowerCase().split("x");
+        File file = new File(path);
 
+        return file.isAbsolute() ? path : new File(directory, path).getPath();
+    }
 
-            if (parts.length > 2) {
-                throw new ArgumentParserException(
-                        String.format("argument %s: Size must " +
-                                        "have one or two components.",
-                                argument.textualName()),
-                        argumentParser);
+    private static void runBatch(ArgumentParser parser,
+                                 Namespace arguments,
+                                 List<String> inputs,
+                                 File directory) {
+
+        String arg_batch_manifest = arguments.get("batch_manifest");
+
+        String batch_flag = arg_batch_manifest != null ? "--batch-manifest" : "--batch-out";
+
+        String[][] refused = {
+                {"serve", "--serve"},
+                {"daemon", "--daemon"},
+                {"image_out", "--image-out"},
+                {"out_text", "--out-text"},
+                {"out_html", "--out-html"},
+                {"out_svg", "--out-svg"},
+                {"out_image", "--out-image"},
+                {"live", "--live"},
+                {"stream", "--stream"},
+                {"raw_format", "--raw-format"},
+                {"html_stats", "--html-stats"}
+        };
+
+        for (String[] option : refused) {
+            Object value = arguments.get(option[0]);
+
+            if (value != null && !Boolean.FALSE.equals(value)) {
+                parser.handleError(new ArgumentParserException(
+                        String.format("argument %s: not allowed with argument %s", batch_flag, option[1]), parser));
+                throw new ExitException(1);
             }
+        }
 
-            try {
-                if (parts.length == 2) {
+        boolean arg_batch_watch = arguments.getBoolean("batch_watch");
+        Integer arg_batch_settle = arguments.get("batch_settle");
+
+        if (arg_batch_manifest != null) {
+            if (!inputs.isEmpty()) {
+                parser.handleError(new ArgumentParserException(
+                        "argument --batch-manifest: not allowed with argument input", parser));
+                throw new ExitException(1);
+            }
+
+            if (arg_batch_watch) {
+                parser.handleError(new ArgumentParserException(
+                        "argument --batch-watch: not allowed with argument --batch-manifest", parser));
+                throw new ExitException(1);
+            }
+        } else if (arg_batch_settle != null && !arg_batch_watch) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --batch-settle: requires --batch-watch", parser));
+            throw new ExitException(1);
+        } else if (arguments.get("batch_journal") != null || arguments.get("shard") != null) {
+            parser.handleError(new ArgumentParserException(String.format(
+                    "argument %s: requires --batch-manifest",
+                    arguments.get("shard") != null ? "--shard" : "--batch-journal"), parser));
+            throw new ExitException(1);
+        } else if (inputs.isEmpty()) {
+            parser.handleError(new ArgumentParserException("too few arguments", parser));
+            throw new ExitException(1);
+        }
+
+        if (inputs.contains("-")) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --batch-out: can not read an input from stdin", parser));
+            throw new ExitException(1);
+        }
+
+        Integer arg_batch_threads = arguments.get("batch_threads");
+        Integer arg_batch_memory = arguments.get("batch_memory");
+        String arg_shard = arguments.get("shard");
+
+        int shard = 1;
+        int shards = 1;
+
+        try {
+            if (arg_shard != null) {
+                String[] parts = arg_shard.split("/", -1);
+
+                try {
+                    if (parts.length != 2) {
+                        throw new NumberFormatException();
+                    }
+
+                    shard = Integer.parseInt(parts[0].trim());
+                    shards = Integer.parseInt(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new ArgumentParserException(
+                            "argument --shard: Shard must be in the form I/N, for example 2/4.", parser);
+                }
+
+                if (shards < 1 || shard < 1 || shard > shards) {
+                    throw new ArgumentParserException(
+                            "argument --shard: Shard I/N must have I between 1 and N.", parser);
+                }
+            }
+
+            checkArguments(parser, arguments);
+
+            if (arg_batch_threads != null && arg_batch_threads < 1) {
+                throw new ArgumentParserException(
+                        "argument --batch-threads: Thread count must be at least 1.", parser);
+            }
+
+            if (arg_batch_memory != null && arg_batch_memory < 1) {
+                throw new ArgumentParserException(
+                        "argument --batch-memory: Memory budget must be at least 1 MiB.", parser);
+            }
+
+            if (arg_batch_settle != null && arg_batch_settle < 0) {
+                throw new ArgumentParserException(
+                        "argument --batch-settle: Settle time must not be negative.", parser);
+            }
+
+            if (arg_batch_watch && arguments.<String>get("batch_out").contains("{index}")) {
+                throw new ArgumentParserException(
+                        "argument --batch-watch: The --batch-out template can not contain {index}.", parser);
+            }
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            throw new ExitException(1);
+        }
+
+        String arg_batch_out = arguments.get("batch_out");
+        String arg_batch_journal = arguments.get("batch_journal");
+
+        if (directory != null) {
+            List<String> resolved = new ArrayList<String>();
+
+            for (String input : inputs) {
+                resolved.add(isUrl(input) ? input : resolvePath(directory, input));
+            }
+
+            inputs = resolved;
+            arg_batch_out = resolvePath(directory, arg_batch_out);
+            arg_batch_manifest = resolvePath(directory, arg_batch_manifest);
+            arg_batch_journal = resolvePath(directory, arg_batch_journal);
+        }
+
+        if (arg_batch_watch) {
+            watchBatch(parser, arguments, inputs, arg_batch_out, arg_batch_threads, arg_batch_memory,
+                    arg_batch_settle != null ? arg_batch_settle : 1000);
+            return;
+        }
+
+        List<String> errors = new ArrayList<String>();
+
+        BatchJournal journal = null;
+
+        List<BatchConverter.Input> expanded;
+
+        if (arg_batch_manifest != null) {
+            if (arg_batch_journal == null) {
+                arg_batch_journal = arg_batch_manifest + (arg_shard == null ?
+                        ".journal" : String.format(".shard-%d-of-%d.journal", shard, shards));
+            }
+
+            BatchManifest manifest = new BatchManifest(parser, arguments, arg_batch_out, shard, shards);
+
+            if (!new File(arg_batch_manifest).isFile()) {
+                System.err.println(String.format("File not found: %s", arg_batch_manifest));
+                throw new ExitException(3);
+            }
+
+            try {
+                journal = new BatchJournal(new File(arg_batch_journal));
+            } catch (IOException e) {
+                System.err.println(String.format(
+                        "IO Error opening journal file \"%s\": %s", arg_batch_journal, e.getMessage()));
+                throw new ExitException(3);
+            }
+
+            try {
+                expanded = manifest.read(new File(arg_batch_manifest), journal, errors);
+            } catch (IOException e) {
+                closeJournal(journal);
+                System.err.println(String.format(
+                        "IO Error reading manifest file \"%s\": %s", arg_batch_manifest, e.getMessage()));
+                throw new ExitException(3);
+            }
+
+            for (String error : errors) {
+                System.err.println(error);
+            }
+
+            if (arg_shard == null) {
+                System.err.println(String.format(
+                        "Manifest has %d entries, %d of them are already in the journal.",
+                        manifest.getTotal(), manifest.getSkipped()));
+            } else {
+                System.err.println(String.format(
+                        "Shard %d/%d has %d of %d entries, %d of them are already in the journal.",
+                        shard, shards, manifest.getInShard(), manifest.getTotal(), manifest.getSkipped()));
+            }
+
+            if (expanded.isEmpty()) {
+                closeJournal(journal);
+
+                if (!errors.isEmpty()) {
+                    throw new ExitException(3);
+                }
+                return;
+            }
+
+        } else {
+            expanded = BatchConverter.expandInputs(inputs, errors);
+
+            for (String error : errors) {
+                System.err.println(error);
+            }
+
+            if (expanded.isEmpty()) {
+                System.err.println("No input files found.");
+                throw new ExitException(3);
+            }
+        }
+
+        BatchConverter converter = new BatchConverter(
+                arguments,
+                arg_batch_out,
+                arg_batch_threads != null ?
+                        arg_batch_threads : Runtime.getRuntime().availableProcessors(),
+                arg_batch_memory != null ?
+                        arg_batch_memory * 1024L * 1024L : BatchConverter.getDefaultMemoryBudget());
+
+        converter.setJournal(journal);
+
+        try {
+            converter.run(expanded);
+        } finally {
+            closeJournal(journal);
+        }
+
+        if (!errors.isEmpty() || converter.getFailed() > 0) {
+            throw new ExitException(3);
+        }
+    }
+
+    private static void watchBatch(ArgumentParser parser,
+                                   Namespace arguments,
+                                   List<String> inputs,
+                                   String batch_out,
+                                   Integer batch_threads,
+                                   Integer batch_memory,
+                                   int settle_millis) {
+
+        List<File> directories = new ArrayList<File>();
+
+        for (String input : inputs) {
+            File directory = new File(input);
+
+            if (!directory.isDirectory()) {
+                parser.handleError(new ArgumentParserException(String.format(
+                        "argument --batch-watch: input \"%s\" is not a directory", input), parser));
+                throw new ExitException(1);
+            }
+
+            directories.add(directory);
+        }
+
+        BatchConverter converter = new BatchConverter(
+                arguments,
+                batch_out,
+                batch_threads != null ?
+                        batch_threads : Runtime.getRuntime().availableProcessors(),
+                batch_memory != null ?
+                        batch_memory * 1024L * 1024L : BatchConverter.getDefaultMemoryBudget());
+
+        try {
+            new BatchWatcher(converter, directories, settle_millis).run();
+        } catch (IOException e) {
+            System.err.println(String.format("IO Error watching directories: %s", e.getMessage()));
+            throw new ExitException(3);
+        }
+    }
+
+    private static void closeJournal(BatchJournal journal) {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println(String.format(
+                    "IO Error closing journal file \"%s\": %s", journal.getFile(), e.getMessage()));
+        }
+    }
+
+    private static void runDaemon(ArgumentParser parser, Namespace arguments) {
+
+        if (arguments.get("input") != null) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --daemon: not allowed with argument input", parser));
+            throw new ExitException(1);
+        }
+
+        String arg_daemon_socket = arguments.get("daemon_socket");
+
+        File socket = arg_daemon_socket != null ?
+                new File(arg_daemon_socket).getAbsoluteFile() : DaemonClient.getDefaultSocket();
+
+        LoggingBridge.install();
+
+        CommandDaemon daemon;
+
+        try {
+            daemon = new CommandDaemon(socket);
+        } catch (IOException e) {
+            System.err.println(String.format("Could not start daemon: %s", e.getMessage()));
+            throw new ExitException(3);
+        }
+
+        System.err.println(String.format("Listening on %s", socket));
+
+        daemon.run();
+    }
+
+    private static void serve(ArgumentParser parser, Namespace arguments) {
+
+        if (arguments.get("input") != null) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --serve: not allowed with argument input", parser));
+            throw new ExitException(1);
+        }
+
+        int arg_serve = arguments.get("serve");
+
+        if (arg_serve < 0 || arg_serve > 65535) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --serve: Port must be between 0 and 65535.", parser));
+            throw new ExitException(1);
+        }
+
+        Integer arg_serve_concurrency = arguments.get("serve_concurrency");
+
+        if (arg_serve_concurrency != null && arg_serve_concurrency < 1) {
+            parser.handleError(new ArgumentParserException(
+                    "argument --serve-concurrency: Concurrency must be at least 1.", parser));
+            throw new ExitException(1);
+        }
+
+        LoggingBridge.install();
+
+        String arg_serve_address = arguments.get("serve_address");
+
+        ConversionServer server;
+
+        try {
+            server = new ConversionServer(
+                    new InetSocketAddress(arg_serve_address, arg_serve),
+                    arg_serve_concurrency != null ?
+                            arg_serve_concurrency : Runtime.getRuntime().availableProcessors());
+
+            server.start();
+
+        } catch (IOException e) {
+            System.err.println(String.format("Could not start server: %s", e.getMessage()));
+            throw new ExitException(3);
+        }
+
+        final ConversionServer running_server = server;
+
+        // let requests which are being converted finish on Ctrl+C
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                running_server.stop(1);
+            }
+        }, "img2a-server-shutdown"));
+
+        InetSocketAddress address = server.getAddress();
+
+        System.err.println(String.format("Serving on http://%s:%d/",
+                address.getAddress().getHostAddress(), address.getPort()));
+    }
+
+    public static void main(String[] args) {
+        // images are only ever rendered off screen
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        int status = run(args, null, false);
+
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Run a command without exiting the process, and return its exit status.
+     * <br>
+     * Relative input and output file names are resolved against **directory**, or
+     * against the working directory of the process if it is **null**.
+     * <br>
+     * When **remote** is True, the command is run on behalf of a {@link DaemonClient},
+     * and options which would keep running in this process are refused.
+     *
+     * @param args      Command line arguments.
+     * @param directory Working directory of the command, may be null.
+     * @param remote    Whether or not the command comes from a daemon client.
+     * @return Exit status.
+     */
+    static int run(String[] args, File directory, boolean remote) {
+        try {
+            runCommand(args, directory, remote);
+            return 0;
+        } catch (ExitException e) {
+            return e.getStatus();
+        }
+    }
+
+    private static void runCommand(String[] args, File directory, boolean remote) {
+        ArgumentParser parser = createArgumentParser();
+
+        Namespace arguments;
+
+        try {
+            arguments = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            throw new ExitException(1);
+        }
+
+        if (arguments == null) {
+            return;
+        }
+
+        if (remote) {
+            String arg_refused = arguments.get("serve") != null ? "--serve" :
+                    arguments.getBoolean("daemon") ? "--daemon" :
+                            arguments.getBoolean("live") ? "--live" :
+                                    arguments.getBoolean("batch_watch") ? "--batch-watch" : null;
+
+            if (arg_refused != null) {
+                parser.handleError(new ArgumentParserException(
+                        String.format("argument %s: not allowed through the img2a daemon", arg_refused), parser));
+                throw new ExitException(1);
+            }
+        }
+
+        List<String> arg_inputs = arguments.getList("input");
+
+        if (arg_inputs == null) {
+            arg_inputs = new ArrayList<String>();
+        }
+
+        if (arguments.get("batch_out") != null || arguments.get("batch_manifest") != null) {
+            runBatch(parser, arguments, arg_inputs, directory);
+            return;
+        }
+
+        for (String option : new String[]{"batch_journal", "shard"}) {
+            if (arguments.get(option) != null) {
+                parser.handleError(new ArgumentParserException(String.format(
+                        "argument --%s: requires --batch-manifest", option.replace('_', '-')), parser));
+                throw new ExitException(1);
+            }
+        }
+
+        if (arguments.getBoolean("batch_watch") || arguments.get("batch_settle") != null) {
+            parser.handleError(new ArgumentParserException(String.format(
+                    "argument %s: requires --batch-out", arguments.getBoolean("batch_watch") ?
+                            "--batch-watch" : "--batch-settle"), parser));
+            throw new ExitException(1);
+        }
+
+        if (arg_inputs.size() > 1) {
+            parser.handleError(new ArgumentParserException(
+                    "argument input: more than one input requires --batch-out", parser));
+            throw new ExitException(1);
+        }
+
+        // everything but batch mode works with a single input
+        Map<String, Object> attrs = new HashMap<String, Object>(arguments.getAttrs());
+        attrs.put("input", arg_inputs.isEmpty() ? null : arg_inputs.get(0));
+        arguments = new Namespace(attrs);
+
+        if (arguments.getBoolean("daemon")) {
+            runDaemon(parser, arguments);
+            return;
+        }
+
+        if (arguments.get("serve") != null) {
+            serve(parser, arguments);
+            return;
+        }
+
+        if (arguments.get("input") == null) {
+            parser.handleError(new ArgumentParserException("too few arguments", parser));
+            throw new ExitException(1);
+        }
+
+        try {
+            checkArguments(parser, arguments);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            throw new ExitException(1);
+        }
+
+        if (directory != null) {
+            arguments = resolvePaths(arguments, directory);
+        }
+
+        String arg_image_out = arguments.get("image_out");
+        boolean arg_html = arguments.get("html");
+        boolean arg_svg = arguments.get("svg");
+        boolean arg_live = arguments.get("live");
+        boolean arg_stream = arguments.get("stream");
+        boolean arg_raw = arguments.get("raw_format") != null;
+
+        boolean arg_out = false;
+
+        for (MultiOutputWriter.Kind kind : MultiOutputWriter.Kind.values()) {
+            arg_out |= arguments.get(getOutOption(kind)) != null;
+        }
+
+        if (arg_stream) {
+            if (arg_html || arg_svg || arg_image_out != null) {
+                parser.handleError(new ArgumentParserException(
+                        "argument --stream: not allowed with argument --html, --svg or --image-out", parser));
+                throw new ExitException(1);
+            }
+
+            if (!ConsoleTerminal.getInstance().isInteractive()) {
+                System.err.println("--stream output can only be played back in an interactive terminal.");
+                throw new ExitException(3);
+            }
+        }
+
+        // live output waits for resize events which never come when the output is piped or redirected
+        if (arg_live && !arg_html && !arg_svg && arg_image_out == null &&
+                !ConsoleTerminal.getInstance().isInteractive()) {
+            System.err.println("--live output can only be displayed in an interactive terminal.");
+            throw new ExitException(3);
+        }
+
+        ImageAsciiReader imgReader;
+
+        try {
+            if (arg_stream) {
+                // playStream closes the input stream
+                playStream(arguments, arg_raw ?
+                        openRawInput(arguments) :
+                        new ImageStreamFrameReader(openInput(arguments)));
+                return;
+            }
+
+            if (arg_raw) {
+                imgReader = createRawImageAsciiReader(arguments);
+            } else {
+                ImageInputStream input = openImageInput(arguments);
+
+                if (arg_image_out != null &&
+                        AnimationFormat.forName(getImageOutFormat(arguments, arg_image_out)) != null &&
+                        GifFrameReader.isAnimated(input)) {
+
+                    // writeImageOutAnimation closes the input stream
+                    writeImageOutAnimation(arguments, new GifFrameReader(input), arg_image_out);
+                    return;
+                }
+
+                if (arg_image_out == null && !arg_html && !arg_svg && !arg_out &&
+                        GifFrameReader.isAnimated(input) &&
+                        ConsoleTerminal.getInstance().isInteractive()) {
+
+                    // only play back when writing to an interactive terminal,
+                    // otherwise the first frame is printed like any other image.
+                    // the terminal is probed last, as that is slow.
+                    // playAnimation closes the input stream.
+                    playAnimation(arguments, new GifFrameReader(input));
+                    return;
+                }
+
+                try {
+                    // ImageIO.read closes the stream once it finds an image reader for it
+                    imgReader = createImageAsciiReader(arguments, input);
+                } catch (InvalidImageDataException e) {
+                    input.close();
+                    throw e;
+                }
+            }
+
+        } catch (InvalidImageDataException e) {
+            System.err.println("Provided image source contained invalid image data.");
+            throw new ExitException(3);
+        } catch (FileNotFoundException e) {
+
+            System.err.println(
+                    String.format("File not found: %s", e.getMessage())
+            );
+
+            throw new ExitException(3);
+        } catch (IOException e) {
+            System.err.println("Error reading from provided image source.");
+            throw new ExitException(3);
+        }
+
+        if (arg_out) {
+            writeOutputs(arguments, imgReader);
+            return;
+        }
+
+        if (arg_image_out != null) {
+
+            Point output_size = calcOutputSize(arguments, imgReader, 1.0f);
+
+            renderImageOut(arguments, imgReader, output_size, arg_image_out);
+
+            return;
+        }
+
+        if (arg_live && !arg_html && !arg_svg) {
+            try {
+                createConsolePrinter(arguments, imgReader).printLive();
+            } catch (IOException e) {
+                System.err.println(String.format("IO Error while writing output: %s", e.getMessage()));
+                throw new ExitException(3);
+            }
+            return;
+        }
+
+        if (arg_html && arguments.getBoolean("html_stats")) {
+            try {
+                printHtmlStats(arguments, imgReader);
+            } catch (IOException e) {
+                System.err.println(String.format("IO Error while writing output: %s", e.getMessage()));
+                throw new ExitException(3);
+            }
+            return;
+        }
+
+        AsciiPrinter printer = createPrinter(arguments, imgReader);
+
+        Point output_size = calcOutputSize(
+                arguments,
+                imgReader,
+                arguments.getFloat("height_scale"));
+
+        try {
+            printer.print(output_size);
+        } catch (IOException e) {
+            System.err.println(String.format("IO Error while writing output: %s", e.getMessage()));
+            throw new ExitException(3);
+        }
+    }
+
+    private static void writeOutputs(Namespace arguments, ImageAsciiReader imgReader) {
+
+        MultiOutputWriter writer = new MultiOutputWriter(arguments, imgReader);
+
+        for (MultiOutputWriter.Kind kind : MultiOutputWriter.Kind.values()) {
+            String path = arguments.get(getOutOption(kind));
+
+            if (path != null) {
+                writer.add(kind, path);
+            }
+        }
+
+        if (!writer.write()) {
+            throw new ExitException(3);
+        }
+    }
+
+    private static void printHtmlStats(Namespace arguments, ImageAsciiReader imgReader) throws IOException {
+
+        HtmlPrinter printer = createHtmlPrinter(arguments, imgReader);
+
+        Point output_size = calcOutputSize(
+                arguments,
+                imgReader,
+                arguments.getFloat("height_scale"));
+
+        if (output_size == null) {
+            output_size = printer.getDefaultSize();
+        }
+
+        // scale the image up front, so that neither timing below includes it
+        imgReader.read(output_size);
+
+        CountingOutputStream output = new CountingOutputStream(System.out);
+
+        long start = System.nanoTime();
+        printer.print(output_size, output);
+        long elapsed = System.nanoTime() - start;
+
+        HtmlPrinter reference = createHtmlPrinter(arguments, imgReader);
+        reference.setCompact(false);
+        reference.setCanvas(false);
+
+        CountingOutputStream reference_output = new CountingOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        long reference_start = System.nanoTime();
+        reference.print(output_size, reference_output);
+        long reference_elapsed = System.nanoTime() - reference_start;
+
+        System.err.println(String.format(
+                "HTML output: %d bytes in %.1f ms",
+                output.getCount(),
+                elapsed / 1000000.0));
+
+        System.err.println(String.format(
+                "One span per character: %d bytes in %.1f ms (%.1fx the size)",
+                reference_output.getCount(),
+                reference_elapsed / 1000000.0,
+                (double) reference_output.getCount() / Math.max(1, output.getCount())));
+    }
+
+    static AsciiImageRenderer createImageRenderer(Namespace arguments, ImageAsciiReader reader) {
+        AsciiImageRenderer render = new AsciiImageRenderer(reader);
+
+        render.setUseColors(arguments.getBoolean("colors"));
+        render.setColorFill(arguments.getBoolean("fill"));
+
+        render.setBackground((Color) arguments.get("image_background"));
+        render.setForeground((Color) arguments.get("image_foreground"));
+
+        Integer arg_image_threads = arguments.get("image_threads");
+
+        render.setThreads(arg_image_threads != null ?
+                arg_image_threads : Runtime.getRuntime().availableProcessors());
+
+        Integer arg_image_compression = arguments.get("image_compression");
+        PngFilter arg_image_filter = arguments.get("image_filter");
+
+        if (arg_image_compression != null) {
+            render.setPngCompressionLevel(arg_image_compression);
+        }
+
+        if (arg_image_filter != null) {
+            render.setPngFilter(arg_image_filter);
+        }
+
+        int arg_image_font_size = arguments.get("image_font_size");
+
+        String arg_image_font = arguments.get("image_font");
+
+        int arg_image_font_style = arguments.get("image_font_style");
+
+        //noinspection MagicConstant
+        render.setFont(new Font(
+                arg_image_font,
+                arg_image_font_style,
+                arg_image_font_size));
+
+        return render;
+    }
+
+    static String getImageOutFormat(Namespace arguments, String out_path) {
+        String arg_image_out_format = arguments.get("image_out_format");
+
+        if (arg_image_out_format != null) {
+            return arg_image_out_format;
+        }
+
+        int ext_dot = out_path.lastIndexOf('.');
+
+        if (ext_dot != -1) {
+            return out_path.substring(
+                    ext_dot + 1,
+                    out_path.length());
+        }
+
+        return "png";
+    }
+
+    private static void writeImageOutAnimation(Namespace arguments,
+                                               GifFrameReader animation,
+                                               String out_path) throws
+            IOException,
+            InvalidImageDataException {
+
+        try {
+            BufferedImage first_frame = animation.nextFrame();
+
+            if (first_frame == null) {
+                throw new InvalidImageDataException();
+            }
+
+            animation.rewind();
+
+            ImageAsciiReader imgReader = new ImageAsciiReader(first_frame);
+
+            configureImageAsciiReader(arguments, imgReader);
+
+            Point output_size = calcOutputSize(arguments, imgReader, 1.0f);
+
+            if (output_size == null) {
+                output_size = new Point(
+                        imgReader.getImageWidth(),
+                        imgReader.getImageHeight());
+            }
+
+            AsciiAnimationWriter writer = new AsciiAnimationWriter(createImageRenderer(arguments, imgReader));
+
+            writer.setFormat(AnimationFormat.forName(getImageOutFormat(arguments, out_path)));
+
+            Float arg_fps = arguments.get("fps");
+
+            if (arg_fps != null) {
+                writer.setFrameDelay(Math.round(1000.0f / arg_fps));
+            }
+
+            try {
+                writer.write(animation, output_size, new File(out_path));
+            } catch (IOException e) {
+
+                System.err.println(
+                        String.format("IO Error writing to image file: \"%s\"", out_path));
+
+                throw new ExitException(3);
+            }
+
+        } finally {
+            animation.close();
+        }
+    }
+
+    private static void renderImageOut(Namespace arguments,
+                                       ImageAsciiReader reader,
+                                       Point output_size,
+                                       String out_path) {
+
+        if (output_size == null) {
+            output_size = new Point(
+                    reader.getImageWidth(),
+                    reader.getImageHeight());
+        }
+
+        AsciiImageRenderer render = createImageRenderer(arguments, reader);
+
+        String arg_image_out_format = getImageOutFormat(arguments, out_path);
+
+        try {
+
+            if (!writeImageOut(render, output_size, new File(out_path), arg_image_out_format)) {
+
+                System.err.println(
+                        String.format("Unknown image output format: \"%s\"", arg_image_out_format));
+
+                throw new ExitException(3);
+            }
+
+        } catch (IOException e) {
+
+            System.err.println(
+                    String.format("IO Error writing to image file: \"%s\"", out_path));
+
+            throw new ExitException(3);
+        }
+    }
+
+    /**
+     * Render an image to a file.
+     *
+     * @param render      The image renderer.
+     * @param output_size Output dimensions, Point(cols, rows).
+     * @param out_file    The file to write.
+     * @param format      Image format name.
+     * @return False if there is no image writer for the format.
+     * @throws IOException If there is an IO error writing the file.
+     */
+    static boolean writeImageOut(AsciiImageRenderer render,
+                                 Point output_size,
+                                 File out_file,
+                                 String format) throws IOException {
+
+        // a still image written as an animated PNG is just a PNG
+        if (format.equalsIgnoreCase("png") ||
+                format.equalsIgnoreCase(AnimationFormat.APNG.getName())) {
+
+            // rendered a band at a time, so that huge images do not need to fit in memory
+
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(out_file));
+
+            try {
+                render.renderPng(output_size, output);
+            } finally {
+                output.close();
+            }
+
+            return true;
+        }
+
+        BufferedImage img = render.render(output_size);
+
+        return ImageIO.write(img, format, out_file);
+    }
+
+    /**
+     * Render an image to a stream.
+     * <br>
+     * The stream is not closed.
+     *
+     * @param render      The image renderer.
+     * @param output_size Output dimensions, Point(cols, rows).
+     * @param output      The stream to write.
+     * @param format      Image format name.
+     * @return False if there is no image writer for the format.
+     * @throws IOException If there is an IO error writing the stream.
+     */
+    static boolean writeImageOut(AsciiImageRenderer render,
+                                 Point output_size,
+                                 OutputStream output,
+                                 String format) throws IOException {
+
+        if (format.equalsIgnoreCase("png") ||
+                format.equalsIgnoreCase(AnimationFormat.APNG.getName())) {
+
+            render.renderPng(output_size, output);
+
+            return true;
+        }
+
+        BufferedImage img = render.render(output_size);
+
+        return ImageIO.write(img, format, output);
+    }
+
+    /**
+     * Thrown instead of calling {@link System#exit(int)}, so that commands can also run inside a daemon.
+     */
+    private static final class ExitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int m_status;
+
+        ExitException(int status) {
+            super(null, null, false, false);
+            m_status = status;
+        }
+
+        int getStatus() {
+            return m_status;
+        }
+    }
+
+    private static class ArgVersionAction implements ArgumentAction {
+
+        public void run(ArgumentParser parser,
+                        Argument arg,
+                        Map<String, Object> attrs,
+                        String flag,
+                        Object value) {
+
+            // the same as VersionArgumentAction, without exiting the process
+            parser.printVersion();
+
+            throw new ExitException(0);
+        }
+
+        public void onAttach(Argument arg) {
+        }
+
+        public boolean consumeArgument() {
+            return false;
+        }
+    }
+
+    private static class ArgPaletteStringType implements ArgumentType<String> {
+
+        public String convert(ArgumentParser argumentParser,
+                              Argument argument,
+                              String input) throws ArgumentParserException {
+
+            if (input.length() < 2) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Palette string must " +
+                                        "contain at least two characters.",
+                                argument.textualName()),
+                        argumentParser);
+            }
+
+            return input;
+        }
+    }
+
+    private static class ArgSizeType implements ArgumentType<Point> {
+
+        public Point convert(ArgumentParser argumentParser,
+                             Argument argument,
+                             String input) throws ArgumentParserException {
+
+            String[] parts = input.toLowerCase().split("x");
+
+
+            if (parts.length > 2) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Size must " +
+                                        "have one or two components.",
+                                argument.textualName()),
+                        argumentParser);
+            }
+
+            try {
+                if (parts.length == 2) {
                     return new Point(
                             Integer.parseInt(parts[0]),
                             Integer.parseInt(parts[1]));
@@ -708,6 +2198,122 @@ class App {
         }
     }
 
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long m_count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return m_count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            m_count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            m_count += len;
+        }
+    }
+
+    private static class ArgRawPixelFormatType implements ArgumentType<RawPixelFormat> {
+
+        public RawPixelFormat convert(ArgumentParser argumentParser,
+                                      Argument argument,
+                                      String input) throws ArgumentParserException {
+
+            RawPixelFormat format = RawPixelFormat.forName(input);
+
+            if (format == null) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Unknown raw pixel format \"%s\", " +
+                                        "must be one of: \"rgb24\", \"gray\".",
+                                argument.textualName(),
+                                input),
+                        argumentParser);
+            }
+
+            return format;
+        }
+    }
+
+    private static class ArgPngFilterType implements ArgumentType<PngFilter> {
+
+        public PngFilter convert(ArgumentParser argumentParser,
+                                 Argument argument,
+                                 String input) throws ArgumentParserException {
+
+            PngFilter filter = PngFilter.forName(input);
+
+            if (filter == null) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Unknown PNG filter \"%s\", must be one of: " +
+                                        "\"adaptive\", \"none\", \"sub\", \"up\", \"average\", \"paeth\".",
+                                argument.textualName(),
+                                input),
+                        argumentParser);
+            }
+
+            return filter;
+        }
+    }
+
+    private static class ArgCompressionType implements ArgumentType<OutputCompression> {
+
+        public OutputCompression convert(ArgumentParser argumentParser,
+                                         Argument argument,
+                                         String input) throws ArgumentParserException {
+
+            OutputCompression compression = OutputCompression.forName(input);
+
+            if (compression == null || compression == OutputCompression.NONE) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Unknown compression format \"%s\", " +
+                                        "must be one of: \"gzip\", \"deflate\".",
+                                argument.textualName(),
+                                input),
+                        argumentParser);
+            }
+
+            return compression;
+        }
+    }
+
+    private static class ArgFrameRateType implements ArgumentType<Float> {
+
+        public Float convert(ArgumentParser argumentParser,
+                             Argument argument,
+                             String input) throws ArgumentParserException {
+            float rate;
+            try {
+                rate = Float.parseFloat(input);
+            } catch (NumberFormatException err) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Frame rate " +
+                                        "must be a number, got: \"%s\"",
+                                argument.textualName(),
+                                input), argumentParser);
+            }
+
+            if (!(rate > 0)) {
+                throw new ArgumentParserException(
+                        String.format("argument %s: Frame rate must " +
+                                        "be greater than 0, was: %s",
+                                argument.textualName(),
+                                input),
+                        argumentParser);
+            }
+
+            return rate;
+        }
+    }
+
     private static class ArgFontStyleType implements ArgumentType<Integer> {
 
         public Integer convert(ArgumentParser argumentParser,
@@ -0,0 +1,376 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import com.github.teriks.img2a.utils.AnimationEncoder;
+import com.github.teriks.img2a.utils.ApngEncoder;
+import com.github.teriks.img2a.utils.GifEncoder;
+
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Renders the frames of an {@link ImageFrameSource} with an {@link AsciiImageRenderer}
+ * and writes them to an animated GIF or PNG image.
+ * <br>
+ * Frames are rendered into a few images which are reused for the whole animation, and the
+ * renderer's glyph atlas and font metrics are shared by every frame.  A frame which renders
+ * exactly like the frame before it is merged into that frame by adding up their delays, and
+ * only the area of each frame which changed is passed on to be encoded.
+ */
+public class AsciiAnimationWriter {
+
+    private static final int DEFAULT_FRAME_DELAY = 100;
+
+    private final AsciiImageRenderer m_renderer;
+    private AnimationFormat m_format = AnimationFormat.GIF;
+    private int m_frameDelay = -1;
+    private boolean m_loop = true;
+
+    private int m_readFrames = 0;
+    private int m_writtenFrames = 0;
+
+    /**
+     * Construct an AsciiAnimationWriter around a given {@link AsciiImageRenderer}.
+     * <br>
+     * Each frame is set as the image of the renderer's {@link ImageAsciiReader} before it is rendered.
+     *
+     * @param renderer The image renderer.
+     */
+    public AsciiAnimationWriter(AsciiImageRenderer renderer) {
+        m_renderer = renderer;
+    }
+
+    /**
+     * Get the {@link AsciiImageRenderer}
+     *
+     * @return {@link AsciiImageRenderer}
+     */
+    public final AsciiImageRenderer getRenderer() {
+        return m_renderer;
+    }
+
+    /**
+     * See: {@link #setFormat(AnimationFormat)}
+     *
+     * @return {@link AnimationFormat}
+     */
+    public final AnimationFormat getFormat() {
+        return m_format;
+    }
+
+    /**
+     * Set the format of the animated image.
+     * <br>
+     * PNG output is compressed with the PNG settings and thread count of the renderer,
+     * See: {@link AsciiImageRenderer#setPngCompressionLevel(int)}.
+     * <br>
+     * The default value is {@link AnimationFormat#GIF}.
+     *
+     * @param format {@link AnimationFormat}
+     */
+    public final void setFormat(AnimationFormat format) {
+        m_format = format;
+    }
+
+    /**
+     * See: {@link #setFrameDelay(int)}
+     *
+     * @return Frame delay override in milliseconds, or -1.
+     */
+    public final int getFrameDelay() {
+        return m_frameDelay;
+    }
+
+    /**
+     * Set a fixed display time for every frame, overriding the delays given by the frame source.
+     * <br>
+     * A value of -1 uses the delays of the frame source, sources without timing
+     * information are written at 10 frames per second.
+     *
+     * @param millis Frame delay in milliseconds, or -1.
+     */
+    public final void setFrameDelay(int millis) {
+        m_frameDelay = millis;
+    }
+
+    /**
+     * See: {@link #setLoop(boolean)}
+     *
+     * @return Whether or not the animation loops.
+     */
+    public final boolean getLoop() {
+        return m_loop;
+    }
+
+    /**
+     * Set whether or not viewers should play the animation in a loop, instead of stopping at the last frame.
+     * <br>
+     * The default value is True.
+     *
+     * @param value True or False
+     */
+    public final void setLoop(boolean value) {
+        m_loop = value;
+    }
+
+    /**
+     * Get the amount of frames read from the source by the last call to write.
+     *
+     * @return Read frame count.
+     */
+    public final int getReadFrames() {
+        return m_readFrames;
+    }
+
+    /**
+     * Get the amount of frames written by the last call to write, which is less
+     * than the amount of frames read if any of them were merged.
+     *
+     * @return Written frame count.
+     */
+    public final int getWrittenFrames() {
+        return m_writtenFrames;
+    }
+
+    /**
+     * Write all frames of a frame source to a file, replacing its contents.
+     * <br>
+     * See: {@link #write(ImageFrameSource, Point, ImageOutputStream)}
+     *
+     * @param source The frame source.
+     * @param size   Size of the animation in pixels.
+     * @param file   The output file.
+     * @throws IOException               Upon an error writing the file, or an error reading a frame.
+     * @throws InvalidImageDataException If a frame does not contain recognizable image data,
+     *                                   or the source has no frames.
+     */
+    public void write(ImageFrameSource source, Point size, File file) throws
+            IOException,
+            InvalidImageDataException {
+
+        RandomAccessFile output_file = new RandomAccessFile(file, "rw");
+
+        try {
+            output_file.setLength(0);
+
+            ImageOutputStream output = new FileImageOutputStream(output_file);
+
+            try {
+                this.write(source, size, output);
+            } finally {
+                output.close();
+            }
+        } finally {
+            output_file.close();
+        }
+    }
+
+    /**
+     * Write all frames of a frame source to an image output stream.
+     * <br>
+     * Animated PNG output seeks back to its header once every frame is written, so the
+     * stream must keep what is written to it until then, as the file and cache backed
+     * streams created by {@link javax.imageio.ImageIO#createImageOutputStream(Object)} do.
+     * <br>
+     * The source and the output stream are not closed.
+     *
+     * @param source The frame source.
+     * @param size   Size of the animation in pixels.
+     * @param output The image output stream.
+     * @throws IOException               Upon an error writing to the stream, or an error reading a frame.
+     * @throws InvalidImageDataException If a frame does not contain recognizable image data,
+     *                                   or the source has no frames.
+     * @throws IllegalArgumentException  If the size is not greater than 0.
+     */
+    public void write(ImageFrameSource source, Point size, ImageOutputStream output) throws
+            IOException,
+            InvalidImageDataException {
+
+        if (size.x < 1 || size.y < 1) {
+            throw new IllegalArgumentException("animation size must be greater than 0.");
+        }
+
+        ImageAsciiReader reader = m_renderer.getReader();
+
+        // the frame last written, the frame waiting to be written, and the frame being rendered
+        BufferedImage[] frames = new BufferedImage[3];
+        int[][] pixels = new int[3][];
+
+        int shown = -1;
+        int pending = -1;
+        long pending_delay = 0;
+
+        m_readFrames = 0;
+        m_writtenFrames = 0;
+
+        AnimationEncoder encoder = this.createEncoder(output, size.x, size.y);
+
+        try {
+            BufferedImage image;
+
+            while ((image = source.nextFrame()) != null) {
+                m_readFrames++;
+
+                int target = 0;
+
+                while (target == shown || target == pending) {
+                    target++;
+                }
+
+                if (frames[target] == null) {
+                    frames[target] = new BufferedImage(size.x, size.y, BufferedImage.TYPE_INT_RGB);
+                    pixels[target] = ((DataBufferInt) frames[target].getRaster().getDataBuffer()).getData();
+                }
+
+                reader.setImage(image);
+
+                m_renderer.render(frames[target]);
+
+                int delay = this.getDelay(source);
+
+                // nothing to show for a frame which looks the same as the one before it
+                if (pending != -1 && Arrays.equals(pixels[target], pixels[pending])) {
+                    pending_delay += delay;
+                    continue;
+                }
+
+                if (pending != -1) {
+                    this.writeFrame(encoder, size.x, pixels[pending], shown == -1 ? null : pixels[shown], pending_delay);
+                    shown = pending;
+                }
+
+                pending = target;
+                pending_delay = delay;
+            }
+
+            if (pending == -1) {
+                throw new InvalidImageDataException("The frame source has no frames.");
+            }
+
+            this.writeFrame(encoder, size.x, pixels[pending], shown == -1 ? null : pixels[shown], pending_delay);
+
+            encoder.finish();
+        } finally {
+            encoder.close();
+        }
+    }
+
+    private AnimationEncoder createEncoder(ImageOutputStream output, int width, int height) throws IOException {
+        if (m_format == AnimationFormat.APNG) {
+            return new ApngEncoder(
+                    output,
+                    width,
+                    height,
+                    m_loop ? 0 : 1,
+                    m_renderer.getPngCompressionLevel(),
+                    m_renderer.getPngFilter(),
+                    m_renderer.getThreads());
+        }
+
+        return new GifEncoder(output, width, height, m_loop ? 0 : -1);
+    }
+
+    private int getDelay(ImageFrameSource source) {
+        int delay = m_frameDelay;
+
+        if (delay < 0) {
+            delay = source.getFrameDelay();
+        }
+
+        return delay < 0 ? DEFAULT_FRAME_DELAY : delay;
+    }
+
+    private void writeFrame(AnimationEncoder encoder, int width, int[] frame, int[] previous, long delay) throws
+            IOException {
+
+        int height = frame.length / width;
+
+        int top = 0;
+        int bottom = height;
+        int left = 0;
+        int right = width;
+
+        if (previous != null) {
+            // the frames differ, so there is at least one changed row and column
+
+            while (rowEquals(frame, previous, top * width, width)) {
+                top++;
+            }
+
+            while (rowEquals(frame, previous, (bottom - 1) * width, width)) {
+                bottom--;
+            }
+
+            left = width;
+            right = 0;
+
+            for (int y = top; y < bottom; y++) {
+                int row = y * width;
+
+                int x = 0;
+
+                while (x < left && frame[row + x] == previous[row + x]) {
+                    x++;
+                }
+
+                left = Math.min(left, x);
+
+                x = width;
+
+                while (x > right && frame[row + x - 1] == previous[row + x - 1]) {
+                    x--;
+                }
+
+                right = Math.max(right, x);
+            }
+        }
+
+        encoder.writeFrame(frame, previous, left, top, right - left, bottom - top,
+                (int) Math.min(Integer.MAX_VALUE, delay));
+
+        m_writtenFrames++;
+    }
+
+    private static boolean rowEquals(int[] a, int[] b, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -27,14 +27,29 @@
 
 package com.github.teriks.img2a;
 
+import com.github.teriks.img2a.utils.ColorUtils;
+import com.github.teriks.img2a.utils.PngEncoder;
+import com.github.teriks.img2a.utils.PngFilter;
+
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
 
 /**
  * For rendering an image read by a {@link ImageAsciiReader}
  * as ASCII art directly into another image.
  */
 public class AsciiImageRenderer {
+    // pixels rendered at once by renderPng()
+    private static final int PNG_BAND_PIXELS = 1 << 21;
+
     private final ImageAsciiReader m_reader;
     private boolean m_useColors = false;
     private boolean m_colorFill = false;
@@ -42,6 +57,12 @@ public class AsciiImageRenderer {
     private Color m_foreground = Color.white;
     private Font m_font = new Font("Monospaced", Font.BOLD, 12);
 
+    // atlas of m_font, which also caches the cell metrics of each palette
+    private GlyphAtlas m_atlas;
+    private int m_threads = 1;
+    private int m_pngCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private PngFilter m_pngFilter = PngFilter.ADAPTIVE;
+
     public AsciiImageRenderer(ImageAsciiReader reader) {
         m_reader = reader;
     }
@@ -68,6 +89,7 @@ public class AsciiImageRenderer {
      */
     public final void setFont(Font font) {
         m_font = font;
+        m_atlas = null;
     }
 
     /**
@@ -156,6 +178,85 @@ public class AsciiImageRenderer {
         m_colorFill = value;
     }
 
+    /**
+     * See: {@link #setThreads(int)}
+     *
+     * @return The amount of threads used for rendering.
+     */
+    public final int getThreads() {
+        return m_threads;
+    }
+
+    /**
+     * Set the amount of threads used for rendering.
+     * <br>
+     * With more than one thread, the image is split into horizontal bands which are a whole
+     * number of text rows tall, and the bands are rendered at the same time into their own part
+     * of the image.  The result is identical to rendering with one thread.
+     * <br>
+     * Rendering falls back to one thread when a character of the palette needs to be drawn by
+     * Java 2D instead of from a {@link GlyphAtlas}.
+     * <br>
+     * The threads are also used to compress the output of {@link #renderPng(int, int, OutputStream)},
+     * See: {@link PngEncoder}.
+     * <br>
+     * The default value is 1.
+     *
+     * @param count Thread count.
+     * @throws IllegalArgumentException If count is less than 1.
+     */
+    public final void setThreads(int count) throws IllegalArgumentException {
+        if (count < 1) {
+            throw new IllegalArgumentException("thread count must be at least 1.");
+        }
+        m_threads = count;
+    }
+
+    /**
+     * See: {@link #setPngCompressionLevel(int)}
+     *
+     * @return Compression level, or -1 for the default level.
+     */
+    public final int getPngCompressionLevel() {
+        return m_pngCompressionLevel;
+    }
+
+    /**
+     * Set the deflate compression level used by {@link #renderPng(int, int, OutputStream)}.
+     * <br>
+     * Levels go from 0 (no compression, fastest) to 9 (best compression, slowest).
+     * The default value of -1 selects the zlib default, which is level 6.
+     *
+     * @param level Compression level from 0 to 9, or -1.
+     * @throws IllegalArgumentException If the level is out of range.
+     */
+    public final void setPngCompressionLevel(int level) throws IllegalArgumentException {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1.");
+        }
+        m_pngCompressionLevel = level;
+    }
+
+    /**
+     * See: {@link #setPngFilter(PngFilter)}
+     *
+     * @return {@link PngFilter}
+     */
+    public final PngFilter getPngFilter() {
+        return m_pngFilter;
+    }
+
+    /**
+     * Set the row filter strategy used by {@link #renderPng(int, int, OutputStream)}.
+     * <br>
+     * The default value is {@link PngFilter#ADAPTIVE}.
+     *
+     * @param filter {@link PngFilter}
+     */
+    public final void setPngFilter(PngFilter filter) {
+        m_pngFilter = filter;
+    }
+
     /**
      * Render to and return a {@link BufferedImage} containing
      * the resulting ASCII output.
@@ -177,29 +278,160 @@ public class AsciiImageRenderer {
      */
     public BufferedImage render(int width, int height) {
         BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        final Font font = m_font;
 
-        Graphics2D graphics = (Graphics2D) img.getGraphics();
+        this.render(img);
 
-        setRenderingHints(graphics);
+        return img;
+    }
 
-        FontMetrics metrics = graphics.getFontMetrics(font);
+    /**
+     * Render the resulting ASCII output into an existing image, replacing all of its pixels.
+     * <br>
+     * The output has the size of the image, and the pixels are the same as those of a new image
+     * returned by {@link #render(int, int)}.  This allows rendering a sequence of frames without
+     * allocating a new image for each one.
+     *
+     * @param image An image of type {@link BufferedImage#TYPE_INT_RGB}, which is not a sub image.
+     * @throws IllegalArgumentException If the image is not of type TYPE_INT_RGB, or is a sub image.
+     */
+    public void render(BufferedImage image) throws IllegalArgumentException {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB || image.getRaster().getParent() != null) {
+            throw new IllegalArgumentException("image must be a TYPE_INT_RGB image which is not a sub image.");
+        }
 
-        int charHeight = metrics.getHeight();
-        int charWidth = 0;
+        int width = image.getWidth();
+        int height = image.getHeight();
 
-        for (char c : getReader().getPalette().toCharArray()) {
-            int w = metrics.charWidth(c);
-            if (w > charWidth) {
-                charWidth = w;
-            }
-        }
+        Layout layout = this.createLayout(width, height);
+
+        // reset to the state of a new image, the background may be translucent
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+
+        Graphics2D graphics = image.createGraphics();
 
         graphics.setColor(m_background);
 
         graphics.fillRect(0, 0, width, height);
 
-        graphics.setFont(font);
+        graphics.dispose();
+
+        // scale the image to the amount of cells up front, the rows are then read from the bands
+        m_reader.read(layout.m_cols, layout.m_rows);
+
+        ExecutorService workers = this.createWorkers(layout);
+
+        try {
+            this.renderRows(image, 0, 0, height, layout, workers);
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Render the resulting ASCII output straight to a stream as a PNG image.
+     * <br>
+     * See: {@link #renderPng(int, int, OutputStream)}
+     *
+     * @param size   Desired size of the output image in pixels.
+     * @param output The output stream.
+     * @throws IOException If writing to the output stream fails.
+     */
+    public void renderPng(Point size, OutputStream output) throws IOException {
+        renderPng(size.x, size.y, output);
+    }
+
+    /**
+     * Render the resulting ASCII output straight to a stream as a PNG image.
+     * <br>
+     * The image is rendered and encoded one band of text rows at a time, so only one band
+     * is held in memory instead of the whole image.  This allows writing images which are
+     * far too large to fit in memory.  The pixels are the same as those of {@link #render(int, int)}.
+     * <br>
+     * The output stream is flushed but not closed.
+     *
+     * @param width  Desired width of the output image in pixels.
+     * @param height Desired height of the output image in pixels.
+     * @param output The output stream.
+     * @throws IOException If writing to the output stream fails.
+     */
+    public void renderPng(int width, int height, OutputStream output) throws IOException {
+        Layout layout = this.createLayout(width, height);
+
+        int charHeight = layout.m_charHeight;
+
+        int band_rows = Math.max(1, PNG_BAND_PIXELS / Math.max(1, width * charHeight));
+        int band_height = Math.min(height, band_rows * charHeight);
+
+        BufferedImage band = new BufferedImage(width, band_height, BufferedImage.TYPE_INT_RGB);
+
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+
+        m_reader.read(layout.m_cols, layout.m_rows);
+
+        PngEncoder encoder = new PngEncoder(
+                output, width, height, m_pngCompressionLevel, m_pngFilter, m_threads);
+
+        ExecutorService workers = this.createWorkers(layout);
+
+        try {
+            for (int top = 0; top < height; top += band_height) {
+                int bottom = Math.min(height, top + band_height);
+
+                // reset to the state of a new image, the background may be translucent
+                Arrays.fill(pixels, 0);
+
+                Graphics2D graphics = band.createGraphics();
+                graphics.setColor(m_background);
+                graphics.fillRect(0, 0, width, band_height);
+                graphics.dispose();
+
+                this.renderRows(band, top, top, bottom, layout, workers);
+
+                encoder.writeRows(pixels, 0, width, bottom - top);
+            }
+
+            encoder.finish();
+        } finally {
+            encoder.close();
+
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Get the amount of text columns and rows an image of the given size is rendered with.
+     * <br>
+     * This is the size the {@link ImageAsciiReader} is read at by {@link #render(int, int)}
+     * and {@link #renderPng(int, int, OutputStream)}.
+     *
+     * @param size Size of the output image in pixels.
+     * @return Point(cols, rows)
+     */
+    final Point getGridSize(Point size) {
+        Layout layout = this.createLayout(size.x, size.y);
+
+        return new Point(layout.m_cols, layout.m_rows);
+    }
+
+    private Layout createLayout(int width, int height) {
+        Layout layout = new Layout();
+
+        GlyphAtlas atlas = m_atlas;
+
+        if (atlas == null) {
+            atlas = GlyphAtlas.getInstance(m_font);
+            m_atlas = atlas;
+        }
+
+        // measured once per font and palette, later renders reuse the cached metrics
+        GlyphAtlas.CellMetrics metrics = atlas.getCellMetrics(getReader().getPalette());
+
+        int charHeight = metrics.getCharHeight();
+        int charWidth = metrics.getCharWidth();
 
         // round up to ensure the image is filled perfectly in the best case
         // and overfilled in the worse case.  This prevents gaps at the edges
@@ -208,87 +440,234 @@ public class AsciiImageRenderer {
         int cols = (int) Math.ceil(((float) width / (float) charWidth));
         int rows = (int) Math.ceil((float) height / (float) charHeight);
 
+        layout.m_charWidth = charWidth;
+        layout.m_charHeight = charHeight;
+        layout.m_cols = cols;
+        layout.m_rows = rows;
+
         // mitigate overflow typesetting ugliness by shifting things
         // up or left by half the overflow amount.
-        int offW = Math.round((width - (cols * charWidth)) * 0.5f);
-        int offH = Math.round((height - (rows * charHeight)) * 0.5f);
+        layout.m_offW = Math.round((width - (cols * charWidth)) * 0.5f);
+        layout.m_offH = Math.round((height - (rows * charHeight)) * 0.5f);
 
-        // starting X coord characters
-        int charAdvance = offW;
+        // the atlas is used as long as the characters are opaque
+        layout.m_atlas = m_useColors || m_foreground.getAlpha() == 0xFF ? atlas : null;
 
-        // starting baseline Y coord for characters
-        int charDescent = charHeight + offH;
+        layout.m_atlasOnly = layout.m_atlas != null && metrics.getAllGlyphs();
 
-        // starting top left Y coord for background boxes.
-        int backgroundDescent = 0;
+        // how far characters reach above and below their baseline, which decides
+        // the rows that need to be drawn to fill in a band of the image.
 
-        // characters render with the origin at the lower left corner (effectively)
-        // while the background boxes render with the origin at the top left.
-        //
-        // charDescent needs to start at one character height down because of this.
-        // to get the top left Y coord for background boxes you need: charDescent - charHeight.
+        int ascent = 0;
+        int descent = 0;
 
-        // default foreground color if characters are not colored.
+        if (layout.m_atlas != null) {
+            ascent = metrics.getGlyphAscent();
+            descent = metrics.getGlyphDescent();
+        }
+
+        if (!layout.m_atlasOnly) {
+            // drawChars may substitute a glyph from another font, leave plenty of room for it
+            ascent = Math.max(ascent, metrics.getMaxAscent() + charHeight);
+            descent = Math.max(descent, metrics.getMaxDescent() + charHeight);
+        }
+
+        layout.m_ascent = ascent;
+        layout.m_descent = descent;
+
+        return layout;
+    }
+
+    private ExecutorService createWorkers(Layout layout) {
+        if (m_threads < 2 || layout.m_rows < 2 || !layout.m_atlasOnly) {
+            return null;
+        }
+
+        return Executors.newFixedThreadPool(m_threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "img2a-render");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Renders the image rows from clipTop to clipBottom, which start on a text row, split into smaller
+    // bands on the worker threads if there are any.  See renderBand() for the other arguments.
+
+    private void renderRows(final BufferedImage target, final int targetTop, int clipTop, int clipBottom,
+                            final Layout layout, ExecutorService workers) {
+
+        if (workers == null) {
+            this.renderBand(target, targetTop, clipTop, clipBottom, layout);
+            return;
+        }
+
+        int charHeight = layout.m_charHeight;
+
+        int first_row = clipTop / charHeight;
+        int rows = (clipBottom - clipTop + charHeight - 1) / charHeight;
+
+        // a few bands per thread, so that threads which finish early can pick up more work
+
+        int band_count = Math.min(rows, m_threads * 4);
+        int band_rows = (rows + band_count - 1) / band_count;
 
-        Color fg_color = m_foreground;
+        List<Callable<Object>> bands = new ArrayList<Callable<Object>>();
 
-        graphics.setColor(fg_color);
+        for (int row = first_row; row < first_row + rows; row += band_rows) {
+            final int top = row * charHeight;
+            final int bottom = Math.min(clipBottom, (row + band_rows) * charHeight);
+
+            bands.add(new Callable<Object>() {
+                public Object call() {
+                    renderBand(target, targetTop, top, bottom, layout);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> band : workers.invokeAll(bands)) {
+                band.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    // Draws every row which reaches into the image rows from clipTop to clipBottom, writing only to those rows.
+    // Pixels are drawn in the same order as when rendering the whole image at once, so bands rendered
+    // separately put together into exactly the same image.  Row 0 of the target is image row targetTop.
+
+    private void renderBand(BufferedImage target, int targetTop, int clipTop, int clipBottom, Layout layout) {
+        int[] pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+
+        int width = target.getWidth();
+        int offset = -targetTop * width;
+
+        int charWidth = layout.m_charWidth;
+        int charHeight = layout.m_charHeight;
+
+        Graphics2D graphics = null;
+
+        // default foreground color if characters are not colored.
+
+        int fg_color = m_foreground.getRGB();
 
         char[] charData = new char[1];
 
-        for (ImageRow row : m_reader.read(cols, rows)) {
-            for (Pixel pix : row) {
+        // characters are blended straight into the pixels from cached masks, anything the
+        // atlas can not draw, or a translucent foreground, goes through drawChars instead.
+
+        GlyphAtlas.Glyph[] glyphs = new GlyphAtlas.Glyph[128];
+
+        for (int r = 0; r < layout.m_rows; r++) {
+
+            // characters render with the origin at the lower left corner (effectively)
+            // while the background boxes render with the origin at the top left.
+
+            int backgroundDescent = r * charHeight;
+            int charDescent = backgroundDescent + charHeight + layout.m_offH;
+
+            if (Math.max(backgroundDescent + charHeight, charDescent + layout.m_descent) <= clipTop ||
+                    Math.min(backgroundDescent, charDescent - layout.m_ascent) >= clipBottom) {
+                continue;
+            }
+
+            // only the first row is shifted left by the overflow amount
+            int charAdvance = r == 0 ? layout.m_offW : 0;
+
+            for (Pixel pix : new ImageRow(m_reader, r)) {
 
                 if (m_useColors) {
-                    fg_color = pix.getColor();
+                    fg_color = pix.getColor().getRGB();
 
                     if (m_colorFill) {
 
                         // Fill rect with pixel color, dim / modify the foreground a bit
                         // so that it stands out.
 
-                        graphics.setColor(fg_color);
+                        fillRect(pixels, offset, width, clipTop, clipBottom,
+                                charAdvance, backgroundDescent, charWidth, charHeight, fg_color);
+
+                        fg_color = ColorUtils.fillForeground(
+                                fg_color, pix.getLuma(), getReader().getUseGrayscaleColor());
+                    }
+                }
+
+                char c = pix.getChar();
 
-                        // charDescent - charHeight to get the top left Y position for the box,
-                        // because the characters origin is actually the lower left hand corner
-                        // when rendering
+                GlyphAtlas.Glyph glyph = null;
 
-                        graphics.fillRect(charAdvance, backgroundDescent, charWidth, charHeight);
+                if (layout.m_atlas != null) {
+                    glyph = c < glyphs.length ? glyphs[c] : null;
 
-                        fg_color = calcColorFillForeground(pix);
-                    }
+                    if (glyph == null) {
+                        glyph = layout.m_atlas.getGlyph(c);
 
-                    graphics.setColor(fg_color);
+                        if (c < glyphs.length) {
+                            glyphs[c] = glyph;
+                        }
+                    }
                 }
 
-                charData[0] = pix.getChar();
+                if (glyph != null) {
+                    glyph.draw(pixels, offset, width, clipTop, clipBottom,
+                            charAdvance, charDescent, fg_color);
+                } else {
+                    if (graphics == null) {
+                        graphics = target.createGraphics();
+                        setRenderingHints(graphics);
+                        graphics.setFont(m_font);
+                        graphics.translate(0, -targetTop);
+                        graphics.clipRect(0, clipTop, width, clipBottom - clipTop);
+                    }
 
+                    charData[0] = c;
 
-                graphics.drawChars(charData, 0, 1, charAdvance, charDescent);
+                    // only the default foreground may be translucent
+                    graphics.setColor(m_useColors ? new Color(fg_color) : m_foreground);
+                    graphics.drawChars(charData, 0, 1, charAdvance, charDescent);
+                }
 
                 charAdvance += charWidth;
             }
-
-            charDescent += charHeight;
-            backgroundDescent += charHeight;
-
-            charAdvance = 0;
         }
 
-        return img;
+        if (graphics != null) {
+            graphics.dispose();
+        }
     }
 
-    private Color calcColorFillForeground(Pixel pix) {
-        float fg_factor =
-                getReader().getUseGrayscaleColor() ? 0.5f : pix.getLuma();
+    private static void fillRect(int[] pixels, int offset, int width, int clipTop, int clipBottom,
+                                 int x, int y, int w, int h, int rgb) {
+        int start_x = Math.max(0, x);
+        int end_x = Math.min(width, x + w);
+        int end_y = Math.min(clipBottom, y + h);
 
-        Color fg_color = pix.getColor();
+        if (start_x >= end_x) {
+            return;
+        }
+
+        rgb &= 0xFFFFFF;
 
-        int fg_R = Math.round(fg_color.getRed() * fg_factor);
-        int fg_G = Math.round(fg_color.getGreen() * fg_factor);
-        int fg_B = Math.round(fg_color.getBlue() * fg_factor);
+        for (int row = Math.max(clipTop, y); row < end_y; row++) {
+            int start = offset + row * width;
 
-        return new Color(fg_R, fg_G, fg_B);
+            Arrays.fill(pixels, start + start_x, start + end_x, rgb);
+        }
     }
 
     private void setRenderingHints(Graphics2D graphics) {
@@ -296,4 +675,17 @@ public class AsciiImageRenderer {
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
     }
+
+    private static final class Layout {
+        int m_cols;
+        int m_rows;
+        int m_charWidth;
+        int m_charHeight;
+        int m_offW;
+        int m_offH;
+        int m_ascent;
+        int m_descent;
+        GlyphAtlas m_atlas;
+        boolean m_atlasOnly;
+    }
 }
@@ -29,7 +29,11 @@ package com.github.teriks.img2a;
 
 import java.awt.*;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * For printing an image read by a {@link ImageAsciiReader}
@@ -38,8 +42,12 @@ import java.io.OutputStreamWriter;
  * For optional ANSI color support and console auto fitting use {@link ConsolePrinter}.
  */
 public class AsciiPrinter {
+    private static final int COMPRESSION_BUFFER_SIZE = 65536;
+
     private final ImageAsciiReader m_reader;
     private float m_defaultHeightScale = 0.5f;
+    private OutputCompression m_compression = OutputCompression.NONE;
+    private int m_compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
 
     /**
@@ -75,6 +83,57 @@ public class AsciiPrinter {
         m_defaultHeightScale = value;
     }
 
+    /**
+     * See: {@link #setCompression(OutputCompression)}
+     *
+     * @return {@link OutputCompression}
+     */
+    public final OutputCompression getCompression() {
+        return m_compression;
+    }
+
+    /**
+     * Set the compression applied to output written to a stream.
+     * <br>
+     * This applies to {@link #print()}, {@link #print(int, int)}, {@link #print(Point)} and
+     * {@link #print(Point, OutputStream)}.  Output is compressed incrementally as it is produced,
+     * the uncompressed output is never held in memory as a whole.
+     * <br>
+     * Methods which take an {@link OutputStreamWriter} write to it uncompressed.
+     * <br>
+     * The default value is {@link OutputCompression#NONE}.
+     *
+     * @param compression {@link OutputCompression}
+     */
+    public final void setCompression(OutputCompression compression) {
+        m_compression = compression;
+    }
+
+    /**
+     * See: {@link #setCompressionLevel(int)}
+     *
+     * @return Compression level, or -1 for the default level.
+     */
+    public final int getCompressionLevel() {
+        return m_compressionLevel;
+    }
+
+    /**
+     * Set the deflate compression level used by {@link #setCompression(OutputCompression)}.
+     * <br>
+     * Levels go from 0 (no compression, fastest) to 9 (best compression, slowest).
+     * The default value of -1 selects the zlib default, which is level 6.
+     *
+     * @param level Compression level from 0 to 9, or -1.
+     * @throws IllegalArgumentException If the level is out of range.
+     */
+    public final void setCompressionLevel(int level) throws IllegalArgumentException {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1.");
+        }
+        m_compressionLevel = level;
+    }
+
     /**
      * Get the default output size when no size is specified.
      * <br>
@@ -118,9 +177,7 @@ public class AsciiPrinter {
      * @throws IOException Upon writer.write IOException
      */
     public final void print() throws IOException {
-        OutputStreamWriter writer = new OutputStreamWriter(System.out);
-        this.print(this.getDefaultSize(), writer);
-        writer.flush();
+        this.print(this.getDefaultSize(), this.getStandardOutput());
     }
 
     /**
@@ -131,9 +188,76 @@ public class AsciiPrinter {
      * @throws IOException Upon writer.write IOException
      */
     public final void print(int cols, int rows) throws IOException {
-        OutputStreamWriter writer = new OutputStreamWriter(System.out);
-        this.print(cols, rows, writer);
+        this.print(new Point(cols, rows), this.getStandardOutput());
+    }
+
+    /**
+     * Get the stream that {@link #print()} and {@link #print(int, int)} write to.
+     *
+     * @return {@link System#out}
+     */
+    protected OutputStream getStandardOutput() {
+        return System.out;
+    }
+
+    /**
+     * Write img2a output to an output stream with the given dimensions,
+     * compressed according to {@link #setCompression(OutputCompression)}.
+     * <br>
+     * If **size** is **null**, the size from {@link #getDefaultSize()} is used.
+     * <br>
+     * The stream is flushed afterwards but not closed, any compressed format is finished
+     * so that more data can follow it.
+     *
+     * @param size   Desired dimensions, Point(rows, cols).
+     * @param output Output stream.
+     * @throws IOException Upon output.write IOException
+     */
+    public final void print(Point size, OutputStream output) throws IOException {
+        DeflaterOutputStream compressed = this.createCompressedStream(output);
+
+        OutputStreamWriter writer = new OutputStreamWriter(compressed == null ? output : compressed);
+
+        this.print(size, writer);
+
         writer.flush();
+
+        if (compressed != null) {
+            compressed.finish();
+            output.flush();
+        }
+    }
+
+    private DeflaterOutputStream createCompressedStream(OutputStream output) throws IOException {
+        final int level = m_compressionLevel;
+
+        // the deflaters are released as soon as the stream is finished,
+        // since the stream itself is never closed.
+
+        switch (m_compression) {
+            case GZIP:
+                return new GZIPOutputStream(output, COMPRESSION_BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+
+                    @Override
+                    public void finish() throws IOException {
+                        super.finish();
+                        def.end();
+                    }
+                };
+            case DEFLATE:
+                return new DeflaterOutputStream(output, new Deflater(level), COMPRESSION_BUFFER_SIZE) {
+                    @Override
+                    public void finish() throws IOException {
+                        super.finish();
+                        def.end();
+                    }
+                };
+            default:
+                return null;
+        }
     }
 
     /**
@@ -0,0 +1,983 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts many images in one process, writing the output of each one to a file named by a template.
+ * <br>
+ * Inputs are image files, urls, directories which are searched recursively for image files, and
+ * glob patterns.  Images go through an {@link ImagePipeline}, so that reading, converting and writing
+ * files overlap, and a memory budget limits how many images are decoded at once, based on the
+ * dimensions of each image.
+ * <br>
+ * An image which can not be converted is reported to stderr and skipped, without stopping the others.
+ * The conversion rate is reported to stderr while converting, and once all images are done.
+ */
+final class BatchConverter {
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+
+    private static final int WRITE_THREADS = 2;
+
+    // decoded images are estimated as ARGB, once for the image itself
+    // and once for the copies which scaling and rendering make of it.
+    private static final long BYTES_PER_PIXEL = 4 * 2;
+
+    private final Namespace m_arguments;
+    private final String m_template;
+    private final int m_threads;
+    private final int m_memoryBudget;
+    private final Semaphore m_memory;
+
+    private final AtomicInteger m_converted = new AtomicInteger();
+    private final AtomicInteger m_failed = new AtomicInteger();
+
+    private BatchJournal m_journal;
+    private Listener m_listener;
+    private boolean m_replaceOutputs = false;
+
+    // pipeline of start(), which keeps running between calls to submit()
+    private ImagePipeline<Job, ByteArrayOutputStream> m_pipeline;
+
+    /**
+     * Construct a batch converter.
+     * <br>
+     * The output file name template may contain: {dir}, the directory of an input relative to the
+     * directory or glob pattern it was found by, {name}, the file name of an input without its
+     * extension, {ext}, the extension of an input, and {index}, the position of an input
+     * counting from 1.
+     *
+     * @param arguments     Parsed command line arguments, which configure every conversion
+     *                      of an input without arguments of its own.
+     * @param template      Output file name template, may be null if every input has an output file name.
+     * @param threads       Maximum amount of images decoded, and converted, at the same time.
+     * @param memory_budget Memory in bytes the images being converted may take up at once.
+     * @throws IllegalArgumentException If threads or memory_budget is less than 1.
+     */
+    BatchConverter(Namespace arguments, String template, int threads, long memory_budget) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1.");
+        }
+
+        if (memory_budget < 1) {
+            throw new IllegalArgumentException("memory_budget must be at least 1.");
+        }
+
+        m_arguments = arguments;
+        m_template = template;
+        m_threads = threads;
+
+        // counted in KiB, so that large budgets fit into the semaphore
+        m_memoryBudget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memory_budget / 1024));
+        m_memory = new Semaphore(m_memoryBudget, true);
+
+        // streams which can not seek are cached in memory, instead of in temporary files
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Get the default memory budget, half of the maximum heap size.
+     *
+     * @return Memory budget in bytes.
+     */
+    static long getDefaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Get the output file name template.
+     *
+     * @return The template, may be null.
+     */
+    String getTemplate() {
+        return m_template;
+    }
+
+    /**
+     * Set a journal which records every input with a key once its output is written.
+     * <br>
+     * Outputs are then written to a temporary file first and renamed into place, so that
+     * an output which is there is never cut short by a crash.
+     *
+     * @param journal The journal, may be null.
+     */
+    void setJournal(BatchJournal journal) {
+        m_journal = journal;
+        m_replaceOutputs = journal != null;
+    }
+
+    /**
+     * Set whether or not outputs are written to a temporary file first and renamed into place,
+     * so that a program reading an output never sees it half written.
+     * <br>
+     * The default value is False, unless a journal is set.
+     *
+     * @param value True or False
+     */
+    void setReplaceOutputs(boolean value) {
+        m_replaceOutputs = value;
+    }
+
+    /**
+     * Set a listener which is told about the result of every input.
+     *
+     * @param listener The listener, may be null.
+     */
+    void setListener(Listener listener) {
+        m_listener = listener;
+    }
+
+    /**
+     * Get the amount of images which were converted by the last call to {@link #run(List)}.
+     *
+     * @return Converted image count.
+     */
+    int getConverted() {
+        return m_converted.get();
+    }
+
+    /**
+     * Get the amount of images which failed to convert in the last call to {@link #run(List)}.
+     *
+     * @return Failed image count.
+     */
+    int getFailed() {
+        return m_failed.get();
+    }
+
+    /**
+     * Expand input arguments into the images they name.
+     * <br>
+     * Directories are searched recursively for files with an extension ImageIO can read, and glob
+     * patterns are matched against the files below the part of the pattern without wildcards.
+     * Urls and other file names are used as they are, whether or not they exist.
+     *
+     * @param inputs Input file names, directories, glob patterns and urls.
+     * @param errors Receives an error message for every pattern which matches no files,
+     *               and every directory which could not be searched.
+     * @return The expanded inputs, in order.
+     */
+    static List<Input> expandInputs(List<String> inputs, List<String> errors) {
+        List<Input> expanded = new ArrayList<Input>();
+
+        Set<String> suffixes = getReaderSuffixes();
+
+        for (String input : inputs) {
+            if (App.isUrl(input)) {
+                expanded.add(new Input(input, "", getUrlFileName(input)));
+                continue;
+            }
+
+            File file = new File(input);
+
+            if (file.isDirectory()) {
+                expandDirectory(file.toPath(), suffixes, expanded, errors);
+            } else if (!file.exists() && isGlob(input)) {
+                expandGlob(input, expanded, errors);
+            } else {
+                expanded.add(new Input(input, "", file.getName()));
+            }
+        }
+
+        return expanded;
+    }
+
+    /**
+     * Get the file extensions ImageIO can read, directories are searched for files with these extensions.
+     *
+     * @return Lower case file extensions, without a leading dot.
+     */
+    static Set<String> getReaderSuffixes() {
+        Set<String> suffixes = new HashSet<String>();
+
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        }
+
+        return suffixes;
+    }
+
+    private static boolean isGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            switch (input.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the file name at the end of the path of a url.
+     *
+     * @param url The url.
+     * @return File name, or "index" if the path ends with a slash.
+     */
+    static String getUrlFileName(String url) {
+        String path;
+
+        try {
+            path = new URL(url).getPath();
+        } catch (IOException e) {
+            path = "";
+        }
+
+        String name = path.substring(path.lastIndexOf('/') + 1);
+
+        return name.isEmpty() ? "index" : name;
+    }
+
+    private static void expandDirectory(final Path root,
+                                        final Set<String> suffixes,
+                                        List<Input> expanded,
+                                        final List<String> errors) {
+
+        final List<Path> files = new ArrayList<Path>();
+
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile() && suffixes.contains(getExtension(
+                                    file.getFileName().toString()).toLowerCase(Locale.ROOT))) {
+                                files.add(file);
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            errors.add(String.format("%s: Could not be searched: %s", file, e.getMessage()));
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            errors.add(String.format("%s: Could not be searched: %s", root, e.getMessage()));
+        }
+
+        // the order of a directory listing is undefined
+        Collections.sort(files);
+
+        for (Path file : files) {
+            Path parent = root.relativize(file).getParent();
+
+            expanded.add(new Input(
+                    file.toString(),
+                    parent == null ? "" : parent.toString(),
+                    file.getFileName().toString()));
+        }
+    }
+
+    private static void expandGlob(String pattern,
+                                   List<Input> expanded,
+                                   final List<String> errors) {
+
+        // the leading directories without wildcards are searched, the rest is matched
+
+        String[] parts = pattern.split("[/\\\\]", -1);
+
+        StringBuilder base = new StringBuilder();
+        StringBuilder glob = new StringBuilder();
+
+        boolean in_glob = false;
+        int depth = 0;
+
+        for (int i = 0; i < parts.length; i++) {
+            if (!in_glob && i < parts.length - 1 && !isGlob(parts[i])) {
+                base.append(parts[i]).append('/');
+                continue;
+            }
+
+            in_glob = true;
+
+            if (parts[i].contains("**")) {
+                depth = Integer.MAX_VALUE;
+            } else if (depth != Integer.MAX_VALUE) {
+                depth++;
+            }
+
+            if (glob.length() > 0) {
+                glob.append('/');
+            }
+            glob.append(parts[i]);
+        }
+
+        final Path root = Paths.get(base.length() == 0 ? "." : base.toString());
+        final List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+        final List<Path> files = new ArrayList<Path>();
+
+        // a "**/" segment also matches no directories at all, the same as a shell globstar,
+        // which a java glob does not do on its own.
+
+        for (String variant : getGlobStarVariants(glob.toString())) {
+            matchers.add(root.getFileSystem().getPathMatcher("glob:" + variant));
+        }
+
+        if (!Files.isDirectory(root)) {
+            errors.add(String.format("%s: No files match the pattern.", pattern));
+            return;
+        }
+
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), depth,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile()) {
+                                Path relative = root.relativize(file);
+
+                                for (PathMatcher matcher : matchers) {
+                                    if (matcher.matches(relative)) {
+                                        files.add(file);
+                                        break;
+                                    }
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            errors.add(String.format("%s: Could not be searched: %s", file, e.getMessage()));
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            errors.add(String.format("%s: Could not be searched: %s", pattern, e.getMessage()));
+            return;
+        }
+
+        if (files.isEmpty()) {
+            errors.add(String.format("%s: No files match the pattern.", pattern));
+            return;
+        }
+
+        Collections.sort(files);
+
+        for (Path file : files) {
+            Path parent = root.relativize(file).getParent();
+
+            expanded.add(new Input(
+                    base.length() == 0 ? root.relativize(file).toString() : file.toString(),
+                    parent == null ? "" : parent.toString(),
+                    file.getFileName().toString()));
+        }
+    }
+
+    // the glob with every combination of its "**/" segments left in or removed
+
+    private static List<String> getGlobStarVariants(String glob) {
+        List<String> variants = new ArrayList<String>();
+
+        int index = glob.startsWith("**/") ? 0 : glob.indexOf("/**/");
+
+        if (index == -1) {
+            variants.add(glob);
+            return variants;
+        }
+
+        // the segment starts after the slash in front of it, if there is one
+        int start = index == 0 ? 0 : index + 1;
+        String head = glob.substring(0, start);
+
+        for (String tail : getGlobStarVariants(glob.substring(start + 3))) {
+            variants.add(head + "**/" + tail);
+            variants.add(head + tail);
+        }
+
+        return variants;
+    }
+
+    static String getExtension(String name) {
+        int ext_dot = name.lastIndexOf('.');
+
+        return ext_dot <= 0 ? "" : name.substring(ext_dot + 1);
+    }
+
+    private static String getBaseName(String name) {
+        int ext_dot = name.lastIndexOf('.');
+
+        return ext_dot <= 0 ? name : name.substring(0, ext_dot);
+    }
+
+    /**
+     * Get the output file name the template gives an input.
+     *
+     * @param input The input.
+     * @param index Position of the input, counting from 1.
+     * @return Output file name.
+     */
+    String getOutputPath(Input input, int index) {
+        if (input.getOutput() != null) {
+            return input.getOutput();
+        }
+
+        return applyTemplate(m_template, input.getDirectory(), input.getName(), index);
+    }
+
+    /**
+     * Fill in an output file name template.
+     *
+     * @param template  The template, See: {@link #BatchConverter(Namespace, String, int, long)}
+     * @param directory Value of {dir}.
+     * @param name      File name of the input, which gives {name} and {ext}.
+     * @param index     Value of {index}.
+     * @return Output file name.
+     */
+    static String applyTemplate(String template, String directory, String name, int index) {
+        // {dir} may be empty, File drops the doubled separator that leaves behind
+        return new File(template
+                .replace("{dir}", directory)
+                .replace("{name}", getBaseName(name))
+                .replace("{ext}", getExtension(name))
+                .replace("{index}", Integer.toString(index))).getPath();
+    }
+
+    /**
+     * Convert every input, and return once all of them are done.
+     * <br>
+     * Inputs whose output file name is the same as the one of an earlier input are reported and skipped.
+     *
+     * @param inputs The inputs, See: {@link #expandInputs(List, List)}
+     */
+    void run(List<Input> inputs) {
+        m_converted.set(0);
+        m_failed.set(0);
+
+        ImagePipeline<Job, ByteArrayOutputStream> pipeline = this.createPipeline(
+                Math.max(1, Math.min(m_threads, inputs.size())));
+
+        Map<String, Input> outputs = new HashMap<String, Input>();
+
+        long start = System.nanoTime();
+        long next_progress = start + PROGRESS_INTERVAL;
+
+        pipeline.start();
+
+        try {
+            int index = 0;
+
+            for (Input input : inputs) {
+                String out_path = this.getOutputPath(input, ++index);
+
+                String key = new File(out_path).getAbsoluteFile().toPath().normalize().toString();
+
+                Input previous = outputs.put(key, input);
+
+                if (previous != null) {
+                    this.reportError(input, String.format(
+                            "Output \"%s\" is already written for: %s", out_path, previous.getSource()));
+                    continue;
+                }
+
+                Job job = new Job(input,
+                        input.getArguments() != null ? input.getArguments() : m_arguments,
+                        new File(out_path));
+
+                // the pipeline holds back inputs while it is busy, progress is still reported
+                while (!pipeline.offer(job, next_progress - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    this.printRate("%d of %d files", start, inputs.size(), pipeline);
+                    next_progress = System.nanoTime() + PROGRESS_INTERVAL;
+                }
+            }
+
+            pipeline.shutdown();
+
+            while (!pipeline.awaitTermination(next_progress - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                this.printRate("%d of %d files", start, inputs.size(), pipeline);
+                next_progress = System.nanoTime() + PROGRESS_INTERVAL;
+            }
+
+        } catch (InterruptedException e) {
+            pipeline.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        this.printRate("Converted %d of %d files", start, inputs.size(), null);
+    }
+
+    /**
+     * Start converting inputs given one at a time by {@link #submit(Input, String)},
+     * instead of a list of them given to {@link #run(List)}.
+     * <br>
+     * The threads keep running, and images loaded by earlier inputs keep the decoders
+     * and glyph atlases warm, until {@link #stop()} is called.
+     */
+    void start() {
+        m_converted.set(0);
+        m_failed.set(0);
+
+        m_pipeline = this.createPipeline(m_threads);
+        m_pipeline.start();
+    }
+
+    /**
+     * Convert an input on the threads of {@link #start()}.
+     * <br>
+     * This blocks while the threads are busy, the result is given to the {@link Listener}.
+     *
+     * @param input    The input.
+     * @param out_path The output file name.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    void submit(Input input, String out_path) throws InterruptedException {
+        m_pipeline.submit(new Job(input,
+                input.getArguments() != null ? input.getArguments() : m_arguments,
+                new File(out_path)));
+    }
+
+    /**
+     * Stop the threads of {@link #start()}, inputs which are not done yet are dropped.
+     */
+    void stop() {
+        if (m_pipeline != null) {
+            m_pipeline.shutdownNow();
+            m_pipeline = null;
+        }
+    }
+
+    private ImagePipeline<Job, ByteArrayOutputStream> createPipeline(int threads) {
+        ImagePipeline<Job, ByteArrayOutputStream> pipeline = new ImagePipeline<Job, ByteArrayOutputStream>(
+                new ImagePipeline.Decoder<Job>() {
+                    public BufferedImage decode(Job job) throws IOException, InvalidImageDataException {
+                        return decodeImage(job);
+                    }
+                },
+                new ImagePipeline.Converter<Job, ByteArrayOutputStream>() {
+                    public ByteArrayOutputStream convert(Job job, BufferedImage image) throws IOException {
+                        return convertImage(job.m_arguments, new ImageAsciiReader(image), job.m_outFile);
+                    }
+                },
+                new ImagePipeline.OutputWriter<Job, ByteArrayOutputStream>() {
+                    public void write(Job job, ByteArrayOutputStream output) throws IOException {
+                        writeOutput(output, job.m_outFile, m_replaceOutputs);
+                    }
+                },
+                new ImagePipeline.Listener<Job>() {
+                    public void completed(Job job) {
+                        m_memory.release(job.m_permits);
+
+                        String key = job.m_input.getKey();
+
+                        if (m_journal != null && key != null) {
+                            try {
+                                m_journal.append(key);
+                            } catch (IOException e) {
+                                reportError(job.m_input, String.format(
+                                        "IO Error writing to the journal: %s", e.getMessage()));
+
+                                if (m_listener != null) {
+                                    m_listener.failed(job.m_input);
+                                }
+                                return;
+                            }
+                        }
+
+                        m_converted.incrementAndGet();
+
+                        if (m_listener != null) {
+                            m_listener.completed(job.m_input, job.m_outFile);
+                        }
+                    }
+
+                    public void failed(Job job, ImagePipeline.Stage stage, Throwable error) {
+                        m_memory.release(job.m_permits);
+                        reportError(job.m_input, describeError(error));
+
+                        if (m_listener != null) {
+                            m_listener.failed(job.m_input);
+                        }
+                    }
+                });
+
+        // decoding mostly waits on the processor too, writing the output of a file is quick
+        pipeline.setThreads(ImagePipeline.Stage.DECODE, threads);
+        pipeline.setThreads(ImagePipeline.Stage.CONVERT, threads);
+        pipeline.setThreads(ImagePipeline.Stage.WRITE, Math.min(threads, WRITE_THREADS));
+
+        for (ImagePipeline.Stage stage : ImagePipeline.Stage.values()) {
+            pipeline.setQueueCapacity(stage, threads * 16);
+        }
+
+        return pipeline;
+    }
+
+    private void printRate(String format, long start, int total, ImagePipeline<?, ?> pipeline) {
+        int converted = m_converted.get();
+        int failed = m_failed.get();
+
+        double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+        String message = String.format(format, converted, total) + String.format(
+                " in %.1f s, %.1f files/sec", seconds, seconds > 0 ? converted / seconds : 0.0);
+
+        if (failed > 0) {
+            message += String.format(", %d failed", failed);
+        }
+
+        if (pipeline != null) {
+            message += String.format(", queued to decode %d, convert %d, write %d",
+                    pipeline.getQueueDepth(ImagePipeline.Stage.DECODE),
+                    pipeline.getQueueDepth(ImagePipeline.Stage.CONVERT),
+                    pipeline.getQueueDepth(ImagePipeline.Stage.WRITE));
+        }
+
+        System.err.println(message + ".");
+    }
+
+    private void reportError(Input input, String message) {
+        m_failed.incrementAndGet();
+
+        System.err.println(String.format("%s: %s", input.getSource(), message));
+    }
+
+    private static String describeError(Throwable error) {
+        if (error instanceof FileNotFoundException) {
+            return "File not found.";
+        } else if (error instanceof InvalidImageDataException) {
+            return "Provided image source contained invalid image data.";
+        } else if (error instanceof IIOException) {
+            return String.format("Error reading image: %s", error.getMessage());
+        } else if (error instanceof IOException) {
+            return String.format("IO Error: %s", error.getMessage());
+        } else if (error instanceof OutOfMemoryError) {
+            return "Not enough memory to convert the image, " +
+                    "use a smaller --batch-memory or a larger maximum heap size.";
+        } else {
+            return String.format("Conversion failed: %s", error);
+        }
+    }
+
+    private static ImageInputStream openImageInput(Job job, List<Closeable> resources) throws IOException {
+        String source = job.m_input.getSource();
+
+        ImageInputStream stream;
+
+        if (App.isUrl(source)) {
+            InputStream url_stream = ImageAsciiReader.openStream(
+                    new URL(source), (String) job.m_arguments.get("user_agent"));
+
+            // closing an ImageInputStream does not close the stream it reads from
+            resources.add(url_stream);
+
+            stream = ImageIO.createImageInputStream(url_stream);
+        } else {
+            File file = new File(source);
+
+            if (!file.isFile()) {
+                throw new FileNotFoundException(source);
+            }
+
+            stream = ImageIO.createImageInputStream(file);
+        }
+
+        if (stream == null) {
+            throw new IOException(String.format("Cannot read image data from: \"%s\"", source));
+        }
+
+        resources.add(stream);
+
+        return stream;
+    }
+
+    private BufferedImage decodeImage(Job job) throws IOException, InvalidImageDataException {
+        List<Closeable> resources = new ArrayList<Closeable>();
+
+        try {
+            ImageInputStream stream = openImageInput(job, resources);
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+
+            if (!readers.hasNext()) {
+                throw new InvalidImageDataException();
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(stream, true, true);
+
+                // the size is known from the header, before any pixels are decoded.
+                // the memory is held until the output of the image is written.
+
+                int needed = this.estimateMemory(reader.getWidth(0), reader.getHeight(0));
+
+                m_memory.acquireUninterruptibly(needed);
+                job.m_permits = needed;
+
+                return reader.read(0, reader.getDefaultReadParam());
+
+            } finally {
+                reader.dispose();
+            }
+
+        } finally {
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private int estimateMemory(int width, int height) {
+        long kib = ((long) width * height * BYTES_PER_PIXEL + 1023) / 1024;
+
+        // an image larger than the whole budget is converted on its own
+        return (int) Math.max(1, Math.min(m_memoryBudget, kib));
+    }
+
+    private static ByteArrayOutputStream convertImage(Namespace arguments,
+                                                      ImageAsciiReader reader,
+                                                      File out_file) throws IOException {
+        App.configureImageAsciiReader(arguments, reader);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(OUTPUT_BUFFER_SIZE);
+
+        String out_path = out_file.getPath();
+
+        if (isImageOutput(arguments, out_path)) {
+            Point output_size = App.calcOutputSize(arguments, reader, 1.0f);
+
+            if (output_size == null) {
+                output_size = new Point(reader.getImageWidth(), reader.getImageHeight());
+            }
+
+            AsciiImageRenderer render = App.createImageRenderer(arguments, reader);
+
+            // the other images being converted already keep the processors busy
+            if (arguments.get("image_threads") == null) {
+                render.setThreads(1);
+            }
+
+            String format = App.getImageOutFormat(arguments, out_path);
+
+            if (!App.writeImageOut(render, output_size, output, format)) {
+                throw new IOException(String.format("Unknown image output format: \"%s\"", format));
+            }
+
+            return output;
+        }
+
+        AsciiPrinter printer = App.createPrinter(arguments, reader);
+
+        printer.print(App.calcFileOutputSize(arguments, printer), output);
+
+        return output;
+    }
+
+    private static void writeOutput(ByteArrayOutputStream output,
+                                    File out_file,
+                                    boolean replace) throws IOException {
+        File parent = out_file.getParentFile();
+
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(String.format("Could not create directory: %s", parent));
+        }
+
+        File write_file = replace ?
+                new File(out_file.getPath() + ".img2a-" + Thread.currentThread().getId() + ".tmp") : out_file;
+
+        OutputStream file_output = new FileOutputStream(write_file);
+
+        try {
+            output.writeTo(file_output);
+        } finally {
+            file_output.close();
+        }
+
+        if (replace) {
+            Path target = out_file.toPath();
+
+            try {
+                Files.move(write_file.toPath(), target,
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(write_file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                write_file.delete();
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isImageOutput(Namespace arguments, String out_path) {
+        if (arguments.getBoolean("html") || arguments.getBoolean("svg")) {
+            return false;
+        }
+
+        if (arguments.get("image_out_format") != null) {
+            return true;
+        }
+
+        String extension = getExtension(new File(out_path).getName()).toLowerCase(Locale.ROOT);
+
+        if (extension.isEmpty()) {
+            return false;
+        }
+
+        if (AnimationFormat.forName(extension) != null) {
+            return true;
+        }
+
+        for (String suffix : ImageIO.getWriterFileSuffixes()) {
+            if (suffix.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Receives the result of every input, on the threads converting them.
+     */
+    interface Listener {
+
+        /**
+         * Called once the output of an input is written.
+         *
+         * @param input    The input.
+         * @param out_file The output file.
+         */
+        void completed(Input input, File out_file);
+
+        /**
+         * Called once an input has failed, after the error is reported.
+         *
+         * @param input The input.
+         */
+        void failed(Input input);
+    }
+
+    private static final class Job {
+        final Input m_input;
+        final Namespace m_arguments;
+        final File m_outFile;
+
+        // memory budget held by the job, set once its image size is known
+        volatile int m_permits;
+
+        Job(Input input, Namespace arguments, File out_file) {
+            m_input = input;
+            m_arguments = arguments;
+            m_outFile = out_file;
+        }
+    }
+
+    /**
+     * An image to convert, See: {@link #expandInputs(List, List)}
+     */
+    static final class Input {
+        private final String m_source;
+        private final String m_directory;
+        private final String m_name;
+        private final String m_output;
+        private final Namespace m_arguments;
+        private final String m_key;
+
+        Input(String source, String directory, String name) {
+            this(source, directory, name, null, null, null);
+        }
+
+        Input(String source, String directory, String name, String output, Namespace arguments, String key) {
+            m_source = source;
+            m_directory = directory;
+            m_name = name;
+            m_output = output;
+            m_arguments = arguments;
+            m_key = key;
+        }
+
+        /**
+         * @return File name or url of the image.
+         */
+        String getSource() {
+            return m_source;
+        }
+
+        /**
+         * @return Directory of the image relative to the directory or glob pattern it was found by.
+         */
+        String getDirectory() {
+            return m_directory;
+        }
+
+        /**
+         * @return File name of the image.
+         */
+        String getName() {
+            return m_name;
+        }
+
+        /**
+         * @return Output file name, or null to use the output file name template.
+         */
+        String getOutput() {
+            return m_output;
+        }
+
+        /**
+         * @return Arguments to convert the image with, or null to use the ones of the batch.
+         */
+        Namespace getArguments() {
+            return m_arguments;
+        }
+
+        /**
+         * @return Key which is recorded in the journal once the image is converted, may be null.
+         */
+        String getKey() {
+            return m_key;
+        }
+    }
+}
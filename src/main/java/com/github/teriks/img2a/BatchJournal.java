@@ -0,0 +1,139 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Append-only journal of the batch manifest entries which are completed, See: {@link BatchManifest}
+ * <br>
+ * Each line is the key of an entry, which is written once the output of the entry is in place,
+ * so that a run which crashes or is restarted skips the entries finished before it.
+ * A line cut short by a crash is ignored, and the entry it belongs to is converted again.
+ */
+final class BatchJournal implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File m_file;
+    private final Set<String> m_completed = new HashSet<String>();
+    private final OutputStream m_output;
+
+    /**
+     * Open a journal, creating the file if it does not exist.
+     *
+     * @param file The journal file.
+     * @throws IOException If the journal can not be read or opened for appending.
+     */
+    BatchJournal(File file) throws IOException {
+        m_file = file;
+
+        boolean cut_short = false;
+
+        if (file.exists()) {
+            cut_short = this.load();
+        } else {
+            File parent = file.getAbsoluteFile().getParentFile();
+
+            if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException(String.format("Could not create directory: %s", parent));
+            }
+        }
+
+        m_output = new FileOutputStream(file, true);
+
+        if (cut_short) {
+            // start on a new line, instead of appending to the one which was cut short
+            m_output.write('\n');
+        }
+    }
+
+    private boolean load() throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(m_file));
+
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+
+            int b;
+
+            while ((b = input.read()) != -1) {
+                if (b == '\n') {
+                    m_completed.add(new String(line.toByteArray(), UTF_8).trim());
+                    line.reset();
+                } else {
+                    line.write(b);
+                }
+            }
+
+            return line.size() > 0;
+
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Get the journal file.
+     *
+     * @return The journal file.
+     */
+    File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Check if an entry was completed by an earlier run.
+     *
+     * @param key The key of the entry.
+     * @return True if the entry is in the journal.
+     */
+    boolean isCompleted(String key) {
+        return m_completed.contains(key);
+    }
+
+    /**
+     * Record that an entry is completed.
+     * <br>
+     * The line is written without buffering, so it is in the journal
+     * even if the process is killed right after.
+     *
+     * @param key The key of the entry.
+     * @throws IOException If the journal can not be written.
+     */
+    synchronized void append(String key) throws IOException {
+        m_output.write((key + "\n").getBytes(UTF_8));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        m_output.close();
+    }
+}
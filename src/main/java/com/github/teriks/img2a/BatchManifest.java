@@ -0,0 +1,614 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Reads the entries of a batch manifest, a JSONL file with one image to convert per line.
+ * <br>
+ * Each line is a JSON object with an "input" file name or url, an optional "output" file name, an optional
+ * "options" object of command line options without their leading dashes, and an optional "id".  Relative
+ * file names are relative to the directory of the manifest.  Options are applied on top of the options
+ * given on the command line, a value of true gives a flag and false leaves it as it is.
+ * <br>
+ * Every entry has a key, the SHA-1 of its id, or of its whole line when it has no id.  The key
+ * decides which shard an entry belongs to, so that machines which each convert one shard of the same
+ * manifest divide it between them without talking to each other, and it is what {@link BatchJournal}
+ * records once the entry is completed.
+ * <br>
+ * Empty lines, and lines starting with #, are skipped.
+ */
+final class BatchManifest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // options which read or write other files, play in a terminal, or end the process
+    private static final Set<String> REJECTED_OPTIONS = new HashSet<String>(Arrays.asList(
+            "input", "help", "version", "serve", "serve_address", "serve_concurrency",
+            "daemon", "daemon_socket", "image_out", "live", "stream", "raw_format", "loop", "fps",
+            "out_text", "out_html", "out_svg", "out_image",
+            "html_stats", "batch_out", "batch_threads", "batch_memory", "batch_manifest",
+            "batch_journal", "shard", "batch_watch", "batch_settle"));
+
+    private final ArgumentParser m_parser;
+    private final Namespace m_arguments;
+    private final String m_template;
+    private final int m_shard;
+    private final int m_shards;
+
+    // entries with the same options share their arguments
+    private final Map<String, Namespace> m_options = new HashMap<String, Namespace>();
+
+    private int m_total;
+    private int m_inShard;
+    private int m_skipped;
+
+    /**
+     * Construct a manifest reader.
+     *
+     * @param parser    The command line parser, which parses the options of each entry.
+     * @param arguments Parsed command line arguments, which the options of each entry are applied to.
+     * @param template  Output file name template for entries without an output, may be null,
+     *                  See: {@link BatchConverter#BatchConverter(Namespace, String, int, long)}
+     * @param shard     The shard to read, counting from 1.
+     * @param shards    The amount of shards the manifest is divided into.
+     * @throws IllegalArgumentException If shard is not between 1 and shards.
+     */
+    BatchManifest(ArgumentParser parser, Namespace arguments, String template, int shard, int shards) {
+        if (shards < 1 || shard < 1 || shard > shards) {
+            throw new IllegalArgumentException("shard must be between 1 and shards.");
+        }
+
+        m_parser = parser;
+        m_arguments = arguments;
+        m_template = template;
+        m_shard = shard;
+        m_shards = shards;
+    }
+
+    /**
+     * Get the amount of entries in the manifest read by the last call to {@link #read(File, BatchJournal, List)}.
+     *
+     * @return Entry count.
+     */
+    int getTotal() {
+        return m_total;
+    }
+
+    /**
+     * Get the amount of entries which belong to the shard being read.
+     *
+     * @return Entry count.
+     */
+    int getInShard() {
+        return m_inShard;
+    }
+
+    /**
+     * Get the amount of entries of the shard which were skipped, because they are in the journal.
+     *
+     * @return Entry count.
+     */
+    int getSkipped() {
+        return m_skipped;
+    }
+
+    /**
+     * Get the shard an entry key belongs to.
+     *
+     * @param key    The entry key.
+     * @param shards The amount of shards.
+     * @return The shard, counting from 1.
+     */
+    static int getShard(String key, int shards) {
+        // the key is a hex digest, its leading digits are evenly distributed
+        long value = Long.parseLong(key.substring(0, 15), 16);
+
+        return (int) (value % shards) + 1;
+    }
+
+    private static String getKey(String text) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(text.getBytes(UTF_8));
+
+        char[] hex = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    /**
+     * Read the entries of the shard which are not in the journal.
+     * <br>
+     * An entry which can not be used is reported in errors, and is only reported by the shard it belongs to.
+     *
+     * @param file    The manifest file.
+     * @param journal Journal of the completed entries, may be null.
+     * @param errors  Receives an error message for every entry of the shard which can not be used.
+     * @return The entries to convert, in order.
+     * @throws IOException If the manifest can not be read.
+     */
+    List<BatchConverter.Input> read(File file, BatchJournal journal, List<String> errors) throws IOException {
+        m_total = 0;
+        m_inShard = 0;
+        m_skipped = 0;
+
+        File directory = file.getAbsoluteFile().getParentFile();
+
+        List<BatchConverter.Input> entries = new ArrayList<BatchConverter.Input>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+
+        try {
+            String line;
+            int line_number = 0;
+
+            while ((line = reader.readLine()) != null) {
+                line_number++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                m_total++;
+
+                Object value;
+
+                try {
+                    value = new JsonParser(line).parseDocument();
+                } catch (IllegalArgumentException e) {
+                    if (getShard(getKey(line), m_shards) == m_shard) {
+                        m_inShard++;
+                        errors.add(String.format("%s:%d: Invalid JSON: %s", file, line_number, e.getMessage()));
+                    }
+                    continue;
+                }
+
+                Object id = value instanceof Map ? ((Map<?, ?>) value).get("id") : null;
+
+                String key = getKey(id == null ? line : id.toString());
+
+                if (getShard(key, m_shards) != m_shard) {
+                    continue;
+                }
+
+                m_inShard++;
+
+                if (journal != null && journal.isCompleted(key)) {
+                    m_skipped++;
+                    continue;
+                }
+
+                try {
+                    entries.add(this.createEntry(value, key, directory, line_number));
+                } catch (ArgumentParserException e) {
+                    errors.add(String.format("%s:%d: %s", file, line_number, e.getMessage()));
+                }
+            }
+
+        } finally {
+            reader.close();
+        }
+
+        return entries;
+    }
+
+    private BatchConverter.Input createEntry(Object value,
+                                             String key,
+                                             File directory,
+                                             int line_number) throws ArgumentParserException {
+
+        if (!(value instanceof Map)) {
+            throw new ArgumentParserException("Entry is not a JSON object.", m_parser);
+        }
+
+        Map<?, ?> entry = (Map<?, ?>) value;
+
+        for (Object name : entry.keySet()) {
+            if (!Arrays.asList("input", "output", "options", "id").contains(name)) {
+                throw new ArgumentParserException(String.format("Unknown field: \"%s\"", name), m_parser);
+            }
+        }
+
+        Object input = entry.get("input");
+        Object output = entry.get("output");
+
+        if (!(input instanceof String) || ((String) input).isEmpty()) {
+            throw new ArgumentParserException("Entry needs an \"input\" string.", m_parser);
+        }
+
+        if (output != null && !(output instanceof String)) {
+            throw new ArgumentParserException("\"output\" must be a string.", m_parser);
+        }
+
+        String source = (String) input;
+
+        if (!App.isUrl(source)) {
+            source = resolve(directory, source);
+        }
+
+        String name = App.isUrl(source) ? BatchConverter.getUrlFileName(source) : new File(source).getName();
+
+        Namespace arguments = this.getArguments(entry.get("options"));
+
+        String out_path;
+
+        if (output != null) {
+            out_path = resolve(directory, (String) output);
+        } else if (m_template != null) {
+            out_path = BatchConverter.applyTemplate(m_template, "", name, line_number);
+        } else {
+            throw new ArgumentParserException("Entry has no \"output\", and --batch-out is not given.", m_parser);
+        }
+
+        return new BatchConverter.Input(source, "", name, out_path, arguments, key);
+    }
+
+    private static String resolve(File directory, String path) {
+        File file = new File(path);
+
+        return file.isAbsolute() || directory == null ? path : new File(directory, path).getPath();
+    }
+
+    private Namespace getArguments(Object options) throws ArgumentParserException {
+        if (options == null) {
+            return null;
+        }
+
+        if (!(options instanceof Map)) {
+            throw new ArgumentParserException("\"options\" must be a JSON object.", m_parser);
+        }
+
+        List<String> args = new ArrayList<String>();
+        List<String> dests = new ArrayList<String>();
+
+        for (Map.Entry<?, ?> option : ((Map<?, ?>) options).entrySet()) {
+            String name = option.getKey().toString();
+            Object value = option.getValue();
+
+            String dest = name.replace('-', '_');
+
+            // checked against the real option names, abbreviations are not allowed
+            if (!m_arguments.getAttrs().containsKey(dest) || REJECTED_OPTIONS.contains(dest)) {
+                throw new ArgumentParserException(
+                        String.format("Unknown or unsupported option: \"%s\"", name), m_parser);
+            }
+
+            String flag = "--" + dest.replace('_', '-');
+
+            if (Boolean.TRUE.equals(value)) {
+                args.add(flag);
+            } else if (value instanceof String) {
+                args.add(flag + "=" + value);
+            } else if (value instanceof BigDecimal) {
+                args.add(flag + "=" + ((BigDecimal) value).toPlainString());
+            } else if (!Boolean.FALSE.equals(value)) {
+                throw new ArgumentParserException(
+                        String.format("Option \"%s\" must be a string, number or boolean.", name), m_parser);
+            } else {
+                continue;
+            }
+
+            dests.add(dest);
+        }
+
+        String cache_key = args.toString();
+
+        Namespace arguments = m_options.get(cache_key);
+
+        if (arguments != null) {
+            return arguments;
+        }
+
+        Namespace parsed = m_parser.parseArgs(args.toArray(new String[args.size()]));
+
+        Map<String, Object> attrs = new HashMap<String, Object>(m_arguments.getAttrs());
+
+        for (String dest : dests) {
+            attrs.put(dest, parsed.get(dest));
+        }
+
+        arguments = new Namespace(attrs);
+
+        App.checkArguments(m_parser, arguments);
+
+        m_options.put(cache_key, arguments);
+
+        return arguments;
+    }
+
+    /**
+     * Parses one JSON value, objects become maps which keep the order of their fields,
+     * arrays become lists, and numbers become {@link BigDecimal}.
+     */
+    private static final class JsonParser {
+        // manifest lines are flat, the limit only keeps a malicious line from overflowing the stack
+        private static final int MAX_DEPTH = 64;
+
+        private final String m_text;
+        private int m_pos = 0;
+        private int m_depth = 0;
+
+        JsonParser(String text) {
+            m_text = text;
+        }
+
+        Object parseDocument() {
+            Object value = this.parseValue();
+
+            this.skipWhitespace();
+
+            if (m_pos != m_text.length()) {
+                throw this.error("Unexpected text after the value");
+            }
+
+            return value;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(String.format("%s at column %d.", message, m_pos + 1));
+        }
+
+        private void skipWhitespace() {
+            while (m_pos < m_text.length() && " \t\r\n".indexOf(m_text.charAt(m_pos)) != -1) {
+                m_pos++;
+            }
+        }
+
+        private boolean consume(char c) {
+            this.skipWhitespace();
+
+            if (m_pos < m_text.length() && m_text.charAt(m_pos) == c) {
+                m_pos++;
+                return true;
+            }
+
+            return false;
+        }
+
+        private void enter() {
+            if (++m_depth > MAX_DEPTH) {
+                throw this.error("Too deeply nested");
+            }
+        }
+
+        private void expect(char c) {
+            if (!this.consume(c)) {
+                throw this.error(String.format("Expected '%c'", c));
+            }
+        }
+
+        private Object parseValue() {
+            this.skipWhitespace();
+
+            if (m_pos >= m_text.length()) {
+                throw this.error("Unexpected end of line");
+            }
+
+            char c = m_text.charAt(m_pos);
+
+            switch (c) {
+                case '{':
+                    return this.parseObject();
+                case '[':
+                    return this.parseArray();
+                case '"':
+                    return this.parseString();
+                default:
+                    break;
+            }
+
+            if (m_text.startsWith("true", m_pos)) {
+                m_pos += 4;
+                return Boolean.TRUE;
+            }
+
+            if (m_text.startsWith("false", m_pos)) {
+                m_pos += 5;
+                return Boolean.FALSE;
+            }
+
+            if (m_text.startsWith("null", m_pos)) {
+                m_pos += 4;
+                return null;
+            }
+
+            return this.parseNumber();
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+
+            this.expect('{');
+            this.enter();
+
+            if (this.consume('}')) {
+                m_depth--;
+                return object;
+            }
+
+            do {
+                this.skipWhitespace();
+
+                if (m_pos >= m_text.length() || m_text.charAt(m_pos) != '"') {
+                    throw this.error("Expected a field name");
+                }
+
+                String name = this.parseString();
+
+                this.expect(':');
+
+                Object value = this.parseValue();
+
+                // null values are the same as a missing field
+                if (value == null) {
+                    object.remove(name);
+                } else {
+                    object.put(name, value);
+                }
+
+            } while (this.consume(','));
+
+            this.expect('}');
+            m_depth--;
+
+            return object;
+        }
+
+        private List<Object> parseArray() {
+            List<Object> array = new ArrayList<Object>();
+
+            this.expect('[');
+            this.enter();
+
+            if (this.consume(']')) {
+                m_depth--;
+                return array;
+            }
+
+            do {
+                array.add(this.parseValue());
+            } while (this.consume(','));
+
+            this.expect(']');
+            m_depth--;
+
+            return array;
+        }
+
+        private String parseString() {
+            StringBuilder value = new StringBuilder();
+
+            m_pos++;
+
+            while (m_pos < m_text.length()) {
+                char c = m_text.charAt(m_pos++);
+
+                if (c == '"') {
+                    return value.toString();
+                }
+
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+
+                if (m_pos >= m_text.length()) {
+                    break;
+                }
+
+                char escape = m_text.charAt(m_pos++);
+
+                switch (escape) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escape);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (m_pos + 4 > m_text.length()) {
+                            throw this.error("Invalid unicode escape");
+                        }
+
+                        try {
+                            value.append((char) Integer.parseInt(m_text.substring(m_pos, m_pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw this.error("Invalid unicode escape");
+                        }
+
+                        m_pos += 4;
+                        break;
+                    default:
+                        m_pos--;
+                        throw this.error("Invalid escape");
+                }
+            }
+
+            throw this.error("Unterminated string");
+        }
+
+        private BigDecimal parseNumber() {
+            int start = m_pos;
+
+            while (m_pos < m_text.length() && "+-0123456789.eE".indexOf(m_text.charAt(m_pos)) != -1) {
+                m_pos++;
+            }
+
+            if (start == m_pos) {
+                throw this.error("Unexpected character");
+            }
+
+            try {
+                return new BigDecimal(m_text.substring(start, m_pos));
+            } catch (NumberFormatException e) {
+                m_pos = start;
+                throw this.error("Invalid number");
+            }
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories, and converts the images in them with a {@link BatchConverter} as they are added or changed.
+ * <br>
+ * The images which are already there are converted first.  Directories created later are watched as well.
+ * <br>
+ * A file is only converted once it has gone without changing for a while, so that files which are still
+ * being written are not read.  It is skipped if its output is newer than it when it is first seen, and
+ * after that if its content hash is the same as when its output was last written.  Outputs are renamed
+ * into place once they are complete, and deleting an image does not delete its output.
+ */
+final class BatchWatcher {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final BatchConverter m_converter;
+    private final List<Path> m_roots;
+    private final long m_settle;
+
+    private final Set<String> m_suffixes = BatchConverter.getReaderSuffixes();
+
+    private WatchService m_watcher;
+    private final Map<WatchKey, Path> m_directories = new HashMap<WatchKey, Path>();
+
+    // files which changed, by the time of their last change
+    private final Map<Path, Long> m_pending = new LinkedHashMap<Path, Long>();
+
+    // written to by the threads of the converter
+    private final Map<Path, FileState> m_converting = new ConcurrentHashMap<Path, FileState>();
+    private final Map<Path, FileState> m_converted = new ConcurrentHashMap<Path, FileState>();
+
+    private final Map<Path, Path> m_outputs = new HashMap<Path, Path>();
+
+    /**
+     * Construct a directory watcher.
+     *
+     * @param converter     The converter, which must have an output file name template.
+     * @param directories   The directories to watch, including the directories below them.
+     * @param settle_millis Time in milliseconds a file must go without changing before it is converted.
+     * @throws IllegalArgumentException If settle_millis is negative.
+     */
+    BatchWatcher(BatchConverter converter, List<File> directories, long settle_millis) {
+        if (settle_millis < 0) {
+            throw new IllegalArgumentException("settle_millis must not be negative.");
+        }
+
+        m_converter = converter;
+        m_settle = settle_millis;
+        m_roots = new ArrayList<Path>();
+
+        for (File directory : directories) {
+            m_roots.add(directory.toPath());
+        }
+    }
+
+    /**
+     * Watch the directories until the calling thread is interrupted.
+     *
+     * @throws IOException If the directories can not be watched.
+     */
+    void run() throws IOException {
+        m_watcher = FileSystems.getDefault().newWatchService();
+
+        m_converter.setReplaceOutputs(true);
+        m_converter.setListener(new BatchConverter.Listener() {
+            public void completed(BatchConverter.Input input, File out_file) {
+                Path file = Paths.get(input.getSource());
+
+                m_converted.put(file, m_converting.remove(file));
+
+                System.err.println(String.format("%s: Converted to %s", input.getSource(), out_file));
+            }
+
+            public void failed(BatchConverter.Input input) {
+                m_converting.remove(Paths.get(input.getSource()));
+            }
+        });
+
+        m_converter.start();
+
+        try {
+            for (Path root : m_roots) {
+                this.watchDirectory(root, root);
+            }
+
+            System.err.println(String.format("Watching %d %s for images.",
+                    m_directories.size(), m_directories.size() == 1 ? "directory" : "directories"));
+
+            long poll_millis = Math.max(10, Math.min(m_settle / 2, 1000));
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = m_watcher.poll(poll_millis, TimeUnit.MILLISECONDS);
+
+                while (key != null) {
+                    this.handleEvents(key);
+                    key = m_watcher.poll();
+                }
+
+                this.convertSettled();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            m_converter.stop();
+            m_watcher.close();
+        }
+    }
+
+    private void watchDirectory(final Path root, Path directory) throws IOException {
+        final List<Path> files = new ArrayList<Path>();
+
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                            throws IOException {
+
+                        WatchKey key = dir.register(m_watcher,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY);
+
+                        m_directories.put(key, dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile()) {
+                            files.add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        System.err.println(String.format("%s: Could not be searched: %s", file, e.getMessage()));
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+        // files which were there before the directory was watched, or which were created before
+        // a new directory was registered, have no events of their own.
+
+        Collections.sort(files);
+
+        // outputs from an earlier run are known before they could be mistaken for inputs
+        for (Path file : files) {
+            if (this.isImageFile(file)) {
+                Path output = toKey(this.getOutputPath(root, file));
+
+                if (!m_outputs.containsKey(output)) {
+                    m_outputs.put(output, file);
+                }
+            }
+        }
+
+        for (Path file : files) {
+            this.fileChanged(file, 0);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path directory = m_directories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, every file is looked at again
+                this.rescan();
+                continue;
+            }
+
+            if (directory == null) {
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    this.watchDirectory(this.getRoot(path), path);
+                } catch (IOException e) {
+                    System.err.println(String.format("%s: Could not be watched: %s", path, e.getMessage()));
+                }
+                continue;
+            }
+
+            this.fileChanged(path, System.nanoTime());
+        }
+
+        if (!key.reset()) {
+            // the directory was deleted
+            m_directories.remove(key);
+        }
+    }
+
+    private void rescan() {
+        for (Path directory : new ArrayList<Path>(m_directories.values())) {
+            File[] files = directory.toFile().listFiles();
+
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                if (file.isFile()) {
+                    this.fileChanged(file.toPath(), 0);
+                }
+            }
+        }
+    }
+
+    private Path getRoot(Path path) {
+        for (Path root : m_roots) {
+            if (path.startsWith(root)) {
+                return root;
+            }
+        }
+        return path;
+    }
+
+    private boolean isImageFile(Path file) {
+        String name = file.getFileName().toString();
+
+        return m_suffixes.contains(BatchConverter.getExtension(name).toLowerCase(Locale.ROOT));
+    }
+
+    private String getOutputPath(Path root, Path file) {
+        Path parent = root.relativize(file).getParent();
+
+        return BatchConverter.applyTemplate(m_converter.getTemplate(),
+                parent == null ? "" : parent.toString(), file.getFileName().toString(), 0);
+    }
+
+    private static Path toKey(String path) {
+        return new File(path).getAbsoluteFile().toPath().normalize();
+    }
+
+    private void fileChanged(Path file, long time) {
+        if (!this.isImageFile(file)) {
+            return;
+        }
+
+        // outputs written into a watched directory are not inputs
+        Path owner = m_outputs.get(toKey(file.toString()));
+
+        if (owner != null && !owner.equals(file)) {
+            return;
+        }
+
+        m_pending.put(file, time);
+    }
+
+    private void convertSettled() throws InterruptedException {
+        long now = System.nanoTime();
+        long settle_nanos = TimeUnit.MILLISECONDS.toNanos(m_settle);
+
+        Iterator<Map.Entry<Path, Long>> pending = m_pending.entrySet().iterator();
+
+        while (pending.hasNext()) {
+            Map.Entry<Path, Long> entry = pending.next();
+            Path file = entry.getKey();
+
+            if (entry.getValue() != 0 && now - entry.getValue() < settle_nanos) {
+                continue;
+            }
+
+            // a file which is still being converted is looked at again once it is done
+            if (m_converting.containsKey(file)) {
+                continue;
+            }
+
+            File input = file.toFile();
+
+            if (!input.isFile()) {
+                pending.remove();
+                continue;
+            }
+
+            // writers which do not cause events, like other machines writing to a network share,
+            // still change the modification time.
+
+            if (System.currentTimeMillis() - input.lastModified() < m_settle) {
+                continue;
+            }
+
+            pending.remove();
+
+            this.convertIfChanged(file);
+        }
+    }
+
+    private void convertIfChanged(Path file) throws InterruptedException {
+        Path root = this.getRoot(file);
+        Path parent = root.relativize(file).getParent();
+
+        String source = file.toString();
+        String name = file.getFileName().toString();
+
+        String out_path = this.getOutputPath(root, file);
+
+        Path output = toKey(out_path);
+
+        Path owner = m_outputs.get(output);
+
+        if (owner == null) {
+            m_outputs.put(output, file);
+        } else if (!owner.equals(file)) {
+            System.err.println(String.format("%s: Output \"%s\" is already written for: %s", source, out_path, owner));
+            return;
+        }
+
+        File out_file = output.toFile();
+        File input = file.toFile();
+
+        long modified = input.lastModified();
+        long size = input.length();
+
+        FileState state = m_converted.get(file);
+
+        // untouched since it was converted, or found to be up to date
+        if (state != null && state.m_modified == modified && state.m_size == size && out_file.isFile()) {
+            return;
+        }
+
+        String hash;
+
+        try {
+            hash = hashFile(input);
+        } catch (IOException e) {
+            System.err.println(String.format("%s: IO Error: %s", source, e.getMessage()));
+            return;
+        }
+
+        // an output from before the image was seen is up to date if it is newer, after that
+        // the output is up to date as long as the content of the image is the same.
+
+        if (out_file.isFile() && (state == null ? out_file.lastModified() >= modified : hash.equals(state.m_hash))) {
+            m_converted.put(file, new FileState(modified, size, hash));
+
+            // so that the output is still up to date after a restart
+            if (out_file.lastModified() < modified) {
+                out_file.setLastModified(System.currentTimeMillis());
+            }
+            return;
+        }
+
+        m_converting.put(file, new FileState(modified, size, hash));
+
+        m_converter.submit(new BatchConverter.Input(
+                source,
+                parent == null ? "" : parent.toString(),
+                name,
+                out_path,
+                null,
+                null), out_path);
+    }
+
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+
+        InputStream input = new FileInputStream(file);
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+        } finally {
+            input.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+
+        return hex.toString();
+    }
+
+    private static final class FileState {
+        final long m_modified;
+        final long m_size;
+        final String m_hash;
+
+        FileState(long modified, long size, String hash) {
+            m_modified = modified;
+            m_size = size;
+            m_hash = hash;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import org.fusesource.jansi.AnsiOutputStream;
+
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs img2a commands sent by a {@link DaemonClient} over a Unix domain socket, inside one warm JVM.
+ * <br>
+ * Every connection runs one command on its own thread.  System.in, System.out and System.err are
+ * replaced by streams which forward to the client of the current thread, or of the thread which
+ * started it, so commands read and write exactly as they do when run on their own.
+ * <br>
+ * The client starts with a header: protocol version (int), working directory (UTF), whether its
+ * stdout is a terminal (boolean), argument count (int) and the arguments (UTF).  The daemon then
+ * sends frames made of a type byte and an int, which is followed by that many bytes of data for
+ * {@link #FRAME_STDOUT} and {@link #FRAME_STDERR}, and is the exit status for {@link #FRAME_EXIT}.
+ * After a {@link #FRAME_STDIN_REQUEST}, the client sends its stdin as an int length followed by
+ * that many bytes, and a length of 0 at the end of its input.
+ */
+final class CommandDaemon {
+
+    static final int PROTOCOL_VERSION = 1;
+
+    static final int FRAME_STDOUT = 1;
+    static final int FRAME_STDERR = 2;
+    static final int FRAME_EXIT = 3;
+    static final int FRAME_STDIN_REQUEST = 4;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(
+            PosixFilePermission.OWNER_READ,
+            PosixFilePermission.OWNER_WRITE,
+            PosixFilePermission.OWNER_EXECUTE);
+
+    private static final InheritableThreadLocal<Session> SESSION = new InheritableThreadLocal<Session>();
+
+    private final Path m_socket;
+    private final ServerSocketChannel m_channel;
+    private final AtomicInteger m_connections = new AtomicInteger();
+
+    /**
+     * Bind the daemon to a socket file.
+     * <br>
+     * A socket file left behind by a daemon which is no longer running is replaced.
+     *
+     * @param socket The socket file.
+     * @throws IOException If the socket can not be bound, another daemon is listening on it,
+     *                     or the JVM does not support Unix domain sockets.
+     */
+    CommandDaemon(File socket) throws IOException {
+        m_socket = socket.toPath();
+
+        prepareDirectory(socket.getParentFile(), socket.equals(DaemonClient.getDefaultSocket()));
+
+        if (Files.exists(m_socket)) {
+            if (isListening(m_socket)) {
+                throw new IOException(String.format("A daemon is already listening on %s", socket));
+            }
+
+            Files.delete(m_socket);
+        }
+
+        m_channel = UnixSockets.bind(m_socket);
+
+        try {
+            Files.setPosixFilePermissions(m_socket, EnumSet.of(
+                    PosixFilePermission.OWNER_READ,
+                    PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+    }
+
+    private static void prepareDirectory(File directory, boolean private_directory) throws IOException {
+        Path path = directory.toPath();
+
+        if (!Files.exists(path)) {
+            try {
+                Files.createDirectories(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (UnsupportedOperationException e) {
+                Files.createDirectories(path);
+            }
+            return;
+        }
+
+        if (!private_directory) {
+            return;
+        }
+
+        // anyone who can connect can read and write files as this user
+        try {
+            if (!Files.getOwner(path).getName().equals(System.getProperty("user.name")) ||
+                    !OWNER_ONLY.containsAll(Files.getPosixFilePermissions(path))) {
+
+                throw new IOException(String.format(
+                        "%s must be owned by and only accessible to the current user.", directory));
+            }
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            UnixSockets.connect(socket).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accept and run commands until the process is interrupted.
+     * <br>
+     * The socket file is removed when the process exits.
+     */
+    void run() {
+        System.setIn(new RoutedInputStream(System.in));
+        System.setOut(new PrintStream(new RoutedOutputStream(System.out, false), false));
+        System.setErr(new PrintStream(new RoutedOutputStream(System.err, true), true));
+
+        // clients strip escape sequences themselves when their stdout is not a terminal
+        System.setProperty("jansi.passthrough", "true");
+
+        ConsoleTerminal.detach();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                try {
+                    m_channel.close();
+                    Files.deleteIfExists(m_socket);
+                } catch (IOException ignored) {
+                }
+            }
+        }, "img2a-daemon-shutdown"));
+
+        while (true) {
+            final SocketChannel client;
+
+            try {
+                client = m_channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println(String.format("Error accepting a connection: %s", e.getMessage()));
+                continue;
+            }
+
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    handle(client);
+                }
+            }, "img2a-daemon-" + m_connections.incrementAndGet());
+
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try {
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(UnixSockets.newInputStream(channel), BUFFER_SIZE));
+
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(UnixSockets.newOutputStream(channel), BUFFER_SIZE));
+
+            Session session = new Session(input, output);
+
+            if (input.readInt() != PROTOCOL_VERSION) {
+                session.writeFrame(FRAME_STDERR, "The img2a daemon and client versions do not match.\n".getBytes());
+                session.writeExit(3);
+                return;
+            }
+
+            File directory = new File(input.readUTF());
+
+            if (!input.readBoolean()) {
+                session.m_stdout = new AnsiOutputStream(session.m_stdout);
+            }
+
+            String[] args = new String[input.readInt()];
+
+            for (int i = 0; i < args.length; i++) {
+                args[i] = input.readUTF();
+            }
+
+            int status;
+
+            SESSION.set(session);
+
+            try {
+                status = App.run(args, directory, true);
+            } catch (RuntimeException e) {
+                // the same as an uncaught exception ending the process
+                e.printStackTrace();
+                status = 1;
+            } finally {
+                System.out.flush();
+                SESSION.remove();
+            }
+
+            session.m_stdout.flush();
+            session.writeExit(status);
+
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class Session {
+        private final DataInputStream m_input;
+        private final DataOutputStream m_output;
+        private final InputStream m_stdin;
+        private final OutputStream m_stderr;
+        private OutputStream m_stdout;
+
+        Session(DataInputStream input, DataOutputStream output) {
+            m_input = input;
+            m_output = output;
+            m_stdin = new StdinStream();
+            m_stdout = new BufferedOutputStream(new FrameOutputStream(FRAME_STDOUT), BUFFER_SIZE);
+            m_stderr = new FrameOutputStream(FRAME_STDERR);
+        }
+
+        void writeFrame(int type, byte[] data) throws IOException {
+            this.writeFrame(type, data, 0, data.length);
+        }
+
+        void writeFrame(int type, byte[] data, int offset, int length) throws IOException {
+            synchronized (m_output) {
+                m_output.writeByte(type);
+                m_output.writeInt(length);
+                m_output.write(data, offset, length);
+                m_output.flush();
+            }
+        }
+
+        void writeExit(int status) throws IOException {
+            synchronized (m_output) {
+                m_output.writeByte(FRAME_EXIT);
+                m_output.writeInt(status);
+                m_output.flush();
+            }
+        }
+
+        private final class FrameOutputStream extends OutputStream {
+            private final int m_type;
+
+            FrameOutputStream(int type) {
+                m_type = type;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                writeFrame(m_type, new byte[]{(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > 0) {
+                    writeFrame(m_type, b, off, len);
+                }
+            }
+        }
+
+        private final class StdinStream extends InputStream {
+            private boolean m_requested = false;
+            private boolean m_end = false;
+            private int m_remaining = 0;
+
+            @Override
+            public synchronized int read() throws IOException {
+                byte[] b = new byte[1];
+                return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+
+                // the client only reads its stdin once a command asks for it
+                if (!m_requested) {
+                    writeFrame(FRAME_STDIN_REQUEST, new byte[0]);
+                    m_requested = true;
+                }
+
+                while (m_remaining == 0) {
+                    if (m_end) {
+                        return -1;
+                    }
+
+                    m_remaining = m_input.readInt();
+                    m_end = m_remaining == 0;
+                }
+
+                int read = m_input.read(b, off, Math.min(len, m_remaining));
+
+                if (read == -1) {
+                    throw new EOFException();
+                }
+
+                m_remaining -= read;
+
+                return read;
+            }
+        }
+    }
+
+    private static final class RoutedOutputStream extends OutputStream {
+        private final OutputStream m_fallback;
+        private final boolean m_stderr;
+
+        RoutedOutputStream(OutputStream fallback, boolean stderr) {
+            m_fallback = fallback;
+            m_stderr = stderr;
+        }
+
+        private OutputStream getTarget() {
+            Session session = SESSION.get();
+
+            if (session == null) {
+                return m_fallback;
+            }
+
+            return m_stderr ? session.m_stderr : session.m_stdout;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.getTarget().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.getTarget().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.getTarget().flush();
+        }
+    }
+
+    private static final class RoutedInputStream extends InputStream {
+        private final InputStream m_fallback;
+
+        RoutedInputStream(InputStream fallback) {
+            m_fallback = fallback;
+        }
+
+        private InputStream getSource() {
+            Session session = SESSION.get();
+
+            return session == null ? m_fallback : session.m_stdin;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.getSource().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return this.getSource().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.getSource().available();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the frames of an {@link ImageFrameSource} in a terminal through a {@link ConsoleFrameRenderer}.
+ * <br>
+ * Each frame is displayed at the time given by the delays of the frames before it.
+ * The next frame is read on a background thread while the current one is rendered,
+ * and frames whose display time has already passed are dropped when rendering falls behind.
+ */
+public class ConsoleAnimationPlayer {
+
+    private static final int DEFAULT_FRAME_DELAY = 100;
+
+    private final ConsoleFrameRenderer m_renderer;
+    private int m_frameDelay = -1;
+    private boolean m_dropFrames = true;
+    private boolean m_realTime = false;
+
+    private volatile int m_renderedFrames = 0;
+    private final AtomicInteger m_droppedFrames = new AtomicInteger();
+
+    // playback schedule, only touched by the thread reading frames
+    private ImageFrameSource m_source;
+    private long m_nextFrameStart;
+    private long m_lastFrameDelay;
+    private int m_readFrames;
+
+    /**
+     * Construct a ConsoleAnimationPlayer around a given {@link ConsoleFrameRenderer}.
+     * <br>
+     * Each frame is set as the image of the renderer's {@link ImageAsciiReader} before it is rendered.
+     *
+     * @param renderer The frame renderer.
+     */
+    public ConsoleAnimationPlayer(ConsoleFrameRenderer renderer) {
+        m_renderer = renderer;
+    }
+
+    /**
+     * Get the {@link ConsoleFrameRenderer}
+     *
+     * @return {@link ConsoleFrameRenderer}
+     */
+    public final ConsoleFrameRenderer getRenderer() {
+        return m_renderer;
+    }
+
+    /**
+     * See: {@link #setFrameDelay(int)}
+     *
+     * @return Frame delay override in milliseconds, or -1.
+     */
+    public final int getFrameDelay() {
+        return m_frameDelay;
+    }
+
+    /**
+     * Set a fixed display time for every frame, overriding the delays given by the frame source.
+     * <br>
+     * A value of -1 uses the delays of the frame source, sources without timing
+     * information are played at 10 frames per second.
+     *
+     * @param millis Frame delay in milliseconds, or -1.
+     */
+    public final void setFrameDelay(int millis) {
+        m_frameDelay = millis;
+    }
+
+    /**
+     * See: {@link #setDropFrames(boolean)}
+     *
+     * @return Whether or not late frames are dropped.
+     */
+    public final boolean getDropFrames() {
+        return m_dropFrames;
+    }
+
+    /**
+     * Set whether or not frames whose display time has already passed are dropped.
+     * <br>
+     * When set to False, every frame is rendered and playback slows down instead.
+     * The default value is True.
+     *
+     * @param value True or False
+     */
+    public final void setDropFrames(boolean value) {
+        m_dropFrames = value;
+    }
+
+    /**
+     * See: {@link #setRealTime(boolean)}
+     *
+     * @return Whether or not the frame source is treated as a real time source.
+     */
+    public final boolean getRealTime() {
+        return m_realTime;
+    }
+
+    /**
+     * Set whether or not the frame source produces its frames in real time, like a video
+     * feed read from a pipe, instead of having all of its frames available up front.
+     * <br>
+     * When set to True, a frame which arrives after its display time is shown immediately and
+     * the playback clock restarts from it, instead of frames being dropped to catch up to the
+     * schedule.  Frames are still dropped if rendering falls behind, and a source which produces
+     * frames faster than they are played is only read from when the next frame is needed,
+     * so it is slowed down by the blocking reads.
+     * <br>
+     * The default value is False.
+     *
+     * @param value True or False
+     */
+    public final void setRealTime(boolean value) {
+        m_realTime = value;
+    }
+
+    /**
+     * Get the amount of frames rendered by the last call to play.
+     *
+     * @return Rendered frame count.
+     */
+    public final int getRenderedFrames() {
+        return m_renderedFrames;
+    }
+
+    /**
+     * Get the amount of frames dropped by the last call to play.
+     *
+     * @return Dropped frame count.
+     */
+    public final int getDroppedFrames() {
+        return m_droppedFrames.get();
+    }
+
+    /**
+     * Play all frames of a frame source to stdout.
+     * <br>
+     * See: {@link #play(ImageFrameSource, Point, OutputStreamWriter)}
+     *
+     * @param source The frame source.
+     * @param size   Desired dimensions, Point(cols, rows), may be null.
+     * @throws IOException               Upon writer.write IOException, or an error reading a frame.
+     * @throws InvalidImageDataException If a frame does not contain recognizable image data.
+     */
+    public final void play(ImageFrameSource source, Point size) throws
+            IOException,
+            InvalidImageDataException {
+        this.play(source, size, new OutputStreamWriter(System.out));
+    }
+
+    /**
+     * Play all frames of a frame source to a stream writer.
+     * <br>
+     * If **size** is **null**, each frame is printed at the size given by
+     * {@link ConsolePrinter#getDefaultSize()}, which follows the terminal size.
+     * <br>
+     * This method returns once the source runs out of frames, or the calling
+     * thread is interrupted.  The source is not closed.
+     *
+     * @param source The frame source.
+     * @param size   Desired dimensions, Point(cols, rows), may be null.
+     * @param writer Stream Writer.
+     * @throws IOException               Upon writer.write IOException, or an error reading a frame.
+     * @throws InvalidImageDataException If a frame does not contain recognizable image data.
+     */
+    public void play(ImageFrameSource source, Point size, OutputStreamWriter writer) throws
+            IOException,
+            InvalidImageDataException {
+
+        ExecutorService prefetch = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "img2a-frame-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Callable<Frame> readFrame = new Callable<Frame>() {
+            public Frame call() throws Exception {
+                return readNextFrame();
+            }
+        };
+
+        ConsolePrinter printer = m_renderer.getPrinter();
+        ImageAsciiReader reader = printer.getReader();
+
+        m_source = source;
+        m_nextFrameStart = System.nanoTime();
+        m_lastFrameDelay = 0;
+        m_readFrames = 0;
+        m_renderedFrames = 0;
+        m_droppedFrames.set(0);
+
+        try {
+            Future<Frame> next = prefetch.submit(readFrame);
+
+            while (true) {
+                Frame frame = next.get();
+
+                if (frame == null) {
+                    return;
+                }
+
+                next = prefetch.submit(readFrame);
+
+                long now = System.nanoTime();
+
+                if (m_dropFrames && m_renderedFrames > 0 && now >= frame.m_end) {
+                    m_droppedFrames.incrementAndGet();
+                    continue;
+                }
+
+                if (now < frame.m_start) {
+                    TimeUnit.NANOSECONDS.sleep(frame.m_start - now);
+                }
+
+                reader.setImage(frame.m_image);
+
+                m_renderer.writeFrame(size == null ? printer.getDefaultSize() : size, writer);
+
+                m_renderedFrames++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidImageDataException) {
+                throw (InvalidImageDataException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            prefetch.shutdownNow();
+            m_source = null;
+        }
+    }
+
+    private Frame readNextFrame() throws IOException, InvalidImageDataException {
+        while (true) {
+
+            // guess that the next frame lasts as long as the last one, if even
+            // that frame would already be over, skip it without decoding an image.
+
+            if (m_dropFrames && m_readFrames > 0 &&
+                    System.nanoTime() >= m_nextFrameStart + m_lastFrameDelay) {
+
+                if (!m_source.skipFrame()) {
+                    return null;
+                }
+
+                this.advanceSchedule();
+                m_droppedFrames.incrementAndGet();
+                continue;
+            }
+
+            BufferedImage image = m_source.nextFrame();
+
+            if (image == null) {
+                return null;
+            }
+
+            if (m_realTime) {
+                long now = System.nanoTime();
+
+                // the source was late, not the renderer
+                if (now > m_nextFrameStart) {
+                    m_nextFrameStart = now;
+                }
+            }
+
+            long start = m_nextFrameStart;
+
+            this.advanceSchedule();
+            m_readFrames++;
+
+            return new Frame(image, start, m_nextFrameStart);
+        }
+    }
+
+    private void advanceSchedule() {
+        int delay = m_frameDelay;
+
+        if (delay < 0) {
+            delay = m_source.getFrameDelay();
+        }
+
+        if (delay < 0) {
+            delay = DEFAULT_FRAME_DELAY;
+        }
+
+        m_lastFrameDelay = TimeUnit.MILLISECONDS.toNanos(delay);
+        m_nextFrameStart += m_lastFrameDelay;
+    }
+
+    private static final class Frame {
+        final BufferedImage m_image;
+        final long m_start;
+        final long m_end;
+
+        Frame(BufferedImage image, long start, long end) {
+            m_image = image;
+            m_start = start;
+            m_end = end;
+        }
+    }
+}
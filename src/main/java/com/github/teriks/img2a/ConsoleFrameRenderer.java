@@ -0,0 +1,261 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import org.fusesource.jansi.Ansi;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Renders successive frames produced by a {@link ConsolePrinter} to a terminal,
+ * only redrawing the character cells which changed since the previous frame.
+ * <br>
+ * The characters and styles of the previous frame are kept, and cursor positioning
+ * escapes are emitted for each run of changed cells.  Each frame is written to
+ * the terminal with a single buffered write, optionally wrapped in synchronized
+ * update markers so that the terminal presents it all at once.
+ * <br>
+ * The first frame, and any frame with a different size than the last, clear the
+ * screen and redraw everything.
+ */
+public class ConsoleFrameRenderer {
+
+    private static final String SYNC_BEGIN = "\u001B[?2026h";
+    private static final String SYNC_END = "\u001B[?2026l";
+
+    // A gap of unchanged cells shorter than this is rewritten instead of being
+    // skipped with a cursor position escape, which costs about as many characters.
+    private static final int MIN_SKIP = 8;
+
+    private final ConsolePrinter m_printer;
+    private final StringBuilder m_buffer = new StringBuilder();
+    private boolean m_synchronizedUpdates;
+
+    private int m_cols = 0;
+    private int m_rows = 0;
+    private char[] m_chars = new char[0];
+    private int[] m_styles = new int[0];
+    private char[] m_prevChars = new char[0];
+    private int[] m_prevStyles = new int[0];
+    private boolean m_fullRedraw = true;
+    private int m_lastFrameSize = 0;
+
+    /**
+     * Construct a ConsoleFrameRenderer around a given {@link ConsolePrinter}.
+     * <br>
+     * Characters and colors are produced with the settings of the printer, and
+     * the image of its {@link ImageAsciiReader} can be replaced between frames
+     * with {@link ImageAsciiReader#setImage(java.awt.image.BufferedImage)}.
+     *
+     * @param printer The console printer.
+     */
+    public ConsoleFrameRenderer(ConsolePrinter printer) {
+        m_printer = printer;
+        m_synchronizedUpdates = ConsoleTerminal.getInstance().hasCursorAddressing();
+    }
+
+    /**
+     * Get the {@link ConsolePrinter}
+     *
+     * @return {@link ConsolePrinter}
+     */
+    public final ConsolePrinter getPrinter() {
+        return m_printer;
+    }
+
+    /**
+     * See: {@link #setSynchronizedUpdates(boolean)}
+     *
+     * @return Whether or not frames are wrapped in synchronized update markers.
+     */
+    public final boolean getSynchronizedUpdates() {
+        return m_synchronizedUpdates;
+    }
+
+    /**
+     * Set whether or not each frame is wrapped in synchronized update markers
+     * (DEC private mode 2026), which keep the terminal from presenting a partially drawn frame.
+     * <br>
+     * This defaults to True if the terminal advertises cursor addressing.
+     *
+     * @param value True or False
+     */
+    public final void setSynchronizedUpdates(boolean value) {
+        m_synchronizedUpdates = value;
+    }
+
+    /**
+     * Get the amount of characters written for the last frame,
+     * including escape sequences.
+     *
+     * @return Character count.
+     */
+    public final int getLastFrameSize() {
+        return m_lastFrameSize;
+    }
+
+    /**
+     * Forget the previous frame, so that the next frame clears the screen and redraws everything.
+     */
+    public void reset() {
+        m_fullRedraw = true;
+    }
+
+    /**
+     * Write a frame to a stream writer with the given dimensions.
+     *
+     * @param size   Desired dimensions, Point(cols, rows).
+     * @param writer Stream Writer.
+     * @throws IOException Upon writer.write IOException
+     */
+    public final void writeFrame(Point size, OutputStreamWriter writer) throws IOException {
+        this.writeFrame(size.x, size.y, writer);
+    }
+
+    /**
+     * Write a frame to a stream writer with the given dimensions.
+     * <br>
+     * Only the cells which changed since the last frame are written,
+     * the writer is flushed afterwards.
+     *
+     * @param cols   ASCII column count.
+     * @param rows   ASCII row count.
+     * @param writer Stream Writer.
+     * @throws IOException Upon writer.write IOException
+     */
+    public void writeFrame(int cols, int rows, OutputStreamWriter writer) throws IOException {
+
+        boolean full = m_fullRedraw || cols != m_cols || rows != m_rows;
+
+        int cells = cols * rows;
+
+        if (m_chars.length < cells) {
+            m_chars = new char[cells];
+            m_styles = new int[cells];
+        }
+
+        int index = 0;
+
+        for (ImageRow row : m_printer.getReader().read(cols, rows)) {
+            for (Pixel pix : row) {
+                m_chars[index] = pix.getChar();
+                m_styles[index] = m_printer.getPixelStyle(pix);
+                index++;
+            }
+        }
+
+        m_buffer.setLength(0);
+
+        if (m_synchronizedUpdates) {
+            m_buffer.append(SYNC_BEGIN);
+        }
+
+        int frame_start = m_buffer.length();
+
+        Ansi output = new Ansi(m_buffer);
+
+        if (full) {
+            output.reset().eraseScreen();
+        }
+
+        // -1 means the current terminal style is unknown
+        int style = -1;
+
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            int c = 0;
+
+            while (c < cols) {
+                if (!full && !this.changed(base + c)) {
+                    c++;
+                    continue;
+                }
+
+                // extend the run over further changes, and over
+                // short gaps of unchanged cells between them.
+
+                int last_changed = c;
+
+                for (int end = c + 1; end < cols && end - last_changed < MIN_SKIP; end++) {
+                    if (full || this.changed(base + end)) {
+                        last_changed = end;
+                    }
+                }
+
+                output.cursor(r + 1, c + 1);
+
+                for (int i = base + c; i <= base + last_changed; i++) {
+                    if (m_styles[i] != style) {
+                        style = m_styles[i];
+                        ConsolePrinter.applyStyle(output.reset(), style);
+                    }
+                    output.a(m_chars[i]);
+                }
+
+                c = last_changed + 1;
+            }
+        }
+
+        if (style != -1 || full) {
+            // leave the cursor below the image
+            output.reset().cursor(rows + 1, 1);
+        }
+
+        char[] chars = m_prevChars;
+        int[] styles = m_prevStyles;
+
+        m_prevChars = m_chars;
+        m_prevStyles = m_styles;
+        m_chars = chars;
+        m_styles = styles;
+
+        m_cols = cols;
+        m_rows = rows;
+        m_fullRedraw = false;
+
+        if (m_buffer.length() == frame_start) {
+            m_lastFrameSize = 0;
+            return;
+        }
+
+        if (m_synchronizedUpdates) {
+            m_buffer.append(SYNC_END);
+        }
+
+        m_lastFrameSize = m_buffer.length();
+
+        writer.write(m_buffer.toString());
+        writer.flush();
+    }
+
+    private boolean changed(int index) {
+        return m_chars[index] != m_prevChars[index] || m_styles[index] != m_prevStyles[index];
+    }
+}
@@ -29,12 +29,12 @@ package com.github.teriks.img2a;
 
 import org.fusesource.jansi.Ansi;
 import org.fusesource.jansi.AnsiConsole;
-import org.jline.terminal.Terminal;
-import org.jline.terminal.TerminalBuilder;
 
 import java.awt.*;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.concurrent.Semaphore;
 
 import static org.fusesource.jansi.Ansi.Color;
 import static org.fusesource.jansi.Ansi.ansi;
@@ -45,9 +45,29 @@ import static org.fusesource.jansi.Ansi.ansi;
  */
 public class ConsolePrinter extends AsciiPrinter {
 
-    static {
-        AnsiConsole.systemInstall();
-    }
+    private static boolean s_ansiInstalled = false;
+
+    /**
+     * Mask for the {@link Color} ordinal in a style from {@link #getPixelStyle(Pixel)}.
+     */
+    static final int STYLE_COLOR_MASK = 0xF;
+
+    /**
+     * Style flag, the character is printed bold.
+     */
+    static final int STYLE_BOLD = 0x10;
+
+    /**
+     * Style flag, the color is applied to the character background.
+     */
+    static final int STYLE_BACKGROUND = 0x20;
+
+    /**
+     * Style for a character printed without any escape sequences.
+     */
+    static final int STYLE_PLAIN = Color.DEFAULT.ordinal();
+
+    private static final Color[] COLORS = Color.values();
 
     private boolean m_useColors = false;
     private boolean m_colorFill = false;
@@ -59,6 +79,18 @@ public class ConsolePrinter extends AsciiPrinter {
      */
     public ConsolePrinter(ImageAsciiReader reader) {
         super(reader);
+        installAnsiConsole();
+    }
+
+    /**
+     * Install the jansi console streams on first use, output which is not
+     * printed to a terminal never needs them.
+     */
+    private static synchronized void installAnsiConsole() {
+        if (!s_ansiInstalled) {
+            AnsiConsole.systemInstall();
+            s_ansiInstalled = true;
+        }
     }
 
     /**
@@ -71,34 +103,41 @@ public class ConsolePrinter extends AsciiPrinter {
         return m_colorFill;
     }
 
+    @Override
+    protected OutputStream getStandardOutput() {
+        // compressed output is binary, it must not pass through the
+        // filter jansi installs to strip ANSI codes from redirected output.
+        if (this.getCompression() != OutputCompression.NONE) {
+            return AnsiConsole.system_out;
+        }
+        return System.out;
+    }
+
 
     /**
      * Calculate the optimal size for img2a ASCII output
      * inside the current terminal if one exists.
      * <br>
      * If terminal size cannot be determined, the size defaults to 80x40.
+     * <br>
+     * The terminal is only probed once per process, its size is
+     * kept up to date by listening for window size changes.
      *
      * @return Point(rows, cols)
      */
     @Override
     public Point getDefaultSize() {
 
-        Terminal term;
+        Point screen_size = ConsoleTerminal.getInstance().getSize();
 
-        try {
-            term = TerminalBuilder.terminal();
-        } catch (IOException err) {
+        if (screen_size == null) {
             return super.getDefaultSize();
         }
 
-        float screen_cols = term.getWidth();
-
-        if (screen_cols == 0) {
-            return super.getDefaultSize();
-        }
+        float screen_cols = screen_size.x;
 
         // minus 1 for the prompt line, which takes up a row already
-        float screen_rows = (float) term.getHeight() - 1;
+        float screen_rows = (float) screen_size.y - 1;
 
         float img_x = this.getReader().getImageWidth();
         float img_y = this.getReader().getImageHeight() * this.getDefaultHeightScale();
@@ -147,7 +186,100 @@ public class ConsolePrinter extends AsciiPrinter {
         m_colorFill = value;
     }
 
-    private void writeColoredPixel(OutputStreamWriter writer, Pixel pixel) throws IOException {
+    /**
+     * Print to stdout fitted to the terminal, then keep running and print
+     * again at the new size every time the terminal window is resized.
+     * <br>
+     * See: {@link #printLive(OutputStreamWriter)}
+     *
+     * @throws IOException Upon writer.write IOException
+     */
+    public final void printLive() throws IOException {
+        this.printLive(new OutputStreamWriter(System.out));
+    }
+
+    /**
+     * Print to a stream writer fitted to the terminal, then keep running and
+     * print again at the new size every time the terminal window is resized.
+     * <br>
+     * Frames are written with a {@link ConsoleFrameRenderer}.  The image is scaled down once to
+     * a copy slightly larger than the terminal, and each re-render only scales
+     * that copy, See: {@link ImageAsciiReader#prescale(int, int)}.
+     * <br>
+     * This method only returns once the calling thread is interrupted.
+     *
+     * @param writer Stream Writer.
+     * @throws IOException Upon writer.write IOException
+     */
+    public void printLive(OutputStreamWriter writer) throws IOException {
+        ConsoleTerminal terminal = ConsoleTerminal.getInstance();
+
+        final Semaphore resized = new Semaphore(0);
+
+        Runnable listener = new Runnable() {
+            public void run() {
+                resized.release();
+            }
+        };
+
+        terminal.addResizeListener(listener);
+
+        ConsoleFrameRenderer renderer = new ConsoleFrameRenderer(this);
+
+        try {
+            Point last_size = null;
+            Point prescale_size = null;
+
+            while (true) {
+                Point size = this.getDefaultSize();
+
+                if (!size.equals(last_size)) {
+
+                    if (prescale_size == null || size.x > prescale_size.x || size.y > prescale_size.y) {
+
+                        // leave room to grow before the full size image has to be scaled again
+                        prescale_size = new Point(size.x * 2, size.y * 2);
+
+                        this.getReader().prescale(
+                                prescale_size.x,
+                                Math.round(prescale_size.y / this.getDefaultHeightScale()));
+                    }
+
+                    renderer.writeFrame(size, writer);
+
+                    last_size = size;
+                }
+
+                try {
+                    resized.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                resized.drainPermits();
+            }
+        } finally {
+            terminal.removeResizeListener(listener);
+        }
+    }
+
+    /**
+     * Calculate the terminal style used to print a given pixel.
+     * <br>
+     * The style is packed into an int, the low bits hold the ordinal of an
+     * {@link Color}, see {@link #STYLE_COLOR_MASK}, {@link #STYLE_BOLD} and {@link #STYLE_BACKGROUND}.
+     * <br>
+     * If colors are not in use, the style is always {@link #STYLE_PLAIN}.
+     *
+     * @param pixel img2a Pixel.
+     * @return The packed style.
+     */
+    int getPixelStyle(Pixel pixel) {
+        if (!this.m_useColors) {
+            return STYLE_PLAIN;
+        }
+
         float t = 25.5f;
         float i = 255 - t;
 
@@ -183,16 +315,36 @@ public class ConsolePrinter extends AsciiPrinter {
             bold = true;
         }
 
-        Ansi output;
-
         if (color == Color.DEFAULT) {
-            output = bold ? ansi().bold() : ansi();
+            return bold ? STYLE_PLAIN | STYLE_BOLD : STYLE_PLAIN;
         } else if (this.m_colorFill) {
-            output = ansi().bg(color);
+            return color.ordinal() | STYLE_BACKGROUND;
         } else {
-            output = ansi().fg(color);
+            return color.ordinal();
         }
+    }
 
+    /**
+     * Append the escape sequences for a style produced by {@link #getPixelStyle(Pixel)}.
+     *
+     * @param output The {@link Ansi} builder to append to.
+     * @param style  The packed style.
+     * @return output
+     */
+    static Ansi applyStyle(Ansi output, int style) {
+        Color color = COLORS[style & STYLE_COLOR_MASK];
+
+        if (color == Color.DEFAULT) {
+            return (style & STYLE_BOLD) != 0 ? output.bold() : output;
+        } else if ((style & STYLE_BACKGROUND) != 0) {
+            return output.bg(color);
+        } else {
+            return output.fg(color);
+        }
+    }
+
+    private void writeColoredPixel(OutputStreamWriter writer, Pixel pixel) throws IOException {
+        Ansi output = applyStyle(ansi(), this.getPixelStyle(pixel));
 
         writer.write(output.a(pixel.getChar()).reset().toString());
     }
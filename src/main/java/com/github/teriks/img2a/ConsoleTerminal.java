@@ -0,0 +1,229 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import org.fusesource.jansi.internal.CLibrary;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import org.jline.utils.InfoCmp;
+
+import java.awt.*;
+import java.io.Console;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process wide cache of the jline {@link Terminal} used by {@link ConsolePrinter}.
+ * <br>
+ * Probing the tty is slow, so the terminal and its capabilities are only
+ * queried once.  The terminal size is tracked through the WINCH signal
+ * instead of being queried on every call.
+ */
+final class ConsoleTerminal {
+
+    private static volatile boolean s_detached = false;
+
+    private final Terminal m_terminal;
+    private final boolean m_cursorAddressing;
+    private final boolean m_interactive;
+    private final int m_maxColors;
+    private final List<Runnable> m_resizeListeners = new CopyOnWriteArrayList<Runnable>();
+    private volatile Point m_size;
+
+    private ConsoleTerminal() {
+        Terminal terminal;
+
+        // jline logs a warning when it can only build a dumb terminal
+        LoggingBridge.install();
+
+        try {
+            terminal = s_detached ? null : TerminalBuilder.terminal();
+        } catch (IOException err) {
+            terminal = null;
+        }
+
+        m_terminal = terminal;
+
+        if (terminal == null) {
+            m_cursorAddressing = false;
+            m_interactive = false;
+            m_maxColors = 0;
+            m_size = null;
+            return;
+        }
+
+        m_cursorAddressing = terminal.getStringCapability(InfoCmp.Capability.cursor_address) != null;
+        m_interactive = m_cursorAddressing && isStdoutTty();
+
+        Integer max_colors = terminal.getNumericCapability(InfoCmp.Capability.max_colors);
+        m_maxColors = max_colors == null ? 0 : max_colors;
+
+        m_size = querySize(terminal);
+
+        terminal.handle(Terminal.Signal.WINCH, new Terminal.SignalHandler() {
+            public void handle(Terminal.Signal signal) {
+                m_size = querySize(m_terminal);
+
+                for (Runnable listener : m_resizeListeners) {
+                    listener.run();
+                }
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                try {
+                    m_terminal.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }));
+    }
+
+    /**
+     * Stop output from using the terminal of this process, for when output is
+     * written somewhere else, such as to a {@link DaemonClient}.
+     * <br>
+     * Output then behaves as if there were no terminal.  This has no effect
+     * once {@link #getInstance()} has been called.
+     */
+    static void detach() {
+        s_detached = true;
+    }
+
+    /**
+     * Get the shared instance, the terminal is built on first use.
+     *
+     * @return The shared {@link ConsoleTerminal}.
+     */
+    static ConsoleTerminal getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static Point querySize(Terminal terminal) {
+        Size size = terminal.getSize();
+
+        if (size == null || size.getColumns() == 0) {
+            return null;
+        }
+
+        return new Point(size.getColumns(), size.getRows());
+    }
+
+    /**
+     * Check whether or not stdout of the process is a terminal, without probing the terminal.
+     *
+     * @return True if stdout is a terminal.
+     */
+    static boolean isStdoutTty() {
+        // jline probes the tty through stdin, which is not a terminal when
+        // input is piped in, so stdout is checked the same way jansi checks it.
+        try {
+            return CLibrary.isatty(CLibrary.STDOUT_FILENO) != 0;
+        } catch (Throwable err) {
+            // jansi native library unavailable
+        }
+
+        Console console = System.console();
+
+        if (console == null) {
+            return false;
+        }
+
+        // since Java 22, a console exists even when stdout is redirected
+        try {
+            return (Boolean) Console.class.getMethod("isTerminal").invoke(console);
+        } catch (Exception err) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the underlying jline terminal.
+     *
+     * @return {@link Terminal}, or null if no terminal could be built.
+     */
+    Terminal getTerminal() {
+        return m_terminal;
+    }
+
+    /**
+     * Get the last known terminal size.
+     *
+     * @return Point(cols, rows), or null if the size cannot be determined.
+     */
+    Point getSize() {
+        return m_size;
+    }
+
+    /**
+     * @return Whether or not the terminal advertises cursor addressing.
+     */
+    boolean hasCursorAddressing() {
+        return m_cursorAddressing;
+    }
+
+    /**
+     * @return Whether or not stdout is a terminal which supports cursor addressing,
+     * so that frames can be drawn over each other.
+     */
+    boolean isInteractive() {
+        return m_interactive;
+    }
+
+    /**
+     * @return The number of colors the terminal advertises, or 0 if unknown.
+     */
+    int getMaxColors() {
+        return m_maxColors;
+    }
+
+    /**
+     * Add a listener which is run on the signal thread after the terminal is resized.
+     *
+     * @param listener The listener.
+     */
+    void addResizeListener(Runnable listener) {
+        m_resizeListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addResizeListener(Runnable)}.
+     *
+     * @param listener The listener.
+     */
+    void removeResizeListener(Runnable listener) {
+        m_resizeListeners.remove(listener);
+    }
+
+    private static class Holder {
+        static final ConsoleTerminal INSTANCE = new ConsoleTerminal();
+    }
+}
@@ -0,0 +1,578 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP server which converts images with the same options as the command line tool.
+ * <br>
+ * One server process keeps the JVM, fonts, glyph atlases and image decoders warm,
+ * instead of every image paying for their initialization.
+ * <br>
+ * Images are uploaded as the body of a POST request, or fetched by the server from the http
+ * or https url in the "url" query parameter of a GET request.  Every other query parameter
+ * is a command line option without its leading dashes, and parameters without a value are flags.
+ * The response is text, or HTML, SVG or an image when the query contains "html", "svg" or
+ * "image-out-format".
+ */
+final class ConversionServer {
+
+    private static final int MAX_UPLOAD_SIZE = 64 * 1024 * 1024;
+
+    // decoded pixels of an uploaded or fetched image, checked against the image header before decoding
+    private static final long MAX_INPUT_PIXELS = 50L * 1000 * 1000;
+
+    private static final int MAX_OUTPUT_SIZE = 4096;
+
+    private static final int RESPONSE_BUFFER_SIZE = 65536;
+
+    // connect and read timeout for fetching a url, so that an unresponsive host does not hold a thread
+    private static final int FETCH_TIMEOUT = 30000;
+
+    // options which read or write files on the server, play in a terminal, or end the process
+    private static final Set<String> REJECTED_OPTIONS = new HashSet<String>(Arrays.asList(
+            "input", "help", "version", "serve", "serve_address", "serve_concurrency",
+            "daemon", "daemon_socket", "image_out", "live", "stream", "loop", "fps", "html_stats",
+            "out_text", "out_html", "out_svg", "out_image",
+            "batch_out", "batch_threads", "batch_memory", "batch_manifest", "batch_journal", "shard",
+            "batch_watch", "batch_settle"));
+
+    private final HttpServer m_server;
+    private final ExecutorService m_executor;
+    private final Semaphore m_permits;
+    private final Semaphore m_inputPermits;
+    private final Namespace m_defaults;
+
+    /**
+     * Construct a server bound to an address, it does not accept requests until {@link #start()}.
+     *
+     * @param address     Address to listen on.
+     * @param concurrency Maximum amount of requests converted at the same time.
+     * @throws IOException              If the server can not be bound to the address.
+     * @throws IllegalArgumentException If concurrency is less than 1.
+     */
+    ConversionServer(InetSocketAddress address, int concurrency) throws IOException {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1.");
+        }
+
+        try {
+            m_defaults = App.createArgumentParser().parseArgs(new String[0]);
+        } catch (ArgumentParserException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // uploads are decoded from memory, there is no need for temporary files
+        ImageIO.setUseCache(false);
+
+        m_permits = new Semaphore(concurrency, true);
+
+        // the input of a request is held in memory until it is converted, twice as many
+        // inputs as conversions lets the next ones be received while the others convert.
+        m_inputPermits = new Semaphore(concurrency * 2, true);
+        m_executor = createExecutor(concurrency);
+
+        m_server = HttpServer.create(address, 0);
+        m_server.setExecutor(m_executor);
+        m_server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    ConversionServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    private static ExecutorService createExecutor(int concurrency) {
+
+        // a virtual thread waiting for its turn costs next to nothing, they are only
+        // available when running on Java 21 or later.
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            // fall back to platform threads, which bound concurrency themselves
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "img2a-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the address the server is listening on, which includes the port picked when binding to port 0.
+     *
+     * @return {@link InetSocketAddress}
+     */
+    InetSocketAddress getAddress() {
+        return m_server.getAddress();
+    }
+
+    /**
+     * Initialize image decoding, rendering and the default font, then start accepting requests.
+     */
+    void start() {
+        warmUp();
+        m_server.start();
+    }
+
+    /**
+     * Stop accepting requests, and stop the server once running requests finish or a delay passes.
+     *
+     * @param delay Maximum time to wait for running requests, in seconds.
+     */
+    void stop(int delay) {
+        m_server.stop(delay);
+        m_executor.shutdownNow();
+    }
+
+    private void warmUp() {
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+
+            ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+
+            ImageAsciiReader reader = new ImageAsciiReader(new ByteArrayInputStream(png.toByteArray()));
+
+            AsciiImageRenderer render = App.createImageRenderer(m_defaults, reader);
+            render.setThreads(1);
+            render.renderPng(64, 64, new ByteArrayOutputStream());
+
+        } catch (IOException e) {
+            // the first request does the same work, and reports any error
+        } catch (InvalidImageDataException e) {
+            // same as above
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+
+        if (!method.equals("GET") && !method.equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "GET, POST");
+            sendError(exchange, 405, "Only GET and POST requests are supported.");
+            return;
+        }
+
+        ArgumentParser parser = App.createArgumentParser();
+
+        List<String> args = new ArrayList<String>();
+        Namespace arguments;
+        String url;
+
+        try {
+            url = parseQuery(parser, exchange.getRequestURI().getRawQuery(), args);
+
+            // placeholder for the input, which is never opened
+            args.add("-");
+
+            arguments = parser.parseArgs(args.toArray(new String[args.size()]));
+
+            App.checkArguments(parser, arguments);
+
+        } catch (ArgumentParserException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        try {
+            m_inputPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            this.receive(exchange, arguments, url);
+        } finally {
+            m_inputPermits.release();
+        }
+    }
+
+    private void receive(HttpExchange exchange, Namespace arguments, String url) throws IOException {
+
+        String method = exchange.getRequestMethod();
+
+        byte[] input;
+
+        if (method.equals("POST")) {
+            input = readInput(exchange.getRequestBody());
+
+            if (input == null) {
+                sendError(exchange, 413, String.format(
+                        "Uploaded images are limited to %d bytes.", MAX_UPLOAD_SIZE));
+                return;
+            }
+
+        } else if (url == null) {
+            sendError(exchange, 400,
+                    "POST an image as the request body, or GET with a \"url\" query parameter.");
+            return;
+
+        } else {
+            URL input_url;
+
+            try {
+                input_url = new URL(url);
+            } catch (MalformedURLException e) {
+                input_url = null;
+            }
+
+            if (input_url == null ||
+                    !(input_url.getProtocol().equals("http") || input_url.getProtocol().equals("https"))) {
+
+                sendError(exchange, 400, String.format("Not an http or https url: \"%s\"", url));
+                return;
+            }
+
+            try {
+                InputStream stream = ImageAsciiReader.openStream(
+                        input_url, (String) arguments.get("user_agent"), FETCH_TIMEOUT);
+
+                try {
+                    input = readInput(stream);
+                } finally {
+                    stream.close();
+                }
+
+            } catch (IOException e) {
+                sendError(exchange, 502, "Error reading from provided image source.");
+                return;
+            }
+
+            if (input == null) {
+                sendError(exchange, 502, String.format(
+                        "Fetched images are limited to %d bytes.", MAX_UPLOAD_SIZE));
+                return;
+            }
+        }
+
+        try {
+            m_permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            this.convert(exchange, arguments, input);
+        } catch (RuntimeException e) {
+            // once the response has started, all that can be done is to cut it short
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 500, String.format("Error converting image: %s", e));
+            }
+        } catch (OutOfMemoryError e) {
+            // the size limits should prevent this, the memory is released with the request
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 503, "Not enough memory to convert image.");
+            }
+        } finally {
+            m_permits.release();
+        }
+    }
+
+    private String parseQuery(ArgumentParser parser, String query, List<String> args) throws
+            ArgumentParserException {
+
+        String url = null;
+
+        if (query == null) {
+            return null;
+        }
+
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+
+            int equals = parameter.indexOf('=');
+
+            String name = decode(equals == -1 ? parameter : parameter.substring(0, equals));
+            String value = equals == -1 ? null : decode(parameter.substring(equals + 1));
+
+            if (name.equals("url")) {
+                url = value;
+                continue;
+            }
+
+            String dest = name.replace('-', '_');
+
+            // checked against the real option names, abbreviations are not allowed
+            if (!m_defaults.getAttrs().containsKey(dest) || REJECTED_OPTIONS.contains(dest)) {
+                throw new ArgumentParserException(
+                        String.format("Unknown or unsupported option: \"%s\"", name), parser);
+            }
+
+            String option = "--" + dest.replace('_', '-');
+
+            args.add(value == null || value.isEmpty() ? option : option + "=" + value);
+        }
+
+        return url;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readInput(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[RESPONSE_BUFFER_SIZE];
+
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            if (output.size() + read > MAX_UPLOAD_SIZE) {
+                return null;
+            }
+
+            output.write(buffer, 0, read);
+        }
+
+        return output.toByteArray();
+    }
+
+    private void convert(HttpExchange exchange, Namespace arguments, byte[] input) throws IOException {
+
+        ImageAsciiReader reader;
+
+        try {
+            RawPixelFormat arg_raw_format = arguments.get("raw_format");
+
+            Point input_size = arg_raw_format != null ?
+                    (Point) arguments.get("raw_size") : readImageSize(input);
+
+            if (input_size != null && (long) input_size.x * input_size.y > MAX_INPUT_PIXELS) {
+                sendError(exchange, 413, String.format(
+                        "Images are limited to %d pixels, got: %dx%d",
+                        MAX_INPUT_PIXELS, input_size.x, input_size.y));
+                return;
+            }
+
+            if (arg_raw_format != null) {
+                Point arg_raw_size = arguments.get("raw_size");
+
+                reader = new ImageAsciiReader(ByteBuffer.wrap(input), arg_raw_size.x, arg_raw_size.y, arg_raw_format);
+            } else {
+                reader = new ImageAsciiReader(new ByteArrayInputStream(input));
+            }
+
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        } catch (InvalidImageDataException e) {
+            sendError(exchange, 400, "Provided image source contained invalid image data.");
+            return;
+        }
+
+        App.configureImageAsciiReader(arguments, reader);
+
+        if (arguments.get("image_out_format") != null) {
+            this.writeImage(exchange, arguments, reader);
+            return;
+        }
+
+        AsciiPrinter printer = App.createPrinter(arguments, reader);
+
+        String content_type = printer instanceof HtmlPrinter ? "text/html" :
+                printer instanceof SvgPrinter ? "image/svg+xml" : "text/plain";
+
+        // the terminal the server happens to run in has nothing to do with the request
+        Point output_size = App.calcFileOutputSize(arguments, printer);
+
+        if (!checkOutputSize(exchange, output_size)) {
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type",
+                content_type + "; charset=" + Charset.defaultCharset().name());
+
+        if (printer.getCompression() != OutputCompression.NONE) {
+            exchange.getResponseHeaders().set("Content-Encoding", printer.getCompression().getName());
+        }
+
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream output = new BufferedOutputStream(exchange.getResponseBody(), RESPONSE_BUFFER_SIZE);
+
+        printer.print(output_size, output);
+
+        output.flush();
+    }
+
+    private void writeImage(HttpExchange exchange, Namespace arguments, ImageAsciiReader reader) throws
+            IOException {
+
+        String arg_image_out_format = arguments.get("image_out_format");
+
+        boolean png = arg_image_out_format.equalsIgnoreCase("png") ||
+                arg_image_out_format.equalsIgnoreCase(AnimationFormat.APNG.getName());
+
+        String content_type = "image/png";
+
+        if (!png) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(arg_image_out_format);
+
+            if (!writers.hasNext()) {
+                sendError(exchange, 400, String.format(
+                        "Unknown image output format: \"%s\"", arg_image_out_format));
+                return;
+            }
+
+            String[] types = writers.next().getOriginatingProvider().getMIMETypes();
+
+            content_type = types != null && types.length > 0 ? types[0] : "application/octet-stream";
+        }
+
+        Point output_size = App.calcOutputSize(arguments, reader, 1.0f);
+
+        if (output_size == null) {
+            output_size = new Point(reader.getImageWidth(), reader.getImageHeight());
+        }
+
+        if (!checkOutputSize(exchange, output_size)) {
+            return;
+        }
+
+        AsciiImageRenderer render = App.createImageRenderer(arguments, reader);
+
+        // concurrent requests already keep the processors busy
+        if (arguments.get("image_threads") == null) {
+            render.setThreads(1);
+        }
+
+        // everything but PNG is encoded from a whole image, render it before the response starts
+        BufferedImage image = png ? null : render.render(output_size);
+
+        exchange.getResponseHeaders().set("Content-Type", content_type);
+        exchange.sendResponseHeaders(200, 0);
+
+        OutputStream output = new BufferedOutputStream(exchange.getResponseBody(), RESPONSE_BUFFER_SIZE);
+
+        if (png) {
+            render.renderPng(output_size, output);
+        } else {
+            ImageIO.write(image, arg_image_out_format, output);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Read the size of an encoded image from its header, without decoding any pixels.
+     *
+     * @param input The encoded image.
+     * @return The width and height of the first image, or {@code null} if no decoder recognizes the data,
+     * in which case decoding it reports the error.
+     * @throws IOException If the header can not be read.
+     */
+    private static Point readImageSize(byte[] input) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(input));
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(stream, true, true);
+
+                return new Point(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static boolean checkOutputSize(HttpExchange exchange, Point size) throws IOException {
+        if (size.x < 1 || size.y < 1 || size.x > MAX_OUTPUT_SIZE || size.y > MAX_OUTPUT_SIZE) {
+            sendError(exchange, size.x < 1 || size.y < 1 ? 400 : 413, String.format(
+                    "Output size must be between 1x1 and %dx%d, got: %dx%d",
+                    MAX_OUTPUT_SIZE, MAX_OUTPUT_SIZE, size.x, size.y));
+            return false;
+        }
+        return true;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes("UTF-8");
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.io.*;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Thin client which runs an img2a command inside a daemon started with --daemon.
+ * <br>
+ * The arguments, working directory, stdin, stdout, stderr and exit status are forwarded, so the
+ * client can be used in place of the img2a command.  If no daemon is listening, the command
+ * is run in this process instead.
+ * <br>
+ * The client only loads the classes it needs to talk to the daemon, so it starts
+ * much faster than the full command.  See: {@link CommandDaemon}
+ */
+final class DaemonClient {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Get the socket file the daemon listens on by default.
+     * <br>
+     * This is the IMG2A_SOCKET environment variable if it is set, otherwise
+     * daemon.sock in the directory img2a-USER inside the temporary directory.
+     *
+     * @return The socket file.
+     */
+    static File getDefaultSocket() {
+        String socket = System.getenv("IMG2A_SOCKET");
+
+        if (socket != null && !socket.isEmpty()) {
+            return new File(socket).getAbsoluteFile();
+        }
+
+        File directory = new File(
+                System.getProperty("java.io.tmpdir"),
+                "img2a-" + System.getProperty("user.name"));
+
+        return new File(directory, "daemon.sock").getAbsoluteFile();
+    }
+
+    public static void main(String[] args) {
+        SocketChannel channel;
+
+        try {
+            channel = UnixSockets.connect(getDefaultSocket().toPath());
+        } catch (IOException e) {
+            App.main(args);
+            return;
+        }
+
+        int status;
+
+        try {
+            status = run(channel, args);
+        } catch (IOException e) {
+            System.err.println(String.format("Lost connection to the img2a daemon: %s", e.getMessage()));
+            status = 3;
+        }
+
+        System.out.flush();
+        System.err.flush();
+
+        System.exit(status);
+    }
+
+    private static int run(SocketChannel channel, String[] args) throws IOException {
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(UnixSockets.newOutputStream(channel), BUFFER_SIZE));
+
+        output.writeInt(CommandDaemon.PROTOCOL_VERSION);
+        output.writeUTF(new File("").getAbsolutePath());
+        output.writeBoolean(ConsoleTerminal.isStdoutTty());
+        output.writeInt(args.length);
+
+        for (String arg : args) {
+            output.writeUTF(arg);
+        }
+
+        output.flush();
+
+        DataInputStream input = new DataInputStream(
+                new BufferedInputStream(UnixSockets.newInputStream(channel), BUFFER_SIZE));
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        while (true) {
+            int type = input.readUnsignedByte();
+            int value = input.readInt();
+
+            if (type == CommandDaemon.FRAME_EXIT) {
+                return value;
+            }
+
+            if (type == CommandDaemon.FRAME_STDIN_REQUEST) {
+                sendStdin(output);
+                continue;
+            }
+
+            // written through System.out and System.err, which ignore a closed pipe the same as the command does
+            PrintStream target = type == CommandDaemon.FRAME_STDERR ? System.err : System.out;
+
+            while (value > 0) {
+                int read = input.read(buffer, 0, Math.min(value, buffer.length));
+
+                if (read == -1) {
+                    throw new EOFException();
+                }
+
+                target.write(buffer, 0, read);
+
+                value -= read;
+            }
+
+            if (target == System.err) {
+                target.flush();
+            }
+        }
+    }
+
+    private static void sendStdin(final DataOutputStream output) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                InputStream stdin = new FileInputStream(FileDescriptor.in);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                try {
+                    int read;
+
+                    while ((read = stdin.read(buffer)) != -1) {
+                        if (read > 0) {
+                            output.writeInt(read);
+                            output.write(buffer, 0, read);
+                            output.flush();
+                        }
+                    }
+
+                    output.writeInt(0);
+                    output.flush();
+
+                } catch (IOException ignored) {
+                    // the command has finished, or the daemon went away
+                }
+            }
+        }, "img2a-stdin");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,386 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the frames of an animated GIF as an {@link ImageFrameSource}.
+ * <br>
+ * Frames are decoded lazily, one at a time, and composited onto the logical screen
+ * of the GIF according to their position and disposal method, so each frame
+ * returned is the complete picture that would be displayed at that point.
+ */
+public class GifFrameReader implements ImageFrameSource {
+    private static final String IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final String STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+
+    // browsers display frames with a delay of 0 or 1 hundredths of a second at 10 FPS
+    private static final int DEFAULT_DELAY = 100;
+
+    private final ImageInputStream m_input;
+    private final ImageReader m_reader;
+    private final BufferedImage m_canvas;
+    private final BufferedImage[] m_output = new BufferedImage[2];
+    private BufferedImage m_restore;
+
+    private int m_outputIndex = 0;
+    private int m_frameIndex = 0;
+    private int m_frameDelay = -1;
+    private boolean m_loop = false;
+
+    // disposal of the last frame, which is applied before the next frame is drawn
+    private String m_disposal = null;
+    private Rectangle m_disposalArea = null;
+
+    /**
+     * Construct a GIF frame reader from a file on disk.
+     *
+     * @param file The GIF file.
+     * @throws IOException               If there is an IO error reading the file.
+     * @throws InvalidImageDataException If the file does not contain GIF image data.
+     * @throws FileNotFoundException     if the given file does not exist on disk.
+     */
+    public GifFrameReader(File file) throws
+            IOException,
+            InvalidImageDataException {
+        this(openFile(file));
+    }
+
+    /**
+     * Construct a GIF frame reader from an image input stream.
+     * <br>
+     * The stream is closed by {@link #close()}.
+     *
+     * @param input_stream The image input stream.
+     * @throws IOException               If there is an IO error reading the stream.
+     * @throws InvalidImageDataException If the stream does not contain GIF image data.
+     */
+    public GifFrameReader(ImageInputStream input_stream) throws
+            IOException,
+            InvalidImageDataException {
+
+        m_input = input_stream;
+        m_reader = findGifReader(input_stream);
+
+        if (m_reader == null) {
+            throw new InvalidImageDataException();
+        }
+
+        m_reader.setInput(input_stream, false, false);
+
+        Dimension screen = readScreenSize(m_reader);
+
+        m_canvas = new BufferedImage(screen.width, screen.height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Check if an image input stream contains a GIF with more than one frame.
+     * <br>
+     * The stream is returned to its original position afterwards.
+     *
+     * @param input_stream The image input stream.
+     * @return True if the stream contains an animated GIF.
+     * @throws IOException If there is an IO error reading the stream.
+     */
+    public static boolean isAnimated(ImageInputStream input_stream) throws IOException {
+        ImageReader reader = findGifReader(input_stream);
+
+        if (reader == null) {
+            return false;
+        }
+
+        input_stream.mark();
+
+        try {
+            reader.setInput(input_stream, false, false);
+            reader.getImageMetadata(1);
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        } catch (IIOException e) {
+            return false;
+        } finally {
+            reader.dispose();
+            input_stream.reset();
+        }
+    }
+
+    private static ImageInputStream openFile(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.toString());
+        }
+
+        return ImageIO.createImageInputStream(file);
+    }
+
+    private static ImageReader findGifReader(ImageInputStream input_stream) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input_stream);
+
+        while (readers.hasNext()) {
+            ImageReader reader = readers.next();
+
+            if (reader.getFormatName().equalsIgnoreCase("gif")) {
+                return reader;
+            }
+        }
+
+        return null;
+    }
+
+    private static Dimension readScreenSize(ImageReader reader) throws IOException {
+        IIOMetadata metadata = reader.getStreamMetadata();
+
+        if (metadata != null) {
+            Node screen = findChild(
+                    metadata.getAsTree(STREAM_METADATA_FORMAT),
+                    "LogicalScreenDescriptor");
+
+            if (screen != null) {
+                int width = getIntAttribute(screen, "logicalScreenWidth", 0);
+                int height = getIntAttribute(screen, "logicalScreenHeight", 0);
+
+                if (width > 0 && height > 0) {
+                    return new Dimension(width, height);
+                }
+            }
+        }
+
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+    }
+
+    private static Node findChild(Node node, String name) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static int getIntAttribute(Node node, String name, int defaultValue) {
+        NamedNodeMap attributes = node.getAttributes();
+        Node attribute = attributes == null ? null : attributes.getNamedItem(name);
+
+        if (attribute == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(attribute.getNodeValue());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String getAttribute(Node node, String name) {
+        NamedNodeMap attributes = node.getAttributes();
+        Node attribute = attributes == null ? null : attributes.getNamedItem(name);
+
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    /**
+     * Get the width of the GIF's logical screen, which is the width of every frame returned.
+     *
+     * @return Width in pixels.
+     */
+    public final int getWidth() {
+        return m_canvas.getWidth();
+    }
+
+    /**
+     * Get the height of the GIF's logical screen, which is the height of every frame returned.
+     *
+     * @return Height in pixels.
+     */
+    public final int getHeight() {
+        return m_canvas.getHeight();
+    }
+
+    /**
+     * See: {@link #setLoop(boolean)}
+     *
+     * @return Whether or not the frames loop.
+     */
+    public final boolean getLoop() {
+        return m_loop;
+    }
+
+    /**
+     * Set whether or not to start over at the first frame after the last frame is read.
+     * <br>
+     * When set to True, the reader never runs out of frames.
+     *
+     * @param value True or False
+     */
+    public final void setLoop(boolean value) {
+        m_loop = value;
+    }
+
+    /**
+     * Start over at the first frame.
+     */
+    public void rewind() {
+        m_frameIndex = 0;
+        m_disposal = null;
+        m_disposalArea = null;
+
+        clear(m_canvas, new Rectangle(0, 0, m_canvas.getWidth(), m_canvas.getHeight()));
+    }
+
+    @Override
+    public BufferedImage nextFrame() throws IOException, InvalidImageDataException {
+        if (!this.compositeNextFrame()) {
+            return null;
+        }
+
+        BufferedImage output = m_output[m_outputIndex];
+
+        if (output == null) {
+            output = new BufferedImage(
+                    m_canvas.getWidth(),
+                    m_canvas.getHeight(),
+                    BufferedImage.TYPE_INT_ARGB);
+
+            m_output[m_outputIndex] = output;
+        }
+
+        m_outputIndex ^= 1;
+
+        m_canvas.copyData(output.getRaster());
+
+        return output;
+    }
+
+    @Override
+    public boolean skipFrame() throws IOException, InvalidImageDataException {
+        // frames are drawn over each other, so skipped frames still need to be composited
+        return this.compositeNextFrame();
+    }
+
+    @Override
+    public int getFrameDelay() {
+        return m_frameDelay;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_reader.dispose();
+        m_input.close();
+    }
+
+    private boolean compositeNextFrame() throws IOException, InvalidImageDataException {
+        IIOMetadata metadata;
+        BufferedImage frame;
+
+        try {
+            metadata = m_reader.getImageMetadata(m_frameIndex);
+            frame = m_reader.read(m_frameIndex);
+        } catch (IndexOutOfBoundsException e) {
+            return this.restart();
+        } catch (IIOException e) {
+            if (m_frameIndex == 0) {
+                throw new InvalidImageDataException(e.getMessage());
+            }
+
+            // a truncated or damaged trailing frame ends the animation,
+            // the same as it would in a browser.
+            return this.restart();
+        }
+
+        if ("restoreToBackgroundColor".equals(m_disposal)) {
+            clear(m_canvas, m_disposalArea);
+        } else if ("restoreToPrevious".equals(m_disposal) && m_restore != null) {
+            m_restore.copyData(m_canvas.getRaster());
+        }
+
+        Node tree = metadata.getAsTree(IMAGE_METADATA_FORMAT);
+
+        Node descriptor = findChild(tree, "ImageDescriptor");
+        Node control = findChild(tree, "GraphicControlExtension");
+
+        int left = descriptor == null ? 0 : getIntAttribute(descriptor, "imageLeftPosition", 0);
+        int top = descriptor == null ? 0 : getIntAttribute(descriptor, "imageTopPosition", 0);
+
+        m_disposal = control == null ? null : getAttribute(control, "disposalMethod");
+        m_disposalArea = new Rectangle(left, top, frame.getWidth(), frame.getHeight());
+
+        int delay = control == null ? 0 : getIntAttribute(control, "delayTime", 0);
+
+        m_frameDelay = delay <= 1 ? DEFAULT_DELAY : delay * 10;
+
+        if ("restoreToPrevious".equals(m_disposal)) {
+            if (m_restore == null) {
+                m_restore = new BufferedImage(
+                        m_canvas.getWidth(),
+                        m_canvas.getHeight(),
+                        BufferedImage.TYPE_INT_ARGB);
+            }
+            m_canvas.copyData(m_restore.getRaster());
+        }
+
+        Graphics2D graphics = m_canvas.createGraphics();
+        graphics.drawImage(frame, left, top, null);
+        graphics.dispose();
+
+        m_frameIndex++;
+
+        return true;
+    }
+
+    private boolean restart() throws IOException, InvalidImageDataException {
+        if (!m_loop || m_frameIndex == 0) {
+            return false;
+        }
+
+        this.rewind();
+
+        return this.compositeNextFrame();
+    }
+
+    private static void clear(BufferedImage image, Rectangle area) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(area.x, area.y, area.width, area.height);
+        graphics.dispose();
+    }
+}
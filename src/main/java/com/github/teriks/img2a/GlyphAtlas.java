@@ -0,0 +1,456 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of antialiased character masks for one font, used by {@link AsciiImageRenderer}
+ * to draw characters straight into an int RGB pixel array.
+ * <br>
+ * Each character is rasterized once, the first time it is requested, into an 8 bit coverage mask.
+ * Drawing a character then only blends the mask into the destination pixels with the character color,
+ * using the same integer math as the Java 2D antialiased text loops, so the result matches
+ * {@link Graphics2D#drawChars(char[], int, int, int, int)} with antialiasing turned on.
+ * <br>
+ * The cell size of a palette, and how far its characters reach above and below the baseline,
+ * are measured once per palette and cached along with the masks, see {@link #getCellMetrics(String)}.
+ * <br>
+ * Atlases are shared between renderers through {@link #getInstance(Font)}, and are safe to use from multiple threads.
+ */
+public final class GlyphAtlas {
+
+    // atlases for the fonts used most recently
+    private static final int MAX_CACHED_ATLASES = 8;
+
+    private static final Map<Font, GlyphAtlas> ATLASES =
+            new LinkedHashMap<Font, GlyphAtlas>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Font, GlyphAtlas> eldest) {
+                    return size() > MAX_CACHED_ATLASES;
+                }
+            };
+
+    // cell metrics for the palettes used most recently with each atlas
+    private static final int MAX_CACHED_PALETTES = 16;
+
+    // MUL8 from the Java 2D native loops, (a * b) / 255 rounded with the same bias
+    private static final byte[] MUL8 = new byte[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            int increment = a * 0x010101;
+            int value = increment + (1 << 23);
+
+            for (int b = 1; b < 256; b++) {
+                MUL8[(a << 8) | b] = (byte) (value >>> 24);
+                value += increment;
+            }
+        }
+    }
+
+    // extra room around the measured glyph bounds, which antialiasing can bleed into
+    private static final int GLYPH_PADDING = 2;
+
+    private final Font m_font;
+    private final boolean m_supported;
+    private final Glyph[] m_ascii = new Glyph[128];
+    private final Map<Character, Glyph> m_other = new HashMap<Character, Glyph>();
+
+    private final Map<String, CellMetrics> m_cellMetrics =
+            new LinkedHashMap<String, CellMetrics>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CellMetrics> eldest) {
+                    return size() > MAX_CACHED_PALETTES;
+                }
+            };
+
+    private GlyphAtlas(Font font) {
+        m_font = font;
+
+        // layout attributes like underline or kerning, and transforms, are left to Java 2D
+        m_supported = !font.hasLayoutAttributes() && !font.isTransformed();
+    }
+
+    /**
+     * Get the shared atlas for a font.
+     *
+     * @param font The font.
+     * @return {@link GlyphAtlas}
+     */
+    public static GlyphAtlas getInstance(Font font) {
+        synchronized (ATLASES) {
+            GlyphAtlas atlas = ATLASES.get(font);
+
+            if (atlas == null) {
+                atlas = new GlyphAtlas(font);
+                ATLASES.put(font, atlas);
+            }
+
+            return atlas;
+        }
+    }
+
+    /**
+     * Get the font this atlas rasterizes characters with.
+     *
+     * @return {@link Font}
+     */
+    public Font getFont() {
+        return m_font;
+    }
+
+    /**
+     * Get the mask for a character.
+     * <br>
+     * Returns null if the character can not be drawn from a mask, it should be drawn
+     * with {@link Graphics2D#drawChars(char[], int, int, int, int)} instead.
+     * This is the case for characters the font has no glyph for, which Java 2D
+     * substitutes from another font, and for fonts with transforms or layout attributes.
+     *
+     * @param c The character.
+     * @return {@link Glyph}, or null.
+     */
+    public Glyph getGlyph(char c) {
+        if (!m_supported) {
+            return null;
+        }
+
+        synchronized (this) {
+            Glyph glyph = c < m_ascii.length ? m_ascii[c] : m_other.get(c);
+
+            if (glyph == null) {
+                glyph = this.rasterize(c);
+
+                if (c < m_ascii.length) {
+                    m_ascii[c] = glyph;
+                } else {
+                    m_other.put(c, glyph);
+                }
+            }
+
+            return glyph == Glyph.UNSUPPORTED ? null : glyph;
+        }
+    }
+
+    /**
+     * Get the measurements of a character cell for a palette.
+     * <br>
+     * The metrics are measured with antialiasing on and fractional metrics off, the same rendering
+     * hints the masks are rasterized with, and are cached so that only the first request for
+     * a palette measures the characters.
+     *
+     * @param palette The characters which may be drawn.
+     * @return {@link CellMetrics}
+     */
+    public CellMetrics getCellMetrics(String palette) {
+        synchronized (m_cellMetrics) {
+            CellMetrics metrics = m_cellMetrics.get(palette);
+
+            if (metrics != null) {
+                return metrics;
+            }
+        }
+
+        // measured outside of the lock, a palette measured twice by racing threads comes out the same
+        CellMetrics metrics = this.measure(palette);
+
+        synchronized (m_cellMetrics) {
+            m_cellMetrics.put(palette, metrics);
+        }
+
+        return metrics;
+    }
+
+    private CellMetrics measure(String palette) {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = scratch.createGraphics();
+
+        graphics.setRenderingHint(
+                RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        FontMetrics fontMetrics = graphics.getFontMetrics(m_font);
+
+        graphics.dispose();
+
+        CellMetrics metrics = new CellMetrics();
+
+        metrics.m_charHeight = fontMetrics.getHeight();
+        metrics.m_maxAscent = fontMetrics.getMaxAscent();
+        metrics.m_maxDescent = fontMetrics.getMaxDescent();
+        metrics.m_allGlyphs = true;
+
+        for (char c : palette.toCharArray()) {
+            metrics.m_charWidth = Math.max(metrics.m_charWidth, fontMetrics.charWidth(c));
+
+            Glyph glyph = this.getGlyph(c);
+
+            if (glyph == null) {
+                metrics.m_allGlyphs = false;
+            } else {
+                metrics.m_glyphAscent = Math.max(metrics.m_glyphAscent, -glyph.getTop());
+                metrics.m_glyphDescent = Math.max(metrics.m_glyphDescent, glyph.getBottom());
+            }
+        }
+
+        return metrics;
+    }
+
+    private Glyph rasterize(char c) {
+        if (!m_font.canDisplay(c)) {
+            return Glyph.UNSUPPORTED;
+        }
+
+        FontRenderContext context = new FontRenderContext(
+                null,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON,
+                RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+
+        GlyphVector vector = m_font.createGlyphVector(context, new char[]{c});
+
+        Rectangle bounds = vector.getPixelBounds(context, 0, 0);
+
+        if (bounds.isEmpty()) {
+            // whitespace
+            return new Glyph(0, 0, 0, 0, new byte[0]);
+        }
+
+        bounds.grow(GLYPH_PADDING, GLYPH_PADDING);
+
+        BufferedImage mask = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_BYTE_GRAY);
+
+        Graphics2D graphics = mask.createGraphics();
+
+        graphics.setRenderingHint(
+                RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        graphics.setFont(m_font);
+        graphics.setColor(Color.white);
+        graphics.drawChars(new char[]{c}, 0, 1, -bounds.x, -bounds.y);
+        graphics.dispose();
+
+        byte[] coverage = ((DataBufferByte) mask.getRaster().getDataBuffer()).getData();
+
+        return new Glyph(bounds.x, bounds.y, bounds.width, bounds.height, coverage);
+    }
+
+    /**
+     * The measurements of a character cell for one palette, see {@link #getCellMetrics(String)}.
+     */
+    public static final class CellMetrics {
+        private int m_charWidth;
+        private int m_charHeight;
+        private int m_maxAscent;
+        private int m_maxDescent;
+        private int m_glyphAscent;
+        private int m_glyphDescent;
+        private boolean m_allGlyphs;
+
+        private CellMetrics() {
+        }
+
+        /**
+         * Get the advance of the widest character in the palette.
+         *
+         * @return Width in pixels.
+         */
+        public int getCharWidth() {
+            return m_charWidth;
+        }
+
+        /**
+         * Get the line height of the font.
+         *
+         * @return Height in pixels.
+         */
+        public int getCharHeight() {
+            return m_charHeight;
+        }
+
+        /**
+         * Get the maximum ascent of the font, as reported by {@link FontMetrics#getMaxAscent()}.
+         *
+         * @return Ascent in pixels.
+         */
+        public int getMaxAscent() {
+            return m_maxAscent;
+        }
+
+        /**
+         * Get the maximum descent of the font, as reported by {@link FontMetrics#getMaxDescent()}.
+         *
+         * @return Descent in pixels.
+         */
+        public int getMaxDescent() {
+            return m_maxDescent;
+        }
+
+        /**
+         * Get how far the masks of the palette characters reach above the baseline.
+         * <br>
+         * Characters without a mask are not included, see {@link #getAllGlyphs()}.
+         *
+         * @return Ascent in pixels.
+         */
+        public int getGlyphAscent() {
+            return m_glyphAscent;
+        }
+
+        /**
+         * Get how far the masks of the palette characters reach below the baseline.
+         * <br>
+         * Characters without a mask are not included, see {@link #getAllGlyphs()}.
+         *
+         * @return Descent in pixels.
+         */
+        public int getGlyphDescent() {
+            return m_glyphDescent;
+        }
+
+        /**
+         * Get whether or not every character of the palette can be drawn from a mask.
+         *
+         * @return True or False
+         */
+        public boolean getAllGlyphs() {
+            return m_allGlyphs;
+        }
+    }
+
+    /**
+     * An 8 bit coverage mask for one character.
+     */
+    public static final class Glyph {
+        static final Glyph UNSUPPORTED = new Glyph(0, 0, 0, 0, new byte[0]);
+
+        private final int m_x;
+        private final int m_y;
+        private final int m_width;
+        private final int m_height;
+        private final byte[] m_coverage;
+
+        private Glyph(int x, int y, int width, int height, byte[] coverage) {
+            m_x = x;
+            m_y = y;
+            m_width = width;
+            m_height = height;
+            m_coverage = coverage;
+        }
+
+        /**
+         * Get the offset from the baseline to the top of the mask, which is negative
+         * for characters that reach above the baseline.
+         *
+         * @return Offset in pixels.
+         */
+        public int getTop() {
+            return m_y;
+        }
+
+        /**
+         * Get the offset from the baseline to the bottom of the mask.
+         *
+         * @return Offset in pixels.
+         */
+        public int getBottom() {
+            return m_y + m_height;
+        }
+
+        /**
+         * Blend the character into an int RGB pixel array.
+         * <br>
+         * The pixel at (x, y) is stored at index offset + y * width + x, and only the
+         * rows from clipTop up to clipBottom are written.  Pixels outside of the
+         * destination width are skipped.
+         *
+         * @param pixels     Destination pixels, packed as 0xRRGGBB, row by row.
+         * @param offset     Index of the pixel at (0, 0), which may be outside of the array.
+         * @param width      Width of the destination in pixels.
+         * @param clipTop    First row which may be written.
+         * @param clipBottom Row after the last row which may be written.
+         * @param x          X coordinate of the character origin.
+         * @param baseline   Y coordinate of the character baseline.
+         * @param rgb        Character color, packed as 0xRRGGBB.
+         */
+        public void draw(int[] pixels, int offset, int width, int clipTop, int clipBottom,
+                         int x, int baseline, int rgb) {
+            int left = x + m_x;
+            int top = baseline + m_y;
+
+            int start_x = Math.max(0, -left);
+            int start_y = Math.max(0, clipTop - top);
+            int end_x = Math.min(m_width, width - left);
+            int end_y = Math.min(m_height, clipBottom - top);
+
+            int src_r = (rgb >> 16) & 0xFF;
+            int src_g = (rgb >> 8) & 0xFF;
+            int src_b = rgb & 0xFF;
+
+            rgb &= 0xFFFFFF;
+
+            for (int gy = start_y; gy < end_y; gy++) {
+                int mask = gy * m_width;
+                int dest = offset + (top + gy) * width + left;
+
+                for (int gx = start_x; gx < end_x; gx++) {
+                    int alpha = m_coverage[mask + gx] & 0xFF;
+
+                    if (alpha == 0) {
+                        continue;
+                    }
+
+                    if (alpha == 0xFF) {
+                        pixels[dest + gx] = rgb;
+                        continue;
+                    }
+
+                    int inverse = (0xFF - alpha) << 8;
+                    int source = alpha << 8;
+
+                    int dst = pixels[dest + gx];
+
+                    int r = (MUL8[source | src_r] & 0xFF) + (MUL8[inverse | ((dst >> 16) & 0xFF)] & 0xFF);
+                    int g = (MUL8[source | src_g] & 0xFF) + (MUL8[inverse | ((dst >> 8) & 0xFF)] & 0xFF);
+                    int b = (MUL8[source | src_b] & 0xFF) + (MUL8[inverse | (dst & 0xFF)] & 0xFF);
+
+                    pixels[dest + gx] = (r << 16) | (g << 8) | b;
+                }
+            }
+        }
+    }
+}
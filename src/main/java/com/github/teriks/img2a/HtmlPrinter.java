@@ -27,6 +27,8 @@
 
 package com.github.teriks.img2a;
 
+import com.github.teriks.img2a.utils.ColorUtils;
+
 import java.awt.*;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -36,17 +38,77 @@ import java.io.OutputStreamWriter;
  * an output stream as HTML5.
  */
 public class HtmlPrinter extends AsciiPrinter {
+
+    // cells written per piece of the canvas script data
+    private static final int CANVAS_CHUNK_SIZE = 8192;
+
+    private static final char[] BASE64_DIGITS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // Paints the grid described by the variables written in front of it, see writeCanvas().
+    // The cell size is measured from a hidden element with the "ascii" class, so the
+    // canvas is laid out the same as the text output would be.
+    private static final String CANVAS_SCRIPT =
+            "var canvas=document.currentScript.previousElementSibling;" +
+            "var probe=document.createElement('pre');" +
+            "probe.className='ascii';" +
+            "probe.style.cssText='position:absolute;visibility:hidden;margin:0';" +
+            "probe.textContent='M';" +
+            "document.body.appendChild(probe);" +
+            "var box=probe.getBoundingClientRect(),cs=getComputedStyle(probe);" +
+            "document.body.removeChild(probe);" +
+            "var cw=box.width,ch=box.height,dpr=window.devicePixelRatio||1;" +
+            "canvas.width=Math.ceil(cols*cw*dpr);" +
+            "canvas.height=Math.ceil(rows*ch*dpr);" +
+            "canvas.style.width=cols*cw+'px';" +
+            "canvas.style.height=rows*ch+'px';" +
+            "var g=canvas.getContext('2d');" +
+            "g.scale(dpr,dpr);" +
+            "g.font=cs.fontStyle+' '+cs.fontWeight+' '+cs.fontSize+' '+cs.fontFamily;" +
+            "g.textBaseline='middle';" +
+            "var fg=[],bg=[],step=fill?6:3;" +
+            "function rgb(i){" +
+            "return 'rgb('+palette.charCodeAt(i)+','+palette.charCodeAt(i+1)+','+palette.charCodeAt(i+2)+')';" +
+            "}" +
+            "for(var i=0;i<palette.length;i+=step){" +
+            "fg.push(rgb(i));" +
+            "if(fill)bg.push(rgb(i+3));" +
+            "}" +
+            "var last=-1,k=0;" +
+            "for(var y=0;y<rows;y++){" +
+            "for(var x=0;x<cols;x++,k++){" +
+            "var s=0;" +
+            "for(var b=0;b<n;b++)s=s*256+cells.charCodeAt(k*n+b);" +
+            "if(fill){" +
+            "g.fillStyle=bg[s];" +
+            "g.fillRect(x*cw,y*ch,cw,ch);" +
+            "last=-1;" +
+            "}" +
+            "var c=text.charAt(k);" +
+            "if(c===' ')continue;" +
+            "if(s!==last){g.fillStyle=fg[s];last=s;}" +
+            "g.fillText(c,x*cw,y*ch+ch/2);" +
+            "}" +
+            "}";
+
     private boolean m_colorFill = false;
     private String m_fontSize = "8pt";
     private String m_fontWeight = "bold";
     private boolean m_raw = false;
     private String m_title = null;
     private boolean m_useColors = false;
+    private boolean m_compact = false;
+    private boolean m_canvas = false;
+    private int m_colorBits = 8;
 
     private String m_background = "black";
     private String m_foreground = "white";
     private String m_fontStyle = "normal";
 
+    // reused by writeColoredPixel, so that writing a pixel does not allocate
+    private final StringBuilder m_pixelHtml = new StringBuilder(96);
+    private char[] m_pixelBuffer = new char[96];
+
     /**
      * Construct an HtmlPrinter around a given {@link ImageAsciiReader}
      *
@@ -200,34 +262,26 @@ public class HtmlPrinter extends AsciiPrinter {
      * @return A string of CSS properties with values.
      */
     public String getPixelStyle(Pixel pixel) {
-        Color color = pixel.getColor();
+        return this.appendPixelStyle(new StringBuilder(48), pixel).toString();
+    }
 
-        if (this.m_colorFill) {
+    private StringBuilder appendPixelStyle(StringBuilder style, Pixel pixel) {
+        int color = pixel.getColor().getRGB();
 
-            float fg_Factor =
-                    getReader().getUseGrayscaleColor() ? 0.5f : pixel.getLuma();
+        style.append("color:");
 
-            int fg_R = Math.round(color.getRed() * fg_Factor);
-            int fg_G = Math.round(color.getGreen() * fg_Factor);
-            int fg_B = Math.round(color.getBlue() * fg_Factor);
+        if (this.m_colorFill) {
+            ColorUtils.appendHex(style, this.calcColorFillForeground(pixel));
 
+            style.append("; background-color:");
+        }
 
-            return String.format(
-                    "color:#%02x%02x%02x; background-color:#%02x%02x%02x",
-                    fg_R,
-                    fg_G,
-                    fg_B,
-                    color.getRed(),
-                    color.getGreen(),
-                    color.getBlue());
-        } else {
+        return ColorUtils.appendHex(style, color);
+    }
 
-            return String.format(
-                    "color:#%02x%02x%02x",
-                    color.getRed(),
-                    color.getGreen(),
-                    color.getBlue());
-        }
+    private int calcColorFillForeground(Pixel pixel) {
+        return ColorUtils.fillForeground(
+                pixel.getColor().getRGB(), pixel.getLuma(), getReader().getUseGrayscaleColor());
     }
 
     /**
@@ -300,6 +354,94 @@ public class HtmlPrinter extends AsciiPrinter {
         this.m_useColors = value;
     }
 
+    /**
+     * See: {@link #setCompact(boolean)}
+     *
+     * @return Whether or not compact colored output is turned on.
+     */
+    public final boolean getCompact() {
+        return this.m_compact;
+    }
+
+    /**
+     * Set whether or not colored output is written in a compact form.
+     * <br>
+     * Instead of a span with an inline style around every character, each distinct
+     * color is declared once as a CSS class in the style element, and runs of adjacent
+     * characters on a line with the same color share a single span.
+     * <br>
+     * This is usually several times smaller, and much faster for browsers to lay out.
+     * Combine with {@link #setColorBits(int)} to make runs longer and the style element smaller.
+     * <br>
+     * When used with {@link #setRaw(boolean)}, the class declarations are written
+     * as a style element in front of the characters.
+     * <br>
+     * This has no effect if colors are not enabled.
+     *
+     * @param value True or False
+     */
+    public final void setCompact(boolean value) {
+        this.m_compact = value;
+    }
+
+    /**
+     * See: {@link #setCanvas(boolean)}
+     *
+     * @return Whether or not colored output is painted onto a canvas.
+     */
+    public final boolean getCanvas() {
+        return this.m_canvas;
+    }
+
+    /**
+     * Set whether or not colored output is painted onto a canvas element by a small inline
+     * script, instead of being written as HTML text.
+     * <br>
+     * The characters are written as a single string, and the colors as a base64 encoded
+     * palette plus one palette index per character.  This avoids creating any elements
+     * per character, which makes the document several times smaller than even
+     * {@link #setCompact(boolean)} output, and it displays almost instantly.
+     * <br>
+     * The text in the canvas can not be selected or copied.  {@link #setColorBits(int)}
+     * applies to the palette, fewer bits make it smaller.
+     * <br>
+     * When used with {@link #setRaw(boolean)}, only the canvas and script elements are written.
+     * The script measures characters using an element with the "ascii" class.
+     * <br>
+     * This has no effect if colors are not enabled, and takes precedence over {@link #setCompact(boolean)}.
+     *
+     * @param value True or False
+     */
+    public final void setCanvas(boolean value) {
+        this.m_canvas = value;
+    }
+
+    /**
+     * See: {@link #setColorBits(int)}
+     *
+     * @return Bits of precision per color component.
+     */
+    public final int getColorBits() {
+        return this.m_colorBits;
+    }
+
+    /**
+     * Set the bits of precision kept for each red, green and blue color component
+     * in compact and canvas output, See: {@link #setCompact(boolean)} and {@link #setCanvas(boolean)}.
+     * <br>
+     * Fewer bits limit the output to a smaller palette of at most 2^(3*bits) colors,
+     * See: {@link ColorUtils#quantize(int, int)}.  The default value of 8 keeps colors exact.
+     *
+     * @param bits Bits per component, from 1 to 8.
+     * @throws IllegalArgumentException If bits is not between 1 and 8.
+     */
+    public final void setColorBits(int bits) throws IllegalArgumentException {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("bits must be between 1 and 8.");
+        }
+        this.m_colorBits = bits;
+    }
+
     @Override
     public void lineBreak(OutputStreamWriter writer) throws IOException {
         writer.write("<br>");
@@ -308,8 +450,25 @@ public class HtmlPrinter extends AsciiPrinter {
     @Override
     public void print(int cols, int rows, OutputStreamWriter writer) throws IOException {
 
+        CompactOutput compact = null;
+
+        boolean canvas = this.m_useColors && this.m_canvas;
+
+        if (this.m_useColors && (this.m_compact || canvas)) {
+            compact = this.readCompact(cols, rows);
+        }
+
         if (this.m_raw) {
-            super.print(cols, rows, writer);
+            if (canvas) {
+                this.writeCanvas(compact, writer);
+            } else if (compact != null) {
+                writer.write("<style>");
+                this.writeStyleClasses(compact, writer);
+                writer.write("</style>");
+                this.writeCompact(compact, writer);
+            } else {
+                super.print(cols, rows, writer);
+            }
             return;
         }
 
@@ -332,27 +491,407 @@ public class HtmlPrinter extends AsciiPrinter {
                         "font-size:%s;" +
                         "font-family:monospace;" +
                         "color:%s" +
-                        "}</style>",
+                        "}",
                 this.m_fontWeight,
                 this.m_fontStyle,
                 this.m_fontSize, getForeground()));
 
+        if (canvas) {
+            writer.write("</style>");
+            writer.write("<body>");
+
+            this.writeCanvas(compact, writer);
+
+            writer.write("</body>");
+            writer.write("</html>");
+            return;
+        }
+
+        if (compact != null) {
+            this.writeStyleClasses(compact, writer);
+        }
+
         writer.write("</style>");
         writer.write("<body><pre class=\"ascii\">");
 
-        super.print(cols, rows, writer);
+        if (compact != null) {
+            this.writeCompact(compact, writer);
+        } else {
+            super.print(cols, rows, writer);
+        }
 
         writer.write("</pre></body>");
         writer.write("</html>");
     }
 
     public void writeColoredPixel(OutputStreamWriter writer, Pixel pixel) throws IOException {
-        writer.write(
-                String.format(
-                        "<span style=\"%s\">%s</span>",
-                        this.getPixelStyle(pixel),
-                        pixel.getChar())
-        );
+        StringBuilder html = this.m_pixelHtml;
+
+        html.setLength(0);
+        html.append("<span style=\"");
+
+        this.appendPixelStyle(html, pixel).append("\">").append(pixel.getChar()).append("</span>");
+
+        if (this.m_pixelBuffer.length < html.length()) {
+            this.m_pixelBuffer = new char[html.length()];
+        }
+
+        html.getChars(0, html.length(), this.m_pixelBuffer, 0);
+
+        writer.write(this.m_pixelBuffer, 0, html.length());
+    }
+
+    private CompactOutput readCompact(int cols, int rows) {
+        CompactOutput output = new CompactOutput(cols, rows);
+
+        boolean fill = this.m_colorFill;
+        int bits = this.m_colorBits;
+
+        int index = 0;
+
+        for (ImageRow row : this.getReader().read(cols, rows)) {
+            for (Pixel pix : row) {
+                int color = ColorUtils.quantize(pix.getColor().getRGB(), bits);
+
+                // foreground in the high bits, fill color in the low bits
+                long style;
+
+                if (fill) {
+                    int foreground = ColorUtils.quantize(this.calcColorFillForeground(pix), bits);
+                    style = ((long) foreground << 24) | color;
+                } else {
+                    style = (long) color << 24;
+                }
+
+                output.m_chars[index] = pix.getChar();
+                output.m_cells[index] = output.m_styles.indexOf(style);
+                index++;
+            }
+        }
+
+        return output;
+    }
+
+    private void writeStyleClasses(CompactOutput output, OutputStreamWriter writer) throws IOException {
+        StyleTable styles = output.m_styles;
+        StringBuilder css = new StringBuilder(styles.size() * (this.m_colorFill ? 48 : 24));
+
+        for (int i = 0; i < styles.size(); i++) {
+            long style = styles.get(i);
+
+            css.append('.').append(CompactOutput.className(i)).append("{color:");
+
+            ColorUtils.appendHex(css, (int) (style >>> 24));
+
+            if (this.m_colorFill) {
+                css.append(";background-color:");
+                ColorUtils.appendHex(css, (int) style);
+            }
+
+            css.append('}');
+        }
+
+        writer.write(css.toString());
+    }
+
+    private void writeCompact(CompactOutput output, OutputStreamWriter writer) throws IOException {
+        int cols = output.m_cols;
+        int rows = output.m_rows;
+
+        char[] chars = output.m_chars;
+        int[] cells = output.m_cells;
+
+        String[] names = new String[output.m_styles.size()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = CompactOutput.className(i);
+        }
+
+        StringBuilder line = new StringBuilder(cols * 8);
+        char[] buffer = new char[0];
+
+        for (int r = 0; r < rows; r++) {
+            int base = r * cols;
+            int c = 0;
+
+            line.setLength(0);
+
+            while (c < cols) {
+                int style = cells[base + c];
+
+                // the class names never need quoting
+                line.append("<span class=").append(names[style]).append('>');
+
+                do {
+                    char ch = chars[base + c];
+
+                    if (ch == '<') {
+                        line.append("&lt;");
+                    } else if (ch == '>') {
+                        line.append("&gt;");
+                    } else if (ch == '&') {
+                        line.append("&amp;");
+                    } else {
+                        line.append(ch);
+                    }
+
+                    c++;
+                } while (c < cols && cells[base + c] == style);
+
+                line.append("</span>");
+            }
+
+            if (buffer.length < line.length()) {
+                buffer = new char[line.length()];
+            }
+
+            line.getChars(0, line.length(), buffer, 0);
+
+            writer.write(buffer, 0, line.length());
+
+            this.lineBreak(writer);
+        }
+    }
+
+    // standard base64 with padding, the same as atob() decodes.  java.util.Base64 would
+    // require Java 8, which this would be the only reason to need.
+
+    private static String encodeBase64(byte[] data, int length) {
+        char[] out = new char[(length + 2) / 3 * 4];
+        int o = 0;
+
+        for (int i = 0; i < length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16;
+
+            if (i + 1 < length) {
+                bits |= (data[i + 1] & 0xFF) << 8;
+            }
+
+            if (i + 2 < length) {
+                bits |= data[i + 2] & 0xFF;
+            }
+
+            out[o++] = BASE64_DIGITS[bits >>> 18];
+            out[o++] = BASE64_DIGITS[(bits >>> 12) & 0x3F];
+            out[o++] = i + 1 < length ? BASE64_DIGITS[(bits >>> 6) & 0x3F] : '=';
+            out[o++] = i + 2 < length ? BASE64_DIGITS[bits & 0x3F] : '=';
+        }
+
+        return new String(out);
+    }
+
+    private void writeCanvas(CompactOutput output, OutputStreamWriter writer) throws IOException {
+        StyleTable styles = output.m_styles;
+        boolean fill = this.m_colorFill;
+
+        // palette entries are the foreground color, followed by the fill color if there is one
+
+        int entry_size = fill ? 6 : 3;
+        byte[] palette = new byte[styles.size() * entry_size];
+
+        for (int i = 0, p = 0; i < styles.size(); i++) {
+            long style = styles.get(i);
+
+            p = putRgb(palette, p, (int) (style >>> 24));
+
+            if (fill) {
+                p = putRgb(palette, p, (int) style);
+            }
+        }
+
+        int index_size = styles.size() <= 0x100 ? 1 : styles.size() <= 0x10000 ? 2 : 3;
+
+        writer.write("<canvas></canvas><script>(function(){");
+        writer.write("var cols=" + output.m_cols +
+                ",rows=" + output.m_rows +
+                ",fill=" + fill +
+                ",n=" + index_size +
+                ";");
+
+        // the large values are written a piece at a time, so that they are never
+        // held in memory as a whole when the writer streams somewhere.
+
+        char[] chars = output.m_chars;
+        StringBuilder text = new StringBuilder(CANVAS_CHUNK_SIZE * 2);
+
+        writer.write("var text=\"");
+
+        for (int i = 0; i < chars.length; i += CANVAS_CHUNK_SIZE) {
+            text.setLength(0);
+            appendJsString(text, chars, i, Math.min(chars.length, i + CANVAS_CHUNK_SIZE));
+            writer.write(text.toString());
+        }
+
+        writer.write("\";");
+
+        writer.write("var palette=atob(\"");
+        writer.write(encodeBase64(palette, palette.length));
+        writer.write("\");");
+
+        // big endian palette indices, as few bytes wide as the palette allows.
+        // every chunk but the last is a multiple of 3 bytes long, so the base64
+        // of the chunks can be concatenated without padding in between.
+
+        int[] cells = output.m_cells;
+        int chunk_cells = CANVAS_CHUNK_SIZE - CANVAS_CHUNK_SIZE % 3;
+        byte[] indices = new byte[chunk_cells * index_size];
+
+        writer.write("var cells=atob(\"");
+
+        for (int i = 0; i < cells.length; i += chunk_cells) {
+            int end = Math.min(cells.length, i + chunk_cells);
+            int p = 0;
+
+            for (int c = i; c < end; c++) {
+                int index = cells[c];
+
+                for (int shift = (index_size - 1) * 8; shift >= 0; shift -= 8) {
+                    indices[p++] = (byte) (index >> shift);
+                }
+            }
+
+            writer.write(encodeBase64(indices, p));
+        }
+
+        writer.write("\");");
+
+        writer.write(CANVAS_SCRIPT);
+        writer.write("})();</script>");
+    }
+
+    private static int putRgb(byte[] output, int offset, int rgb) {
+        output[offset] = (byte) (rgb >> 16);
+        output[offset + 1] = (byte) (rgb >> 8);
+        output[offset + 2] = (byte) rgb;
+        return offset + 3;
+    }
+
+    private static void appendJsString(StringBuilder output, char[] chars, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+
+            // '<' is escaped so that the text can never close the script element
+            if (c < 0x20 || c > 0x7E || c == '"' || c == '\\' || c == '<') {
+                output.append("\\u");
+                output.append(Character.forDigit((c >> 12) & 0xF, 16));
+                output.append(Character.forDigit((c >> 8) & 0xF, 16));
+                output.append(Character.forDigit((c >> 4) & 0xF, 16));
+                output.append(Character.forDigit(c & 0xF, 16));
+            } else {
+                output.append(c);
+            }
+        }
+    }
+
+    /**
+     * The characters and style class of each cell, gathered before anything is written
+     * so that the style classes can be declared in the document head.
+     */
+    private static final class CompactOutput {
+        final int m_cols;
+        final int m_rows;
+        final char[] m_chars;
+        final int[] m_cells;
+        final StyleTable m_styles = new StyleTable();
+
+        CompactOutput(int cols, int rows) {
+            m_cols = cols;
+            m_rows = rows;
+            m_chars = new char[cols * rows];
+            m_cells = new int[cols * rows];
+        }
+
+        static String className(int index) {
+            return "c" + Integer.toString(index, 36);
+        }
+    }
+
+    /**
+     * Assigns consecutive indices to distinct packed styles, in order of first appearance.
+     * <br>
+     * This is an open addressing hash table over primitive keys, so
+     * that looking up a style for every cell does not box anything.
+     */
+    private static final class StyleTable {
+        private long[] m_keys = new long[256];
+        private int[] m_slots = new int[256];
+        private long[] m_styles = new long[64];
+        private int m_size = 0;
+
+        int size() {
+            return m_size;
+        }
+
+        long get(int index) {
+            return m_styles[index];
+        }
+
+        int indexOf(long style) {
+            int mask = m_keys.length - 1;
+            int slot = hash(style) & mask;
+
+            while (true) {
+                // slots hold index + 1, 0 marks an empty slot
+                int entry = m_slots[slot];
+
+                if (entry == 0) {
+                    return this.add(style, slot);
+                }
+
+                if (m_keys[slot] == style) {
+                    return entry - 1;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private int add(long style, int slot) {
+            int index = m_size++;
+
+            if (index == m_styles.length) {
+                long[] styles = new long[m_styles.length * 2];
+                System.arraycopy(m_styles, 0, styles, 0, index);
+                m_styles = styles;
+            }
+
+            m_styles[index] = style;
+            m_keys[slot] = style;
+            m_slots[slot] = index + 1;
+
+            // keep the table at most half full
+            if (m_size * 2 > m_keys.length) {
+                this.grow();
+            }
+
+            return index;
+        }
+
+        private void grow() {
+            long[] keys = new long[m_keys.length * 2];
+            int[] slots = new int[m_slots.length * 2];
+            int mask = keys.length - 1;
+
+            for (int i = 0; i < m_size; i++) {
+                long style = m_styles[i];
+                int slot = hash(style) & mask;
+
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = style;
+                slots[slot] = i + 1;
+            }
+
+            m_keys = keys;
+            m_slots = slots;
+        }
+
+        private static int hash(long style) {
+            int h = (int) (style ^ (style >>> 32)) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
     }
 
     @Override
@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 
 /**
@@ -62,8 +63,13 @@ public class ImageAsciiReader {
     private int m_resampleFilter = Image.SCALE_SMOOTH;
 
     private BufferedImage m_img;
+    private BufferedImage m_scale_img;
     private BufferedImage m_work_img;
+    private BufferedImage m_scale_tmp;
+    private boolean m_work_img_stale = false;
 
+    private boolean m_cachePixels = false;
+    private Pixel[] m_pixels;
 
     /**
      * Construct an image reader from a file on disk.
@@ -122,6 +128,48 @@ public class ImageAsciiReader {
         m_img = image;
     }
 
+    /**
+     * Construct an image reader directly from raw pixel data, without decoding an image.
+     * <br>
+     * Heap buffers are used in place without copying any pixels, See: {@link RawPixelFormat#wrap(ByteBuffer, int, int)}.
+     *
+     * @param pixels The pixel data, starting at the buffer's position.
+     * @param width  Image width in pixels.
+     * @param height Image height in pixels.
+     * @param format The layout of the pixel data.
+     * @throws IllegalArgumentException If the buffer is too small for the given dimensions and format.
+     */
+    public ImageAsciiReader(ByteBuffer pixels, int width, int height, RawPixelFormat format) throws
+            IllegalArgumentException {
+
+        m_img = format.wrap(pixels, width, height);
+    }
+
+    /**
+     * Construct an image reader over the same image and with the same settings as another reader.
+     * <br>
+     * The decoded image and any reduced copy prepared with {@link #prescale(int, int)} are shared
+     * instead of copied, while the working copy is not.  This allows reading the same image at
+     * more than one size at once, with one reader per size.
+     *
+     * @param other The reader to copy.
+     */
+    ImageAsciiReader(ImageAsciiReader other) {
+        m_img = other.m_img;
+        m_scale_img = other.m_scale_img;
+
+        m_blueWeight = other.m_blueWeight;
+        m_flipX = other.m_flipX;
+        m_flipY = other.m_flipY;
+        m_grayscaleColor = other.m_grayscaleColor;
+        m_greenWeight = other.m_greenWeight;
+        m_invertPalette = other.m_invertPalette;
+        m_palette = other.m_palette;
+        m_redWeight = other.m_redWeight;
+        m_resampleFilter = other.m_resampleFilter;
+        m_cachePixels = other.m_cachePixels;
+    }
+
     /**
      * Construct an image reader from an input stream.
      *
@@ -166,8 +214,45 @@ public class ImageAsciiReader {
             IOException,
             InvalidImageDataException {
 
+        this.m_img = ImageIO.read(openStream(url, userAgent));
+
+        if (this.m_img == null) {
+            throw new InvalidImageDataException(url.toString());
+        }
+    }
+
+    /**
+     * Open a stream for reading an image from a URL.
+     * <br>
+     * If userAgent is null, the user agent string will default to impersonating curl.
+     *
+     * @param url       Image url.
+     * @param userAgent Browser / User Agent string, may be null.
+     * @return The response stream.
+     * @throws IOException If there is an IO error opening the URL.
+     */
+    static InputStream openStream(URL url, String userAgent) throws IOException {
+        return openStream(url, userAgent, 0);
+    }
+
+    /**
+     * Open a stream for reading an image from a URL, giving up on a connection
+     * or read which takes longer than a timeout.
+     * <br>
+     * If userAgent is null, the user agent string will default to impersonating curl.
+     *
+     * @param url           Image url.
+     * @param userAgent     Browser / User Agent string, may be null.
+     * @param timeoutMillis Connect and read timeout in milliseconds, 0 waits forever.
+     * @return The response stream.
+     * @throws IOException If there is an IO error opening the URL, or it times out.
+     */
+    static InputStream openStream(URL url, String userAgent, int timeoutMillis) throws IOException {
         URLConnection connection = url.openConnection();
 
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+
         if (userAgent == null) {
             connection.setRequestProperty("User-Agent", USER_AGENT);
         } else {
@@ -176,11 +261,7 @@ public class ImageAsciiReader {
 
         connection.setRequestProperty("Accept", "*/*");
 
-        this.m_img = ImageIO.read(connection.getInputStream());
-
-        if (this.m_img == null) {
-            throw new InvalidImageDataException(url.toString());
-        }
+        return connection.getInputStream();
     }
 
     /**
@@ -326,6 +407,7 @@ public class ImageAsciiReader {
      */
     public final void setBlueWeight(float weight) {
         this.m_blueWeight = weight;
+        this.m_pixels = null;
     }
 
     /**
@@ -344,6 +426,7 @@ public class ImageAsciiReader {
      */
     public final void setFlipX(boolean value) {
         this.m_flipX = value;
+        this.m_pixels = null;
     }
 
     /**
@@ -362,6 +445,7 @@ public class ImageAsciiReader {
      */
     public final void setFlipY(boolean value) {
         this.m_flipY = value;
+        this.m_pixels = null;
     }
 
     /**
@@ -386,6 +470,7 @@ public class ImageAsciiReader {
      */
     public final void setGreenWeight(float weight) {
         this.m_greenWeight = weight;
+        this.m_pixels = null;
     }
 
     /**
@@ -398,6 +483,32 @@ public class ImageAsciiReader {
         return m_img;
     }
 
+    /**
+     * Replace the {@link BufferedImage} that is set to be read/processed.
+     * <br>
+     * The working copy used by {@link #read(int, int)} is kept, and drawn over
+     * if the next read is at the same size with an image of the same type.
+     * This allows a single reader to process a sequence of frames without
+     * allocating a new working copy for each one.
+     * <br>
+     * Any reduced copy prepared with {@link #prescale(int, int)} is discarded.
+     *
+     * @param image The {@link BufferedImage}.
+     * @throws IllegalArgumentException If the image parameter is null.
+     */
+    public final void setImage(BufferedImage image) throws
+            IllegalArgumentException {
+
+        if (image == null) {
+            throw new IllegalArgumentException("image");
+        }
+
+        this.m_img = image;
+        this.m_scale_img = null;
+        this.m_work_img_stale = true;
+        this.m_pixels = null;
+    }
+
 
     /**
      * getImage().getHeight(), See: {@link #getImage()}
@@ -435,6 +546,7 @@ public class ImageAsciiReader {
      */
     public final void setInvertPalette(boolean invert) {
         this.m_invertPalette = invert;
+        this.m_pixels = null;
     }
 
     /**
@@ -458,9 +570,71 @@ public class ImageAsciiReader {
      */
     public final void setPalette(String value) {
         this.m_palette = value;
+        this.m_pixels = null;
+    }
+
+    /**
+     * Prepare a reduced copy of the current image which fits inside the given dimensions
+     * while preserving its aspect ratio.
+     * <br>
+     * Subsequent calls to {@link #read(int, int)} scale from this copy instead of the
+     * full size image whenever the requested size fits inside of it.  This makes repeated
+     * reads at small, changing sizes (such as live terminal resizing) much cheaper.
+     * <br>
+     * If the image already fits inside the given dimensions, any existing reduced copy is discarded.
+     *
+     * @param maxWidth  Maximum width of the reduced copy.
+     * @param maxHeight Maximum height of the reduced copy.
+     */
+    public final void prescale(int maxWidth, int maxHeight) {
+        Point size = this.calcAspectCorrectSize(maxWidth, maxHeight);
+
+        if (size.x >= this.getImageWidth() && size.y >= this.getImageHeight()) {
+            this.m_scale_img = null;
+            return;
+        }
+
+        this.m_scale_img = this.scaleImage(this.getImage(), size.x, size.y, null);
+    }
+
+    /**
+     * See: {@link #setCachePixels(boolean)}
+     *
+     * @return Whether or not the pixels of the last read are kept.
+     */
+    public final boolean getCachePixels() {
+        return this.m_cachePixels;
+    }
+
+    /**
+     * Set whether or not to convert every pixel of the working copy up front on each
+     * {@link #read(int, int)} that resizes it, and keep the resulting {@link Pixel} objects
+     * until the next resize or change of settings.
+     * <br>
+     * Further reads at the same size return the kept pixels without converting them again.
+     * Once a read has returned, the kept pixels may be read from several threads at once,
+     * as long as every read is at the same size and no settings are changed.
+     * <br>
+     * This costs memory for one {@link Pixel} per column and row, the default value is False.
+     *
+     * @param value True or False
+     */
+    public final void setCachePixels(boolean value) {
+        this.m_cachePixels = value;
+        this.m_pixels = null;
     }
 
     Pixel getPixel(int x, int y) {
+        Pixel[] pixels = this.m_pixels;
+
+        if (pixels != null) {
+            return pixels[y * this.m_work_img.getWidth() + x];
+        }
+
+        return this.convertPixel(x, y);
+    }
+
+    private Pixel convertPixel(int x, int y) {
 
         if (this.m_flipX) {
             x = (this.m_work_img.getWidth() - 1) - x;
@@ -514,6 +688,7 @@ public class ImageAsciiReader {
      */
     public final void setRedWeight(float weight) {
         this.m_redWeight = weight;
+        this.m_pixels = null;
     }
 
     /**
@@ -560,6 +735,7 @@ public class ImageAsciiReader {
      */
     public final void setUseGrayscaleColor(boolean value) {
         this.m_grayscaleColor = value;
+        this.m_pixels = null;
     }
 
     final int getWorkImageHeight() {
@@ -591,17 +767,31 @@ public class ImageAsciiReader {
      */
     public Iterable<ImageRow> read(int cols, int rows) {
 
-        if (this.m_work_img == null ||
+        if (this.m_work_img == null || this.m_work_img_stale ||
                 (this.m_work_img.getWidth() != cols || this.m_work_img.getHeight() != rows)) {
 
-            Image tmp_img = this.getImage().
-                    getScaledInstance(cols, rows, this.getResampleFilter());
+            BufferedImage source = this.getImage();
 
-            this.m_work_img = new BufferedImage(cols, rows, this.getImage().getType());
+            if (this.m_scale_img != null &&
+                    this.m_scale_img.getWidth() >= cols && this.m_scale_img.getHeight() >= rows) {
+                source = this.m_scale_img;
+            }
 
-            Graphics2D graphics = this.m_work_img.createGraphics();
-            graphics.drawImage(tmp_img, 0, 0, null);
-            graphics.dispose();
+            this.m_work_img = this.scaleImage(source, cols, rows, this.m_work_img);
+            this.m_work_img_stale = false;
+            this.m_pixels = null;
+        }
+
+        if (this.m_cachePixels && this.m_pixels == null) {
+            Pixel[] pixels = new Pixel[cols * rows];
+
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    pixels[y * cols + x] = this.convertPixel(x, y);
+                }
+            }
+
+            this.m_pixels = pixels;
         }
 
         final int rowCount = rows;
@@ -629,6 +819,46 @@ public class ImageAsciiReader {
 
     }
 
+    private BufferedImage scaleImage(BufferedImage source, int width, int height, BufferedImage target) {
+        // scaled without getScaledInstance, which would start the AWT toolkit
+        m_scale_tmp = ImageScaler.scale(source, width, height, this.getResampleFilter(), m_scale_tmp);
+
+        int type = this.getImage().getType();
+
+        if (type == BufferedImage.TYPE_CUSTOM ||
+                type == BufferedImage.TYPE_BYTE_INDEXED ||
+                type == BufferedImage.TYPE_BYTE_BINARY) {
+
+            // images with a custom layout, such as wrapped raw pixels, can not be allocated
+            // by type, and indexed types would be allocated with a default palette that the
+            // scaled colors get quantized to.  Use the layout getRGB() is fastest with.
+
+            type = this.getImage().getColorModel().hasAlpha() ?
+                    BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+
+        boolean reuse = target != null &&
+                target.getWidth() == width &&
+                target.getHeight() == height &&
+                target.getType() == type;
+
+        BufferedImage img = reuse ? target : new BufferedImage(width, height, type);
+
+        Graphics2D graphics = img.createGraphics();
+
+        if (reuse) {
+            // clear to the same state as a newly allocated image
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setComposite(AlphaComposite.SrcOver);
+        }
+
+        graphics.drawImage(m_scale_tmp, 0, 0, null);
+        graphics.dispose();
+
+        return img;
+    }
+
     /**
      * See: {@link #read(int, int)}
      *
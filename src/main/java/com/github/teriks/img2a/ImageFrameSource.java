@@ -0,0 +1,73 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of image frames, such as the frames of an animation.
+ * <br>
+ * Frames can be played back in a terminal with {@link ConsoleAnimationPlayer}.
+ */
+public interface ImageFrameSource extends Closeable {
+
+    /**
+     * Read the next frame.
+     * <br>
+     * Sources may reuse {@link BufferedImage} objects between frames.  The image returned
+     * by a call stays valid until the second call to nextFrame() after it, so that the
+     * next frame can be read while the previous one is still being processed.
+     *
+     * @return The next frame, or null if there are no more frames.
+     * @throws IOException               If there is an IO error reading the frame.
+     * @throws InvalidImageDataException If the frame does not contain recognizable image data.
+     */
+    BufferedImage nextFrame() throws IOException, InvalidImageDataException;
+
+    /**
+     * Skip the next frame without producing an image for it.
+     * <br>
+     * This is used to drop frames when playback falls behind, and
+     * can be much cheaper than {@link #nextFrame()}.
+     *
+     * @return False if there are no more frames.
+     * @throws IOException               If there is an IO error reading the frame.
+     * @throws InvalidImageDataException If the frame does not contain recognizable image data.
+     */
+    boolean skipFrame() throws IOException, InvalidImageDataException;
+
+    /**
+     * Get the display time of the frame last returned by {@link #nextFrame()}
+     * or skipped with {@link #skipFrame()}.
+     *
+     * @return Delay in milliseconds, or -1 if the source has no timing information.
+     */
+    int getFrameDelay();
+}
@@ -0,0 +1,633 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts many images at once in three stages, decoding, converting and writing,
+ * which each run on their own threads.
+ * <br>
+ * The stages are connected by bounded queues.  When a stage falls behind, the queue in front of it
+ * fills up and the stage before it waits for room, back to {@link #submit(Object)}.  Reading and writing
+ * files, which mostly waits on IO, overlaps with conversion, which mostly waits on the processor,
+ * while the amount of decoded images and converted output held in memory stays bounded.
+ * <br>
+ * The depth of each queue and the amount of busy threads in each stage can be read while jobs
+ * are running, a stage whose queue stays full is the one limiting throughput.
+ * <br>
+ * A job which fails in any stage is reported to the {@link Listener} and dropped, without stopping the others.
+ * Jobs do not necessarily complete in the order they were submitted.
+ *
+ * @param <T> Job type, which describes one image and where its output goes.
+ * @param <O> Converted output type, handed from the convert stage to the write stage.
+ */
+public class ImagePipeline<T, O> {
+
+    private static final Object END = new Object();
+
+    /**
+     * The stages of an {@link ImagePipeline}, in the order jobs pass through them.
+     */
+    public enum Stage {
+
+        /**
+         * Reads and decodes images, See: {@link Decoder}
+         */
+        DECODE,
+
+        /**
+         * Converts decoded images into output, See: {@link Converter}
+         */
+        CONVERT,
+
+        /**
+         * Writes converted output, See: {@link OutputWriter}
+         */
+        WRITE
+    }
+
+    /**
+     * Decodes the image of a job.
+     *
+     * @param <T> Job type.
+     */
+    public interface Decoder<T> {
+
+        /**
+         * Decode the image of a job.
+         *
+         * @param job The job.
+         * @return The decoded image, never null.
+         * @throws IOException               If there is an IO error reading the image.
+         * @throws InvalidImageDataException If the image data is not recognizable.
+         */
+        BufferedImage decode(T job) throws IOException, InvalidImageDataException;
+    }
+
+    /**
+     * Converts the decoded image of a job.
+     *
+     * @param <T> Job type.
+     * @param <O> Converted output type.
+     */
+    public interface Converter<T, O> {
+
+        /**
+         * Convert the decoded image of a job.
+         * <br>
+         * The output should be complete in memory, so that writing it is left to the write stage.
+         *
+         * @param job   The job.
+         * @param image The image returned by {@link Decoder#decode(Object)} for the job.
+         * @return The converted output.
+         * @throws IOException               If the output can not be produced.
+         * @throws InvalidImageDataException If the image can not be converted.
+         */
+        O convert(T job, BufferedImage image) throws IOException, InvalidImageDataException;
+    }
+
+    /**
+     * Writes the converted output of a job.
+     *
+     * @param <T> Job type.
+     * @param <O> Converted output type.
+     */
+    public interface OutputWriter<T, O> {
+
+        /**
+         * Write the converted output of a job.
+         *
+         * @param job    The job.
+         * @param output The output returned by {@link Converter#convert(Object, BufferedImage)} for the job.
+         * @throws IOException If there is an IO error writing the output.
+         */
+        void write(T job, O output) throws IOException;
+    }
+
+    /**
+     * Receives the result of every job.
+     * <br>
+     * Methods are called on the thread of the stage the job finished in, and must not throw.
+     *
+     * @param <T> Job type.
+     */
+    public interface Listener<T> {
+
+        /**
+         * Called once the output of a job is written.
+         *
+         * @param job The job.
+         */
+        void completed(T job);
+
+        /**
+         * Called when a job fails, it does not go through any further stages.
+         *
+         * @param job   The job.
+         * @param stage The stage the job failed in.
+         * @param error The exception thrown by the stage, or an {@link OutOfMemoryError}.
+         */
+        void failed(T job, Stage stage, Throwable error);
+    }
+
+    private final Decoder<T> m_decoder;
+    private final Converter<T, O> m_converter;
+    private final OutputWriter<T, O> m_writer;
+    private final Listener<T> m_listener;
+
+    private final StageState[] m_stages = new StageState[Stage.values().length];
+
+    private final AtomicLong m_completed = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+
+    private boolean m_started = false;
+    private boolean m_shutdown = false;
+    private volatile boolean m_aborted = false;
+    private volatile Thread[] m_workers = new Thread[0];
+    private CountDownLatch m_terminated;
+
+    /**
+     * Construct an ImagePipeline from the work done by each of its stages.
+     * <br>
+     * Each stage defaults to one thread per available processor, except for the write stage,
+     * which defaults to one thread.  The queue in front of each stage defaults to holding
+     * two jobs per thread of the convert stage.
+     *
+     * @param decoder   Decode stage.
+     * @param converter Convert stage.
+     * @param writer    Write stage.
+     * @param listener  Receives the result of every job.
+     */
+    public ImagePipeline(Decoder<T> decoder,
+                         Converter<T, O> converter,
+                         OutputWriter<T, O> writer,
+                         Listener<T> listener) {
+        m_decoder = decoder;
+        m_converter = converter;
+        m_writer = writer;
+        m_listener = listener;
+
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        for (Stage stage : Stage.values()) {
+            m_stages[stage.ordinal()] = new StageState(
+                    stage == Stage.WRITE ? 1 : processors,
+                    processors * 2);
+        }
+    }
+
+    /**
+     * See: {@link #setThreads(Stage, int)}
+     *
+     * @param stage The stage.
+     * @return Thread count.
+     */
+    public final int getThreads(Stage stage) {
+        return m_stages[stage.ordinal()].m_threads;
+    }
+
+    /**
+     * Set the amount of threads a stage runs on.
+     *
+     * @param stage The stage.
+     * @param count Thread count.
+     * @throws IllegalArgumentException If count is less than 1.
+     * @throws IllegalStateException    If the pipeline was already started.
+     */
+    public final synchronized void setThreads(Stage stage, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("thread count must be at least 1.");
+        }
+
+        this.checkNotStarted();
+
+        m_stages[stage.ordinal()].m_threads = count;
+    }
+
+    /**
+     * See: {@link #setQueueCapacity(Stage, int)}
+     *
+     * @param stage The stage.
+     * @return Queue capacity in jobs.
+     */
+    public final int getQueueCapacity(Stage stage) {
+        return m_stages[stage.ordinal()].m_capacity;
+    }
+
+    /**
+     * Set how many jobs the queue in front of a stage holds before the stage
+     * before it, or {@link #submit(Object)}, has to wait.
+     *
+     * @param stage    The stage.
+     * @param capacity Queue capacity in jobs.
+     * @throws IllegalArgumentException If capacity is less than 1.
+     * @throws IllegalStateException    If the pipeline was already started.
+     */
+    public final synchronized void setQueueCapacity(Stage stage, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be at least 1.");
+        }
+
+        this.checkNotStarted();
+
+        m_stages[stage.ordinal()].m_capacity = capacity;
+    }
+
+    /**
+     * Get the amount of jobs waiting in the queue in front of a stage.
+     *
+     * @param stage The stage.
+     * @return Queued job count.
+     */
+    public final int getQueueDepth(Stage stage) {
+        StageState state = m_stages[stage.ordinal()];
+
+        return state.m_queue == null ? 0 : state.m_queue.size();
+    }
+
+    /**
+     * Get the amount of threads of a stage which are working on a job,
+     * instead of waiting for one or for room in the next queue.
+     *
+     * @param stage The stage.
+     * @return Busy thread count.
+     */
+    public final int getBusyThreads(Stage stage) {
+        return m_stages[stage.ordinal()].m_busy.get();
+    }
+
+    /**
+     * Get the amount of jobs a stage has finished without failing.
+     *
+     * @param stage The stage.
+     * @return Processed job count.
+     */
+    public final long getProcessed(Stage stage) {
+        return m_stages[stage.ordinal()].m_processed.get();
+    }
+
+    /**
+     * Get the amount of jobs whose output was written.
+     *
+     * @return Completed job count.
+     */
+    public final long getCompleted() {
+        return m_completed.get();
+    }
+
+    /**
+     * Get the amount of jobs which failed in any stage.
+     *
+     * @return Failed job count.
+     */
+    public final long getFailed() {
+        return m_failed.get();
+    }
+
+    /**
+     * Start the threads of every stage.
+     * <br>
+     * The threads are daemon threads, which end once {@link #shutdown()} or
+     * {@link #shutdownNow()} is called and they are done.
+     *
+     * @throws IllegalStateException If the pipeline was already started.
+     */
+    public synchronized void start() {
+        this.checkNotStarted();
+
+        m_started = true;
+
+        int total = 0;
+
+        for (StageState state : m_stages) {
+            state.m_queue = new ArrayBlockingQueue<Object>(state.m_capacity);
+            state.m_running.set(state.m_threads);
+            total += state.m_threads;
+        }
+
+        m_terminated = new CountDownLatch(total);
+
+        Thread[] workers = new Thread[total];
+        int index = 0;
+
+        for (Stage stage : Stage.values()) {
+            final Stage worker_stage = stage;
+
+            for (int i = 1; i <= m_stages[stage.ordinal()].m_threads; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        work(worker_stage);
+                    }
+                }, "img2a-pipeline-" + stage.name().toLowerCase(Locale.ROOT) + "-" + i);
+
+                thread.setDaemon(true);
+                workers[index++] = thread;
+            }
+        }
+
+        m_workers = workers;
+
+        for (Thread thread : workers) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Add a job to the pipeline.
+     * <br>
+     * This blocks while the queue of the decode stage is full.
+     *
+     * @param job The job.
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the pipeline is not started, or is shut down.
+     */
+    public synchronized void submit(T job) throws InterruptedException {
+        if (!m_started || m_shutdown || m_aborted) {
+            throw new IllegalStateException("pipeline is not running.");
+        }
+
+        m_stages[Stage.DECODE.ordinal()].m_queue.put(new Item(job));
+    }
+
+    /**
+     * Add a job to the pipeline, waiting at most a given time for room in the queue of the decode stage.
+     *
+     * @param job     The job.
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of the timeout.
+     * @return True if the job was added, False if the timeout elapsed first.
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the pipeline is not started, or is shut down.
+     */
+    public synchronized boolean offer(T job, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!m_started || m_shutdown || m_aborted) {
+            throw new IllegalStateException("pipeline is not running.");
+        }
+
+        return m_stages[Stage.DECODE.ordinal()].m_queue.offer(new Item(job), timeout, unit);
+    }
+
+    /**
+     * Stop accepting jobs, the jobs already submitted still go through every stage.
+     * <br>
+     * This blocks while the queue of the decode stage is full, the same as {@link #submit(Object)}.
+     * Use {@link #awaitTermination(long, TimeUnit)} to wait for the jobs to finish.
+     *
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the pipeline is not started.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!m_started) {
+            throw new IllegalStateException("pipeline is not started.");
+        }
+
+        if (m_shutdown || m_aborted) {
+            return;
+        }
+
+        m_shutdown = true;
+
+        this.end(Stage.DECODE);
+    }
+
+    /**
+     * Stop every stage as soon as possible, jobs which have not finished are dropped without being reported.
+     * <br>
+     * A call to {@link #submit(Object)} which is waiting for room returns without its job being run,
+     * later calls throw {@link IllegalStateException}.
+     */
+    public void shutdownNow() {
+        m_aborted = true;
+
+        for (Thread thread : m_workers) {
+            thread.interrupt();
+        }
+
+        // makes room for a blocked submit(), which holds the lock until then
+        for (StageState state : m_stages) {
+            if (state.m_queue != null) {
+                state.m_queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for the threads of every stage to end, after {@link #shutdown()} or {@link #shutdownNow()}.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit    Unit of the timeout.
+     * @return True if every thread ended, False if the timeout elapsed first.
+     * @throws InterruptedException  If the calling thread is interrupted while waiting.
+     * @throws IllegalStateException If the pipeline is not started.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch terminated;
+
+        synchronized (this) {
+            if (!m_started) {
+                throw new IllegalStateException("pipeline is not started.");
+            }
+            terminated = m_terminated;
+        }
+
+        return terminated.await(timeout, unit);
+    }
+
+    private void checkNotStarted() {
+        if (m_started) {
+            throw new IllegalStateException("pipeline is already started.");
+        }
+    }
+
+    private void end(Stage stage) throws InterruptedException {
+        StageState state = m_stages[stage.ordinal()];
+
+        // every job is in front of the end markers, each thread of the stage takes one of them
+        for (int i = 0; i < state.m_threads; i++) {
+            state.m_queue.put(END);
+        }
+    }
+
+    private void work(Stage stage) {
+        StageState state = m_stages[stage.ordinal()];
+
+        Stage next = stage.ordinal() + 1 < m_stages.length ? Stage.values()[stage.ordinal() + 1] : null;
+
+        boolean ended = false;
+
+        try {
+            while (!m_aborted) {
+                Object item = state.m_queue.take();
+
+                if (item == END) {
+                    ended = true;
+
+                    // the last thread of a stage to run out of jobs ends the next stage
+                    if (state.m_running.decrementAndGet() == 0 && next != null) {
+                        this.end(next);
+                    }
+                    return;
+                }
+
+                Item job = (Item) item;
+
+                if (this.process(stage, job) && next != null) {
+                    m_stages[next.ordinal()].m_queue.put(job);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutdownNow()
+            ended = true;
+        } finally {
+            // a thread which dies anyway still counts as having run out of jobs, otherwise
+            // the next stage would never be ended and the pipeline would never terminate.
+            if (!ended && !m_aborted && state.m_running.decrementAndGet() == 0 && next != null) {
+                try {
+                    this.end(next);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            m_terminated.countDown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean process(Stage stage, Item item) {
+        StageState state = m_stages[stage.ordinal()];
+
+        T job = (T) item.m_job;
+
+        state.m_busy.incrementAndGet();
+
+        try {
+            switch (stage) {
+                case DECODE:
+                    BufferedImage image = m_decoder.decode(job);
+
+                    if (image == null) {
+                        throw new InvalidImageDataException();
+                    }
+
+                    item.m_value = image;
+                    break;
+                case CONVERT:
+                    item.m_value = m_converter.convert(job, (BufferedImage) item.m_value);
+                    break;
+                case WRITE:
+                    m_writer.write(job, (O) item.m_value);
+                    item.m_value = null;
+                    break;
+            }
+
+            state.m_processed.incrementAndGet();
+
+        } catch (Throwable e) {
+            // any error, such as a decoder plugin which fails to link, is the fault of the job
+            this.fail(stage, item, e);
+            return false;
+        } finally {
+            state.m_busy.decrementAndGet();
+        }
+
+        if (stage == Stage.WRITE) {
+            m_completed.incrementAndGet();
+
+            try {
+                m_listener.completed(job);
+            } catch (Throwable e) {
+                reportListenerError(e);
+            }
+        }
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fail(Stage stage, Item item, Throwable error) {
+        // let go of the image or output before anything else
+        item.m_value = null;
+
+        // interrupting a stage can make it fail, that is not the fault of the job
+        if (m_aborted) {
+            return;
+        }
+
+        m_failed.incrementAndGet();
+
+        try {
+            m_listener.failed((T) item.m_job, stage, error);
+        } catch (Throwable e) {
+            reportListenerError(e);
+        }
+    }
+
+    // a broken listener is reported the same way as an uncaught exception,
+    // without taking down the thread, which the other jobs still need.
+
+    private static void reportListenerError(Throwable error) {
+        Thread thread = Thread.currentThread();
+
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, error);
+    }
+
+    private static final class StageState {
+        int m_threads;
+        int m_capacity;
+
+        volatile BlockingQueue<Object> m_queue;
+
+        final AtomicInteger m_running = new AtomicInteger();
+        final AtomicInteger m_busy = new AtomicInteger();
+        final AtomicLong m_processed = new AtomicLong();
+
+        StageState(int threads, int capacity) {
+            m_threads = threads;
+            m_capacity = capacity;
+        }
+    }
+
+    private static final class Item {
+        final Object m_job;
+        Object m_value;
+
+        Item(Object job) {
+            m_job = job;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * Scales a {@link BufferedImage} the same way {@link Image#getScaledInstance(int, int, int)} does,
+ * without going through the {@link Toolkit}.
+ * <br>
+ * The scale filter picked by getScaledInstance is run directly against the pixels of the
+ * source image, so no {@link Toolkit} has to be started and no image loading threads are
+ * involved, the result is produced on the calling thread.
+ */
+final class ImageScaler implements ImageConsumer {
+
+    private final int[] m_pixels;
+    private final int m_width;
+
+    private ImageScaler(int[] pixels, int width) {
+        m_pixels = pixels;
+        m_width = width;
+    }
+
+    /**
+     * Scale an image to a given size.
+     * <br>
+     * When **target** is an image of type {@link BufferedImage#TYPE_INT_ARGB} with the given
+     * size it is written to instead of allocating a new image, every pixel of it is replaced.
+     *
+     * @param source The source image.
+     * @param width  The width to scale to.
+     * @param height The height to scale to.
+     * @param hints  One of the java.awt.Image.SCALE_* values.
+     * @param target An image to reuse, may be null.
+     * @return The scaled image, of type {@link BufferedImage#TYPE_INT_ARGB}.
+     */
+    static BufferedImage scale(BufferedImage source, int width, int height, int hints, BufferedImage target) {
+        ImageFilter filter;
+
+        // the same choice getScaledInstance makes
+        if ((hints & (Image.SCALE_SMOOTH | Image.SCALE_AREA_AVERAGING)) != 0) {
+            filter = new AreaAveragingScaleFilter(width, height);
+        } else {
+            filter = new ReplicateScaleFilter(width, height);
+        }
+
+        BufferedImage img = target != null &&
+                target.getWidth() == width &&
+                target.getHeight() == height &&
+                target.getType() == BufferedImage.TYPE_INT_ARGB ?
+                target : new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        // pixels the filter never delivers are transparent, as they would be in a toolkit image
+        Arrays.fill(pixels, 0);
+
+        // the source of a BufferedImage produces all of its pixels before startProduction returns
+        new FilteredImageSource(source.getSource(), filter).startProduction(
+                new ImageScaler(pixels, width));
+
+        return img;
+    }
+
+    @Override
+    public void setDimensions(int width, int height) {
+    }
+
+    @Override
+    public void setProperties(Hashtable<?, ?> props) {
+    }
+
+    @Override
+    public void setColorModel(ColorModel model) {
+    }
+
+    @Override
+    public void setHints(int hintflags) {
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, ColorModel model, byte[] pixels, int off, int scansize) {
+        for (int row = 0; row < h; row++) {
+            int src = off + row * scansize;
+            int dst = (y + row) * m_width + x;
+
+            for (int col = 0; col < w; col++) {
+                m_pixels[dst + col] = model.getRGB(pixels[src + col] & 0xFF);
+            }
+        }
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, ColorModel model, int[] pixels, int off, int scansize) {
+        boolean argb = model == ColorModel.getRGBdefault();
+
+        for (int row = 0; row < h; row++) {
+            int src = off + row * scansize;
+            int dst = (y + row) * m_width + x;
+
+            if (argb) {
+                System.arraycopy(pixels, src, m_pixels, dst, w);
+                continue;
+            }
+
+            for (int col = 0; col < w; col++) {
+                m_pixels[dst + col] = model.getRGB(pixels[src + col]);
+            }
+        }
+    }
+
+    @Override
+    public void imageComplete(int status) {
+    }
+}
@@ -0,0 +1,564 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Reads a stream of concatenated JPEG or PNG images as an {@link ImageFrameSource}.
+ * <br>
+ * This is the format written by ffmpeg's image2pipe and mjpeg muxers, for example:
+ * <br>
+ * ffmpeg -i video.mp4 -f image2pipe -c:v mjpeg - | img2a --stream -
+ * <br>
+ * Frames are split apart by parsing the JPEG segment and PNG chunk structure, so no frame is
+ * decoded until it is actually needed, and skipped frames are never decoded at all.
+ * Bytes that do not belong to a frame, such as multipart MJPEG boundaries, are skipped.
+ * <br>
+ * The frame data buffer, the decoder, and the two output images are reused
+ * between frames for as long as the frame size and format stay the same.
+ */
+public class ImageStreamFrameReader implements ImageFrameSource {
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private static final int FORMAT_JPEG = 0;
+    private static final int FORMAT_PNG = 1;
+
+    private static final String[] FORMAT_NAMES = {"jpeg", "png"};
+
+    private final InputStream m_input;
+
+    private final byte[] m_buffer = new byte[65536];
+    private int m_bufferPos = 0;
+    private int m_bufferLimit = 0;
+
+    private byte[] m_frame = new byte[65536];
+    private int m_frameLength = 0;
+    private int m_frameFormat;
+
+    private final ImageReader[] m_readers = new ImageReader[FORMAT_NAMES.length];
+    private final FrameInputStream m_frameInput = new FrameInputStream();
+
+    private final BufferedImage[] m_output = new BufferedImage[2];
+    private final ImageTypeSpecifier[] m_outputTypes = new ImageTypeSpecifier[2];
+    private int m_outputIndex = 0;
+
+    /**
+     * Construct a frame reader around an input stream.
+     * <br>
+     * The stream is read in large blocks, it does not need to be buffered.
+     * It is closed by {@link #close()}.
+     *
+     * @param input_stream The input stream.
+     */
+    public ImageStreamFrameReader(InputStream input_stream) {
+        m_input = input_stream;
+    }
+
+    /**
+     * Read the next frame.
+     * <br>
+     * If the stream ends in the middle of a frame, the incomplete frame is discarded
+     * and null is returned, the same as when the stream ends between frames.
+     *
+     * @return The next frame, or null if there are no more frames.
+     * @throws IOException               If there is an IO error reading the stream.
+     * @throws InvalidImageDataException If the frame could not be decoded.
+     */
+    @Override
+    public BufferedImage nextFrame() throws IOException, InvalidImageDataException {
+        if (!this.readFrameData()) {
+            return null;
+        }
+
+        return this.decodeFrame();
+    }
+
+    @Override
+    public boolean skipFrame() throws IOException, InvalidImageDataException {
+        return this.readFrameData();
+    }
+
+    /**
+     * Image streams carry no timing information.
+     *
+     * @return -1
+     */
+    @Override
+    public int getFrameDelay() {
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ImageReader reader : m_readers) {
+            if (reader != null) {
+                reader.dispose();
+            }
+        }
+
+        m_input.close();
+    }
+
+    private BufferedImage decodeFrame() throws IOException, InvalidImageDataException {
+        ImageReader reader = this.getReader(m_frameFormat);
+
+        m_frameInput.reset(m_frame, m_frameLength);
+
+        reader.setInput(m_frameInput, true, true);
+
+        try {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            ImageTypeSpecifier type = types.hasNext() ? types.next() : null;
+
+            BufferedImage output = m_output[m_outputIndex];
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            // decode straight into the output image of two frames ago, if it fits
+
+            if (output != null &&
+                    type != null &&
+                    type.equals(m_outputTypes[m_outputIndex]) &&
+                    output.getWidth() == width &&
+                    output.getHeight() == height) {
+
+                param.setDestination(output);
+            }
+
+            output = reader.read(0, param);
+
+            m_output[m_outputIndex] = output;
+            m_outputTypes[m_outputIndex] = type;
+
+            m_outputIndex ^= 1;
+
+            return output;
+
+        } catch (IIOException e) {
+            throw new InvalidImageDataException(e.getMessage());
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    private ImageReader getReader(int format) throws InvalidImageDataException {
+        ImageReader reader = m_readers[format];
+
+        if (reader == null) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(FORMAT_NAMES[format]);
+
+            if (!readers.hasNext()) {
+                throw new InvalidImageDataException(
+                        String.format("No %s decoder available.", FORMAT_NAMES[format]));
+            }
+
+            reader = readers.next();
+
+            m_readers[format] = reader;
+        }
+
+        return reader;
+    }
+
+    /**
+     * Read the bytes of the next frame into m_frame.
+     *
+     * @return False if the stream ended before a complete frame was read.
+     */
+    private boolean readFrameData() throws IOException, InvalidImageDataException {
+        m_frameLength = 0;
+
+        int format = this.findFrameStart();
+
+        if (format < 0) {
+            return false;
+        }
+
+        m_frameFormat = format;
+
+        boolean complete = format == FORMAT_JPEG ? this.readJpeg() : this.readPng();
+
+        if (!complete) {
+            m_frameLength = 0;
+        }
+
+        return complete;
+    }
+
+    /**
+     * Skip ahead to the start of the next JPEG or PNG image,
+     * and copy its signature into m_frame.
+     *
+     * @return The format of the image, or -1 at the end of the stream.
+     */
+    private int findFrameStart() throws IOException {
+        int b = this.readByte();
+
+        while (b >= 0) {
+            if (b == 0xFF) {
+                b = this.readByte();
+
+                if (b == 0xD8) {
+                    this.appendByte(0xFF);
+                    this.appendByte(0xD8);
+                    return FORMAT_JPEG;
+                }
+
+            } else if (b == (PNG_SIGNATURE[0] & 0xFF)) {
+                int matched = 1;
+
+                while (matched < PNG_SIGNATURE.length) {
+                    b = this.readByte();
+
+                    if (b != (PNG_SIGNATURE[matched] & 0xFF)) {
+                        break;
+                    }
+
+                    matched++;
+                }
+
+                if (matched == PNG_SIGNATURE.length) {
+                    this.appendBytes(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+                    return FORMAT_PNG;
+                }
+
+            } else {
+                b = this.readByte();
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean readJpeg() throws IOException {
+        while (true) {
+            int b = this.readByte();
+
+            if (b < 0) {
+                return false;
+            }
+
+            if (b != 0xFF) {
+                // not a marker where one was expected, copy it through and let the decoder judge
+                this.appendByte(b);
+                continue;
+            }
+
+            int marker = this.readByte();
+
+            // any amount of 0xFF fill bytes may come before a marker
+            while (marker == 0xFF) {
+                marker = this.readByte();
+            }
+
+            if (marker < 0) {
+                return false;
+            }
+
+            this.appendByte(0xFF);
+            this.appendByte(marker);
+
+            if (marker == 0xD9) {
+                // end of image
+                return true;
+            }
+
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without a segment
+                continue;
+            }
+
+            int high = this.readByte();
+            int low = this.readByte();
+
+            if (low < 0) {
+                return false;
+            }
+
+            this.appendByte(high);
+            this.appendByte(low);
+
+            if (!this.copyBytes(((high << 8) | low) - 2)) {
+                return false;
+            }
+
+            if (marker == 0xDA && !this.copyEntropyCodedData()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Copy the entropy coded data following a start of scan segment, up to
+     * the next marker, which is pushed back so readJpeg() sees it.
+     */
+    private boolean copyEntropyCodedData() throws IOException {
+        while (true) {
+            if (m_bufferPos == m_bufferLimit) {
+                m_bufferPos = 0;
+                m_bufferLimit = 0;
+
+                if (!this.fillBuffer()) {
+                    return false;
+                }
+            }
+
+            // copy everything up to the next 0xFF in bulk
+
+            int start = m_bufferPos;
+            int end = m_bufferLimit;
+            byte[] buffer = m_buffer;
+
+            int i = start;
+            while (i < end && buffer[i] != (byte) 0xFF) {
+                i++;
+            }
+
+            this.appendBytes(buffer, start, i - start);
+
+            m_bufferPos = i;
+
+            if (i == end) {
+                continue;
+            }
+
+            // 0xFF 0x00 is an escaped 0xFF, 0xFF 0xD0 to 0xFF 0xD7 are restart
+            // markers, both are part of the scan.  Anything else ends it.
+
+            if (i + 1 == end) {
+                // the byte after 0xFF is not buffered yet, move the 0xFF to the front and refill
+                m_buffer[0] = (byte) 0xFF;
+                m_bufferPos = 0;
+                m_bufferLimit = 1;
+
+                if (!this.fillBuffer()) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            int next = buffer[i + 1] & 0xFF;
+
+            if (next == 0x00 || (next >= 0xD0 && next <= 0xD7)) {
+                this.appendByte(0xFF);
+                this.appendByte(next);
+                m_bufferPos = i + 2;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    private boolean readPng() throws IOException {
+        while (true) {
+            int start = m_frameLength;
+
+            // length, type
+            if (!this.copyBytes(8)) {
+                return false;
+            }
+
+            byte[] frame = m_frame;
+
+            int length = ((frame[start] & 0xFF) << 24) |
+                    ((frame[start + 1] & 0xFF) << 16) |
+                    ((frame[start + 2] & 0xFF) << 8) |
+                    (frame[start + 3] & 0xFF);
+
+            boolean end = frame[start + 4] == 'I' &&
+                    frame[start + 5] == 'E' &&
+                    frame[start + 6] == 'N' &&
+                    frame[start + 7] == 'D';
+
+            // data, crc
+            if (length < 0 || !this.copyBytes(length + 4L)) {
+                return false;
+            }
+
+            if (end) {
+                return true;
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (m_bufferPos == m_bufferLimit) {
+            m_bufferPos = 0;
+            m_bufferLimit = 0;
+
+            if (!this.fillBuffer()) {
+                return -1;
+            }
+        }
+
+        return m_buffer[m_bufferPos++] & 0xFF;
+    }
+
+    /**
+     * Read more data into the free space at the end of m_buffer.
+     *
+     * @return False at the end of the stream.
+     */
+    private boolean fillBuffer() throws IOException {
+        int read = m_input.read(m_buffer, m_bufferLimit, m_buffer.length - m_bufferLimit);
+
+        if (read < 0) {
+            return false;
+        }
+
+        m_bufferLimit += read;
+
+        return true;
+    }
+
+    private boolean copyBytes(long count) throws IOException {
+        if (count < 0) {
+            return false;
+        }
+
+        while (count > 0) {
+            if (m_bufferPos == m_bufferLimit) {
+                m_bufferPos = 0;
+                m_bufferLimit = 0;
+
+                if (!this.fillBuffer()) {
+                    return false;
+                }
+            }
+
+            int length = (int) Math.min(count, m_bufferLimit - m_bufferPos);
+
+            this.appendBytes(m_buffer, m_bufferPos, length);
+
+            m_bufferPos += length;
+            count -= length;
+        }
+
+        return true;
+    }
+
+    private void appendByte(int b) {
+        if (m_frameLength == m_frame.length) {
+            this.growFrame(1);
+        }
+
+        m_frame[m_frameLength++] = (byte) b;
+    }
+
+    private void appendBytes(byte[] data, int offset, int length) {
+        if (m_frameLength + length > m_frame.length) {
+            this.growFrame(length);
+        }
+
+        System.arraycopy(data, offset, m_frame, m_frameLength, length);
+
+        m_frameLength += length;
+    }
+
+    private void growFrame(int extra) {
+        byte[] frame = new byte[Math.max(m_frame.length * 2, m_frameLength + extra)];
+
+        System.arraycopy(m_frame, 0, frame, 0, m_frameLength);
+
+        m_frame = frame;
+    }
+
+    /**
+     * An {@link javax.imageio.stream.ImageInputStream} over the frame buffer, which can be
+     * pointed at new frame data without creating a new stream or copying the data into a cache.
+     */
+    private static final class FrameInputStream extends ImageInputStreamImpl {
+        private byte[] m_data;
+        private int m_length;
+
+        void reset(byte[] data, int length) {
+            m_data = data;
+            m_length = length;
+
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            bitOffset = 0;
+
+            if (streamPos >= m_length) {
+                return -1;
+            }
+
+            return m_data[(int) streamPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            bitOffset = 0;
+
+            if (len == 0) {
+                return 0;
+            }
+
+            int available = (int) (m_length - streamPos);
+
+            if (available <= 0) {
+                return -1;
+            }
+
+            len = Math.min(len, available);
+
+            System.arraycopy(m_data, (int) streamPos, b, off, len);
+
+            streamPos += len;
+
+            return len;
+        }
+
+        @Override
+        public long length() {
+            return m_length;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Writes text, HTML, SVG and image output of one decoded image to files, all in the same run.
+ * <br>
+ * Outputs are grouped by the amount of columns and rows they are read at.  The image is scaled once
+ * for each distinct size, with one {@link ImageAsciiReader} per size over the same decoded image, and
+ * a size which is shared by more than one output is converted to characters and colors once, see
+ * {@link ImageAsciiReader#setCachePixels(boolean)}.  The outputs are then written at the same time,
+ * one thread each.
+ */
+final class MultiOutputWriter {
+
+    /**
+     * The kinds of output which can be written.
+     */
+    enum Kind {
+        TEXT("--out-text"),
+        HTML("--out-html"),
+        SVG("--out-svg"),
+        IMAGE("--out-image");
+
+        private final String m_option;
+
+        Kind(String option) {
+            m_option = option;
+        }
+
+        /**
+         * Get the command line option which writes this kind of output.
+         *
+         * @return Option name.
+         */
+        String getOption() {
+            return m_option;
+        }
+    }
+
+    private final Namespace m_arguments;
+    private final ImageAsciiReader m_reader;
+
+    // one reader for each distinct amount of columns and rows
+    private final Map<Point, ImageAsciiReader> m_readers = new LinkedHashMap<Point, ImageAsciiReader>();
+    private final Map<Point, Integer> m_readerUses = new HashMap<Point, Integer>();
+
+    private final List<Output> m_outputs = new ArrayList<Output>();
+
+    /**
+     * Construct a writer for the image of a reader.
+     *
+     * @param arguments Parsed command line arguments, which apply to every output.
+     * @param reader    A reader configured with {@link App#configureImageAsciiReader(Namespace, ImageAsciiReader)}.
+     */
+    MultiOutputWriter(Namespace arguments, ImageAsciiReader reader) {
+        m_arguments = arguments;
+        m_reader = reader;
+    }
+
+    /**
+     * Add an output file.
+     * <br>
+     * The output size follows the size options the same way as when the kind of output is
+     * written on its own, except that text is fitted into 80x80 characters instead of the terminal
+     * when no size is given, since it is written to a file.
+     *
+     * @param kind The kind of output.
+     * @param path The file to write.
+     */
+    void add(Kind kind, String path) {
+        Output output = new Output(kind, path);
+
+        if (kind == Kind.IMAGE) {
+            Point size = App.calcOutputSize(m_arguments, m_reader, 1.0f);
+
+            if (size == null) {
+                size = new Point(m_reader.getImageWidth(), m_reader.getImageHeight());
+            }
+
+            AsciiImageRenderer render = App.createImageRenderer(m_arguments, m_reader);
+
+            ImageAsciiReader reader = this.getReader(render.getGridSize(size));
+
+            output.m_size = size;
+            output.m_render = reader == m_reader ? render : App.createImageRenderer(m_arguments, reader);
+            output.m_format = App.getImageOutFormat(m_arguments, path);
+
+        } else {
+            AsciiPrinter printer = this.createPrinter(kind, m_reader);
+
+            Point size = App.calcFileOutputSize(m_arguments, printer);
+
+            ImageAsciiReader reader = this.getReader(size);
+
+            output.m_size = size;
+            output.m_printer = reader == m_reader ? printer : this.createPrinter(kind, reader);
+        }
+
+        m_outputs.add(output);
+    }
+
+    private AsciiPrinter createPrinter(Kind kind, ImageAsciiReader reader) {
+        return App.createPrinter(m_arguments, reader, kind == Kind.HTML, kind == Kind.SVG);
+    }
+
+    private ImageAsciiReader getReader(Point grid) {
+        ImageAsciiReader reader = m_readers.get(grid);
+
+        if (reader == null) {
+            reader = m_readers.isEmpty() ? m_reader : new ImageAsciiReader(m_reader);
+            m_readers.put(grid, reader);
+            m_readerUses.put(grid, 1);
+        } else {
+            m_readerUses.put(grid, m_readerUses.get(grid) + 1);
+        }
+
+        return reader;
+    }
+
+    /**
+     * Write every output, errors are reported to stderr.
+     * <br>
+     * An output which fails does not stop the others from being written.
+     *
+     * @return False if any output failed.
+     */
+    boolean write() {
+        if (m_outputs.isEmpty()) {
+            return true;
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(m_outputs.size(), new ThreadFactory() {
+            private int m_count = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "img2a-output-" + (++m_count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Callable<Object>> reads = new ArrayList<Callable<Object>>();
+
+            for (final Map.Entry<Point, ImageAsciiReader> entry : m_readers.entrySet()) {
+                final ImageAsciiReader reader = entry.getValue();
+
+                // only kept when the conversion is shared, the pixels of a single large
+                // image output would take a lot of memory for nothing.
+                reader.setCachePixels(m_readerUses.get(entry.getKey()) > 1);
+
+                reads.add(new Callable<Object>() {
+                    public Object call() {
+                        // scaled and converted once, the outputs read at the same size after this
+                        reader.read(entry.getKey());
+                        return null;
+                    }
+                });
+            }
+
+            for (Future<Object> read : threads.invokeAll(reads)) {
+                read.get();
+            }
+
+            List<Future<Boolean>> writes = new ArrayList<Future<Boolean>>();
+
+            for (final Output output : m_outputs) {
+                writes.add(threads.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return writeOutput(output);
+                    }
+                }));
+            }
+
+            boolean success = true;
+
+            for (Future<Boolean> write : writes) {
+                success &= write.get();
+            }
+
+            return success;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static boolean writeOutput(Output output) {
+        try {
+            if (output.m_kind == Kind.IMAGE) {
+                if (!App.writeImageOut(output.m_render, output.m_size, new File(output.m_path), output.m_format)) {
+
+                    System.err.println(
+                            String.format("Unknown image output format: \"%s\"", output.m_format));
+
+                    return false;
+                }
+
+                return true;
+            }
+
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(output.m_path));
+
+            try {
+                output.m_printer.print(output.m_size, stream);
+            } finally {
+                stream.close();
+            }
+
+            return true;
+
+        } catch (IOException e) {
+            System.err.println(
+                    String.format("IO Error writing to file: \"%s\"", output.m_path));
+
+            return false;
+        }
+    }
+
+    private static final class Output {
+        final Kind m_kind;
+        final String m_path;
+        Point m_size;
+        AsciiPrinter m_printer;
+        AsciiImageRenderer m_render;
+        String m_format;
+
+        Output(Kind kind, String path) {
+            m_kind = kind;
+            m_path = path;
+        }
+    }
+}
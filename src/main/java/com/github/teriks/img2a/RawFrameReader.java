@@ -0,0 +1,189 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream of raw, uncompressed frames of a fixed size as an {@link ImageFrameSource}.
+ * <br>
+ * This is the format written by ffmpeg's rawvideo muxer, for example:
+ * <br>
+ * ffmpeg -i video.mp4 -f rawvideo -pix_fmt rgb24 -s 320x180 - | img2a --stream --raw-format rgb24 --raw-size 320x180 -
+ * <br>
+ * Frames are read directly into one of two arrays, which are each wrapped in a {@link BufferedImage}
+ * once, See: {@link RawPixelFormat#wrap(byte[], int, int, int)}.  No image decoding or pixel copying happens.
+ */
+public class RawFrameReader implements ImageFrameSource {
+    private final InputStream m_input;
+    private final RawPixelFormat m_format;
+    private final int m_width;
+    private final int m_height;
+    private final int m_frameSize;
+
+    private final byte[][] m_data = new byte[2][];
+    private final BufferedImage[] m_output = new BufferedImage[2];
+    private int m_outputIndex = 0;
+
+    private byte[] m_skipBuffer;
+
+    /**
+     * Construct a raw frame reader around an input stream.
+     * <br>
+     * The stream is closed by {@link #close()}.
+     *
+     * @param input_stream The input stream.
+     * @param width        Frame width in pixels.
+     * @param height       Frame height in pixels.
+     * @param format       Pixel format of the frames.
+     * @throws IllegalArgumentException If the frame dimensions are invalid.
+     */
+    public RawFrameReader(InputStream input_stream, int width, int height, RawPixelFormat format) throws
+            IllegalArgumentException {
+
+        m_frameSize = format.getFrameSize(width, height);
+
+        m_input = input_stream;
+        m_format = format;
+        m_width = width;
+        m_height = height;
+    }
+
+    /**
+     * Get the pixel format of the frames.
+     *
+     * @return {@link RawPixelFormat}
+     */
+    public final RawPixelFormat getFormat() {
+        return m_format;
+    }
+
+    /**
+     * Get the width of every frame.
+     *
+     * @return Width in pixels.
+     */
+    public final int getWidth() {
+        return m_width;
+    }
+
+    /**
+     * Get the height of every frame.
+     *
+     * @return Height in pixels.
+     */
+    public final int getHeight() {
+        return m_height;
+    }
+
+    /**
+     * Read the next frame.
+     * <br>
+     * If the stream ends in the middle of a frame, the incomplete frame is discarded
+     * and null is returned, the same as when the stream ends between frames.
+     *
+     * @return The next frame, or null if there are no more frames.
+     * @throws IOException If there is an IO error reading the stream.
+     */
+    @Override
+    public BufferedImage nextFrame() throws IOException {
+        byte[] data = m_data[m_outputIndex];
+
+        if (data == null) {
+            data = new byte[m_frameSize];
+
+            m_data[m_outputIndex] = data;
+            m_output[m_outputIndex] = m_format.wrap(data, 0, m_width, m_height);
+        }
+
+        if (!this.readFully(data)) {
+            return null;
+        }
+
+        BufferedImage output = m_output[m_outputIndex];
+
+        m_outputIndex ^= 1;
+
+        return output;
+    }
+
+    @Override
+    public boolean skipFrame() throws IOException {
+        if (m_skipBuffer == null) {
+            m_skipBuffer = new byte[Math.min(m_frameSize, 65536)];
+        }
+
+        // InputStream.skip() can not be relied on for pipes, read and discard instead
+        int remaining = m_frameSize;
+
+        while (remaining > 0) {
+            int read = m_input.read(m_skipBuffer, 0, Math.min(remaining, m_skipBuffer.length));
+
+            if (read < 0) {
+                return false;
+            }
+
+            remaining -= read;
+        }
+
+        return true;
+    }
+
+    /**
+     * Raw frames carry no timing information.
+     *
+     * @return -1
+     */
+    @Override
+    public int getFrameDelay() {
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_input.close();
+    }
+
+    private boolean readFully(byte[] data) throws IOException {
+        int offset = 0;
+
+        while (offset < data.length) {
+            int read = m_input.read(data, offset, data.length - offset);
+
+            if (read < 0) {
+                return false;
+            }
+
+            offset += read;
+        }
+
+        return true;
+    }
+}
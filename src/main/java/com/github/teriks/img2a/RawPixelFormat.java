@@ -0,0 +1,238 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Layouts of raw, uncompressed pixel data which can be used as an image
+ * without decoding, such as the output of a video decoder or screen grabber.
+ * <br>
+ * Pixels are stored row by row from the top left corner, with no padding between rows.
+ * The names match the pixel format names used by ffmpeg.
+ */
+public enum RawPixelFormat {
+
+    /**
+     * Three bytes per pixel, in red, green, blue order.
+     */
+    RGB24("rgb24", 3) {
+        @Override
+        ColorModel createColorModel() {
+            return new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                    false,
+                    false,
+                    Transparency.OPAQUE,
+                    DataBuffer.TYPE_BYTE);
+        }
+    },
+
+    /**
+     * One byte of luminance per pixel.
+     */
+    GRAY8("gray", 1) {
+        @Override
+        ColorModel createColorModel() {
+            // Java's gray color space is linear, while gray video frames are gamma
+            // encoded like sRGB.  An identity palette maps each value to the same
+            // sRGB gray, so gray frames look the same as their rgb24 equivalent.
+
+            byte[] ramp = new byte[256];
+
+            for (int i = 0; i < ramp.length; i++) {
+                ramp[i] = (byte) i;
+            }
+
+            return new IndexColorModel(8, 256, ramp, ramp, ramp);
+        }
+    };
+
+    private final String m_name;
+    private final int m_bytesPerPixel;
+    private ColorModel m_colorModel;
+
+    RawPixelFormat(String name, int bytesPerPixel) {
+        m_name = name;
+        m_bytesPerPixel = bytesPerPixel;
+    }
+
+    abstract ColorModel createColorModel();
+
+    private synchronized ColorModel getColorModel() {
+        if (m_colorModel == null) {
+            m_colorModel = this.createColorModel();
+        }
+        return m_colorModel;
+    }
+
+    /**
+     * Find a pixel format by name, ignoring case.
+     * <br>
+     * "gray8" is accepted as an alias of "gray".
+     *
+     * @param name The format name, such as "rgb24" or "gray".
+     * @return The {@link RawPixelFormat}, or null if there is no format with the given name.
+     */
+    public static RawPixelFormat forName(String name) {
+        if (name.equalsIgnoreCase("gray8")) {
+            return GRAY8;
+        }
+
+        for (RawPixelFormat format : values()) {
+            if (format.m_name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the name of the format, as used by ffmpeg.
+     *
+     * @return The format name.
+     */
+    public final String getName() {
+        return m_name;
+    }
+
+    /**
+     * Get the amount of bytes used to store one pixel.
+     *
+     * @return Bytes per pixel.
+     */
+    public final int getBytesPerPixel() {
+        return m_bytesPerPixel;
+    }
+
+    /**
+     * Get the amount of bytes in one frame of the given dimensions.
+     *
+     * @param width  Frame width in pixels.
+     * @param height Frame height in pixels.
+     * @return Frame size in bytes.
+     * @throws IllegalArgumentException If the dimensions are not positive, or the frame
+     *                                  would be too large to fit in an array.
+     */
+    public final int getFrameSize(int width, int height) throws IllegalArgumentException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("Frame dimensions must be positive, got: %dx%d", width, height));
+        }
+
+        long size = (long) width * height * m_bytesPerPixel;
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    String.format("Frame dimensions are too large: %dx%d", width, height));
+        }
+
+        return (int) size;
+    }
+
+    /**
+     * Wrap raw pixel data in a {@link BufferedImage} without copying it.
+     * <br>
+     * The image reads its pixels directly from the given array, so
+     * changes to the array are visible in the image.
+     *
+     * @param data   The pixel data.
+     * @param offset Offset of the first pixel in the array.
+     * @param width  Frame width in pixels.
+     * @param height Frame height in pixels.
+     * @return {@link BufferedImage}
+     * @throws IllegalArgumentException If the array is too small to hold a frame of the given dimensions.
+     */
+    public BufferedImage wrap(byte[] data, int offset, int width, int height) throws
+            IllegalArgumentException {
+
+        int size = this.getFrameSize(width, height);
+
+        if (offset < 0 || data.length - offset < size) {
+            throw new IllegalArgumentException(
+                    String.format("Pixel data is too small for a %dx%d %s frame.", width, height, m_name));
+        }
+
+        int[] band_offsets = new int[m_bytesPerPixel];
+
+        for (int i = 0; i < band_offsets.length; i++) {
+            band_offsets[i] = i;
+        }
+
+        WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(data, size, offset),
+                width,
+                height,
+                width * m_bytesPerPixel,
+                m_bytesPerPixel,
+                band_offsets,
+                null);
+
+        return new BufferedImage(this.getColorModel(), raster, false, null);
+    }
+
+    /**
+     * Wrap raw pixel data in a {@link BufferedImage}, starting at the buffer's position.
+     * <br>
+     * Heap buffers are wrapped without copying, See: {@link #wrap(byte[], int, int, int)}.
+     * Direct and read only buffers do not expose an array, so their pixels are copied.
+     * <br>
+     * The position of the buffer is not changed.
+     *
+     * @param pixels The pixel data.
+     * @param width  Frame width in pixels.
+     * @param height Frame height in pixels.
+     * @return {@link BufferedImage}
+     * @throws IllegalArgumentException If the buffer has fewer bytes remaining than a frame
+     *                                  of the given dimensions needs.
+     */
+    public BufferedImage wrap(ByteBuffer pixels, int width, int height) throws
+            IllegalArgumentException {
+
+        int size = this.getFrameSize(width, height);
+
+        if (pixels.remaining() < size) {
+            throw new IllegalArgumentException(
+                    String.format("Pixel data is too small for a %dx%d %s frame.", width, height, m_name));
+        }
+
+        if (pixels.hasArray()) {
+            return this.wrap(pixels.array(), pixels.arrayOffset() + pixels.position(), width, height);
+        }
+
+        byte[] data = new byte[size];
+
+        pixels.duplicate().get(data);
+
+        return this.wrap(data, 0, width, height);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.io.File;
+
+/**
+ * Runs a representative set of conversions in one process, so that the classes
+ * they load can be recorded into a class data sharing archive when packaging.
+ * <br>
+ * Usage: StartupTraining IMAGE OUTPUT_DIRECTORY
+ * <br>
+ * Text output is written to stdout, image output is written to the output directory.
+ */
+final class StartupTraining {
+
+    private StartupTraining() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: StartupTraining IMAGE OUTPUT_DIRECTORY");
+            System.exit(1);
+        }
+
+        String image = args[0];
+        File output_directory = new File(args[1]);
+
+        if (!output_directory.isDirectory() && !output_directory.mkdirs()) {
+            System.err.println(String.format("Could not create directory: %s", output_directory));
+            System.exit(3);
+        }
+
+        // the same headless setting App.main uses
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        String[][] commands = {
+                {image},
+                {image, "--size", "80x40"},
+                {image, "--size", "80x40", "--colors"},
+                {image, "--size", "80x40", "--colors", "--fill"},
+                {image, "--html", "--colors"},
+                {image, "--svg", "--colors"},
+                {image, "--image-out", new File(output_directory, "training.png").getPath()},
+                {image, "--image-out", new File(output_directory, "training.jpg").getPath(), "--colors"}
+        };
+
+        for (String[] command : commands) {
+            int status = App.run(command, null, false);
+
+            if (status != 0) {
+                System.err.println(String.format("Training command failed with status %d", status));
+                System.exit(status);
+            }
+        }
+
+        System.out.flush();
+    }
+}
@@ -0,0 +1,450 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import com.github.teriks.img2a.utils.ColorUtils;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * For printing an image read by a {@link ImageAsciiReader} to
+ * an output stream as an SVG image.
+ * <br>
+ * Each row is written as soon as it is read.  When colors are enabled, adjacent characters
+ * with the same color share one tspan element, and adjacent fill colors share one rectangle.
+ */
+public class SvgPrinter extends AsciiPrinter {
+
+    // The document is laid out in units of a fifth of the font size, which puts every
+    // cell and row edge on a whole number.  Characters are assumed to be 0.6em wide,
+    // the usual advance of monospace fonts, and rows are 1.2em tall.  Each row is
+    // stretched to its exact width with textLength, so fonts that are slightly wider
+    // or narrower still line up with the fill rectangles.
+
+    private static final int FONT_SIZE_UNITS = 5;
+    private static final int CELL_WIDTH_UNITS = 3;
+    private static final int CELL_HEIGHT_UNITS = 6;
+
+    // distance from the top of a row to the text baseline
+    private static final int BASELINE_UNITS = 5;
+
+    private boolean m_useColors = false;
+    private boolean m_colorFill = false;
+    private int m_colorBits = 8;
+    private float m_fontSize = 12;
+    private String m_fontFamily = "monospace";
+    private String m_fontWeight = "bold";
+    private String m_title = null;
+
+    private String m_background = "black";
+    private String m_foreground = "white";
+
+    // state of the row being written
+    private final StringBuilder m_text = new StringBuilder();
+    private final StringBuilder m_fill = new StringBuilder();
+    private int m_cols;
+    private int m_row;
+    private int m_col;
+    private int m_textColor;
+    private int m_fillColor;
+    private int m_fillStart;
+
+    /**
+     * Construct an SvgPrinter around a given {@link ImageAsciiReader}
+     *
+     * @param reader The image reader.
+     */
+    public SvgPrinter(ImageAsciiReader reader) {
+        super(reader);
+    }
+
+    /**
+     * See: {@link #setBackground(String)}
+     *
+     * @return SVG background color.
+     */
+    public final String getBackground() {
+        return m_background;
+    }
+
+    /**
+     * Set the color which will be used as the background color of the image.
+     * <br>
+     * This can be any color value SVG accepts, such as "black", "#202020" or "rgb(32,32,32)",
+     * or "none" for a transparent background.
+     *
+     * @param background SVG color.
+     */
+    public final void setBackground(String background) {
+        m_background = background;
+    }
+
+    /**
+     * See: {@link #setForeground(String)}
+     *
+     * @return SVG foreground color.
+     */
+    public final String getForeground() {
+        return m_foreground;
+    }
+
+    /**
+     * Set the color which will be used as the text color when colors are not enabled.
+     *
+     * @param foreground SVG color.
+     */
+    public final void setForeground(String foreground) {
+        m_foreground = foreground;
+    }
+
+    /**
+     * See: {@link #setUseColors(boolean)}
+     *
+     * @return Whether or not colors are currently specified to render.
+     */
+    public final boolean getUseColors() {
+        return this.m_useColors;
+    }
+
+    /**
+     * Set whether or not to color each character with the color of its pixel.
+     *
+     * @param value True or False
+     */
+    public final void setUseColors(boolean value) {
+        this.m_useColors = value;
+    }
+
+    /**
+     * See: {@link #setColorFill(boolean)}
+     *
+     * @return Whether or not to fill colors.
+     */
+    public final boolean getColorFill() {
+        return m_colorFill;
+    }
+
+    /**
+     * Set whether or not the background of each character will be
+     * filled in with the actual color of the pixel.
+     * <br>
+     * Each character will be dimmed so that it is still visible over it's
+     * backdrop when this is set to True.
+     *
+     * @param value True or False
+     */
+    public final void setColorFill(boolean value) {
+        m_colorFill = value;
+    }
+
+    /**
+     * See: {@link #setColorBits(int)}
+     *
+     * @return Bits of precision per color component.
+     */
+    public final int getColorBits() {
+        return this.m_colorBits;
+    }
+
+    /**
+     * Set the bits of precision kept for each red, green and blue color component.
+     * <br>
+     * Fewer bits make runs of the same color longer, which makes the output smaller,
+     * See: {@link ColorUtils#quantize(int, int)}.  The default value of 8 keeps colors exact.
+     *
+     * @param bits Bits per component, from 1 to 8.
+     * @throws IllegalArgumentException If bits is not between 1 and 8.
+     */
+    public final void setColorBits(int bits) throws IllegalArgumentException {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("bits must be between 1 and 8.");
+        }
+        this.m_colorBits = bits;
+    }
+
+    /**
+     * See: {@link #setFontSize(float)}
+     *
+     * @return Font size in pixels.
+     */
+    public final float getFontSize() {
+        return this.m_fontSize;
+    }
+
+    /**
+     * Set the font size in pixels, which determines the size of the image.
+     * <br>
+     * Each character is 0.6 times the font size wide, and each row is 1.2 times the font size tall.
+     * The image can be scaled to any size afterwards without losing quality.
+     *
+     * @param value Font size in pixels.
+     * @throws IllegalArgumentException If the size is not greater than 0.
+     */
+    public final void setFontSize(float value) throws IllegalArgumentException {
+        if (!(value > 0)) {
+            throw new IllegalArgumentException("font size must be greater than 0.");
+        }
+        this.m_fontSize = value;
+    }
+
+    /**
+     * See: {@link #setFontFamily(String)}
+     *
+     * @return Font family.
+     */
+    public final String getFontFamily() {
+        return this.m_fontFamily;
+    }
+
+    /**
+     * Set the font family for the characters, this should be a monospace font.
+     * <br>
+     * This is a CSS font family list such as: "monospace", "Consolas, monospace" etc..
+     *
+     * @param value Font family.
+     */
+    public final void setFontFamily(String value) {
+        this.m_fontFamily = value;
+    }
+
+    /**
+     * See {@link #setFontWeight(String)}
+     *
+     * @return Font weight.
+     */
+    public final String getFontWeight() {
+        return this.m_fontWeight;
+    }
+
+    /**
+     * Set the font weight for the characters.
+     * <br>
+     * This should be a CSS specifier such as: "normal", "bold", "bolder", "900" etc..
+     *
+     * @param value Font weight.
+     */
+    public final void setFontWeight(String value) {
+        this.m_fontWeight = value;
+    }
+
+    /**
+     * See: {@link #setTitle(String)}
+     *
+     * @return The title currently set for the image, which may be null.
+     */
+    public final String getTitle() {
+        return this.m_title;
+    }
+
+    /**
+     * Set the title to use for the produced SVG image.
+     * <br>
+     * You may set this to null if you do not want a title element at all.
+     *
+     * @param value The image title.
+     */
+    public final void setTitle(String value) {
+        this.m_title = value;
+    }
+
+    /**
+     * Calculate the default size for img2a SVG output.
+     * <br>
+     * The value is created by calculating the aspect correct dimensions
+     * which will fit the source image as text into a 128x128 block.
+     * <br>
+     * The final height will be scaled by {@link #getDefaultHeightScale()}
+     *
+     * @return Point(rows, cols)
+     */
+    @Override
+    public Point getDefaultSize() {
+        return this.getReader().calcAspectCorrectSize(new Point(128, 128),
+                this.getDefaultHeightScale());
+    }
+
+    @Override
+    public void print(int cols, int rows, OutputStreamWriter writer) throws IOException {
+        DecimalFormat length = new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+        float unit = this.m_fontSize / FONT_SIZE_UNITS;
+
+        StringBuilder header = new StringBuilder(512);
+
+        header.append("<svg xmlns=\"http://www.w3.org/2000/svg\"")
+                .append(" width=\"").append(length.format(cols * CELL_WIDTH_UNITS * unit)).append('"')
+                .append(" height=\"").append(length.format(rows * CELL_HEIGHT_UNITS * unit)).append('"')
+                .append(" viewBox=\"0 0 ")
+                .append(cols * CELL_WIDTH_UNITS).append(' ')
+                .append(rows * CELL_HEIGHT_UNITS).append('"')
+                .append(" xml:space=\"preserve\">");
+
+        if (this.m_title != null) {
+            header.append("<title>");
+            appendEscaped(header, this.m_title);
+            header.append("</title>");
+        }
+
+        header.append("<rect width=\"100%\" height=\"100%\" fill=\"");
+        appendEscaped(header, this.m_background);
+        header.append("\"/>");
+
+        header.append("<g font-family=\"");
+        appendEscaped(header, this.m_fontFamily);
+        header.append("\" font-weight=\"");
+        appendEscaped(header, this.m_fontWeight);
+        header.append("\" font-size=\"").append(FONT_SIZE_UNITS).append("\" fill=\"");
+        appendEscaped(header, this.m_foreground);
+
+        // keeps the edges between adjacent fill rectangles from showing through
+        header.append("\" shape-rendering=\"crispEdges\">");
+
+        writer.write(header.toString());
+
+        m_cols = cols;
+        m_row = 0;
+        this.startRow();
+
+        super.print(cols, rows, writer);
+
+        writer.write("</g></svg>");
+    }
+
+    @Override
+    public void writePixel(OutputStreamWriter writer, Pixel pixel) throws IOException {
+        if (this.m_useColors) {
+            int color = ColorUtils.quantize(pixel.getColor().getRGB(), this.m_colorBits);
+
+            int text_color = this.m_colorFill ?
+                    ColorUtils.quantize(this.calcColorFillForeground(pixel), this.m_colorBits) :
+                    color;
+
+            if (m_col == 0 || text_color != m_textColor) {
+                if (m_col > 0) {
+                    m_text.append("</tspan>");
+                }
+                m_text.append("<tspan fill=\"");
+                ColorUtils.appendShortHex(m_text, text_color).append("\">");
+                m_textColor = text_color;
+            }
+
+            if (this.m_colorFill && (m_col == 0 || color != m_fillColor)) {
+                if (m_col > 0) {
+                    this.endFillRun();
+                }
+                m_fillColor = color;
+                m_fillStart = m_col;
+            }
+        }
+
+        appendEscaped(m_text, pixel.getChar());
+
+        m_col++;
+    }
+
+    @Override
+    public void lineBreak(OutputStreamWriter writer) throws IOException {
+        if (this.m_useColors && m_col > 0) {
+            m_text.append("</tspan>");
+
+            if (this.m_colorFill) {
+                this.endFillRun();
+            }
+        }
+
+        // the fill goes first, so that it is painted underneath the text
+
+        if (m_fill.length() > 0) {
+            writer.write(m_fill.toString());
+        }
+
+        writer.write("<text y=\"" + (m_row * CELL_HEIGHT_UNITS + BASELINE_UNITS) +
+                "\" textLength=\"" + (m_cols * CELL_WIDTH_UNITS) + "\">");
+
+        writer.write(m_text.toString());
+
+        writer.write("</text>");
+
+        m_row++;
+        this.startRow();
+    }
+
+    private void startRow() {
+        m_text.setLength(0);
+        m_fill.setLength(0);
+        m_col = 0;
+        m_fillStart = 0;
+    }
+
+    private void endFillRun() {
+        if (m_col == m_fillStart) {
+            return;
+        }
+
+        // a rectangle path is about half the size of the equivalent rect element
+
+        m_fill.append("<path d=\"M").append(m_fillStart * CELL_WIDTH_UNITS)
+                .append(' ').append(m_row * CELL_HEIGHT_UNITS)
+                .append('h').append((m_col - m_fillStart) * CELL_WIDTH_UNITS)
+                .append('v').append(CELL_HEIGHT_UNITS)
+                .append('h').append(-(m_col - m_fillStart) * CELL_WIDTH_UNITS)
+                .append("z\" fill=\"");
+
+        ColorUtils.appendShortHex(m_fill, m_fillColor).append("\"/>");
+    }
+
+    private int calcColorFillForeground(Pixel pixel) {
+        return ColorUtils.fillForeground(
+                pixel.getColor().getRGB(), pixel.getLuma(), getReader().getUseGrayscaleColor());
+    }
+
+    private static void appendEscaped(StringBuilder output, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            appendEscaped(output, text.charAt(i));
+        }
+    }
+
+    private static void appendEscaped(StringBuilder output, char c) {
+        if (c == '<') {
+            output.append("&lt;");
+        } else if (c == '>') {
+            output.append("&gt;");
+        } else if (c == '&') {
+            output.append("&amp;");
+        } else if (c == '"') {
+            output.append("&quot;");
+        } else {
+            output.append(c);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket channels, which are only available when running on Java 16 or later.
+ * <br>
+ * img2a still runs on Java 1.7, so the socket API is looked up at runtime.
+ */
+final class UnixSockets {
+
+    private UnixSockets() {
+    }
+
+    /**
+     * Bind a server channel to a socket file, which must not exist yet.
+     *
+     * @param path The socket file.
+     * @return {@link ServerSocketChannel}
+     * @throws IOException If the channel can not be bound, or the JVM does not support Unix domain sockets.
+     */
+    static ServerSocketChannel bind(Path path) throws IOException {
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(
+                ServerSocketChannel.class.getName(), "open", ProtocolFamily.class, getProtocolFamily());
+
+        try {
+            channel.bind(getAddress(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Connect to a socket file.
+     *
+     * @param path The socket file.
+     * @return A blocking {@link SocketChannel}.
+     * @throws IOException If nothing is listening on the socket, or the JVM does not support Unix domain sockets.
+     */
+    static SocketChannel connect(Path path) throws IOException {
+        SocketChannel channel = (SocketChannel) invoke(
+                SocketChannel.class.getName(), "open", ProtocolFamily.class, getProtocolFamily());
+
+        try {
+            channel.connect(getAddress(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Get an input stream which reads from a blocking channel.
+     * <br>
+     * Unlike {@link java.nio.channels.Channels#newInputStream}, reading does not lock out
+     * writing from another thread.
+     *
+     * @param channel The channel.
+     * @return {@link InputStream}
+     */
+    static InputStream newInputStream(final SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Get an output stream which writes to a blocking channel.
+     * <br>
+     * See: {@link #newInputStream(SocketChannel)}
+     *
+     * @param channel The channel.
+     * @return {@link OutputStream}
+     */
+    static OutputStream newOutputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    private static ProtocolFamily getProtocolFamily() throws IOException {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16 or later.");
+        }
+    }
+
+    private static SocketAddress getAddress(Path path) throws IOException {
+        return (SocketAddress) invoke("java.net.UnixDomainSocketAddress", "of", Path.class, path);
+    }
+
+    private static Object invoke(String class_name,
+                                 String method_name,
+                                 Class<?> parameter_type,
+                                 Object argument) throws IOException {
+        Method method;
+
+        try {
+            method = Class.forName(class_name).getMethod(method_name, parameter_type);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unix domain sockets require Java 16 or later.");
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Unix domain sockets require Java 16 or later.");
+        }
+
+        try {
+            return method.invoke(null, argument);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+}
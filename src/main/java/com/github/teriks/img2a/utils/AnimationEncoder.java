@@ -0,0 +1,80 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes the frames of an animation to an image file one frame at a time.
+ * <br>
+ * Each frame is given as the packed 0xRRGGBB pixels of the whole animation, along with the frame
+ * before it and the area that differs between the two, so that encoders can store only the
+ * part of each frame which changed.
+ */
+public interface AnimationEncoder extends Closeable {
+
+    /**
+     * Write the next frame.
+     * <br>
+     * The pixel at (x, y) of a frame is stored at index y * width + x, where width is the animation width.
+     *
+     * @param pixels   Pixels of the frame.
+     * @param previous Pixels of the frame before it, or null for the first frame.
+     * @param x        Left edge of the area which differs from the previous frame.
+     * @param y        Top edge of the area which differs from the previous frame.
+     * @param width    Width of the area which differs from the previous frame.
+     * @param height   Height of the area which differs from the previous frame.
+     * @param delay    Display time of the frame in milliseconds.
+     * @throws IOException              If writing to the output fails.
+     * @throws IllegalArgumentException If the area is outside of the animation, or the
+     *                                  first frame does not cover the whole animation.
+     * @throws IllegalStateException    If the animation is finished.
+     */
+    void writeFrame(int[] pixels, int[] previous, int x, int y, int width, int height, int delay) throws
+            IOException;
+
+    /**
+     * Write the end of the animation once all of its frames are written.
+     * <br>
+     * The output is flushed but not closed.
+     *
+     * @throws IOException           If writing to the output fails.
+     * @throws IllegalStateException If no frames were written.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Release any resources held by the encoder without finishing the animation.
+     * <br>
+     * This is done by {@link #finish()}, calling it is only needed when an animation is abandoned part way.
+     * The output is not closed.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,318 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+import javax.imageio.stream.ImageOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an animated PNG (APNG) with 8 bit RGB frames.
+ * <br>
+ * The first frame is stored as the regular image data, so viewers without APNG support show it as a still image.
+ * Later frames only store the area which changed since the frame before them.  Frames are filtered and
+ * compressed the same way as {@link PngEncoder} images, on a thread pool which is shared by all frames.
+ * <br>
+ * The amount of frames is written into the header once the animation is finished,
+ * so the output must be seekable back to the header until {@link #finish()} is called.
+ */
+public class ApngEncoder implements AnimationEncoder {
+
+    private final ImageOutputStream m_output;
+    private final OutputStream m_stream;
+    private final int m_width;
+    private final int m_height;
+    private final int m_plays;
+    private final int m_level;
+    private final PngFilter m_filter;
+    private final int m_threads;
+
+    private ExecutorService m_workers;
+    private final long m_controlPosition;
+    private byte[] m_frameData;
+    private int m_frames = 0;
+    private int m_sequence = 0;
+    private boolean m_finished = false;
+
+    /**
+     * Start writing an animated PNG with the default compression level and adaptive filtering, using one thread.
+     * <br>
+     * The PNG signature and header are written immediately.
+     *
+     * @param output The output stream, which is not closed by {@link #finish()}.
+     * @param width  Image width in pixels.
+     * @param height Image height in pixels.
+     * @param plays  Amount of times to play the animation, or 0 to loop forever.
+     * @throws IOException If writing to the output stream fails.
+     */
+    public ApngEncoder(ImageOutputStream output, int width, int height, int plays) throws IOException {
+        this(output, width, height, plays, Deflater.DEFAULT_COMPRESSION, PngFilter.ADAPTIVE, 1);
+    }
+
+    /**
+     * Start writing an animated PNG.
+     * <br>
+     * The PNG signature and header are written immediately.
+     *
+     * @param output  The output stream, which is not closed by {@link #finish()}.
+     * @param width   Image width in pixels.
+     * @param height  Image height in pixels.
+     * @param plays   Amount of times to play the animation, or 0 to loop forever.
+     * @param level   Deflate compression level from 0 to 9, or -1 for the default level.
+     * @param filter  Row filter strategy.
+     * @param threads Amount of threads used for compression.
+     * @throws IOException              If writing to the output stream fails.
+     * @throws IllegalArgumentException If the dimensions are not greater than 0, plays is negative,
+     *                                  the level is out of range, or threads is less than 1.
+     */
+    public ApngEncoder(ImageOutputStream output, int width, int height, int plays,
+                       int level, PngFilter filter, int threads) throws IOException {
+
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("image dimensions must be greater than 0.");
+        }
+
+        if (plays < 0) {
+            throw new IllegalArgumentException("play count must not be negative.");
+        }
+
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1.");
+        }
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be at least 1.");
+        }
+
+        m_output = output;
+        m_width = width;
+        m_height = height;
+        m_plays = plays;
+        m_level = level;
+        m_filter = filter;
+        m_threads = threads;
+
+        m_stream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                m_output.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                m_output.write(b, off, len);
+            }
+
+            // flushing an image output stream discards what is before the stream
+            // position, the header still needs to be rewritten at the end.
+        };
+
+        PngEncoder.writeHeader(m_stream, width, height);
+
+        m_controlPosition = m_output.getStreamPosition();
+
+        this.writeAnimationControl();
+
+        if (threads > 1) {
+            m_workers = PngEncoder.createWorkers(threads);
+        }
+    }
+
+    /**
+     * Get the image width.
+     *
+     * @return Width in pixels.
+     */
+    public final int getWidth() {
+        return m_width;
+    }
+
+    /**
+     * Get the image height.
+     *
+     * @return Height in pixels.
+     */
+    public final int getHeight() {
+        return m_height;
+    }
+
+    /**
+     * Get the amount of frames written so far.
+     *
+     * @return Frame count.
+     */
+    public final int getFramesWritten() {
+        return m_frames;
+    }
+
+    /**
+     * Write the next frame.
+     * <br>
+     * Only the given area of the frame is stored, it replaces that area of the frame before it.
+     * The previous frame is not needed, it may be null.  Delays are stored in milliseconds,
+     * up to 65535.
+     * <br>
+     * See: {@link AnimationEncoder#writeFrame(int[], int[], int, int, int, int, int)}
+     */
+    @Override
+    public void writeFrame(int[] pixels, int[] previous, int x, int y, int width, int height, int delay) throws
+            IOException {
+
+        if (m_finished) {
+            throw new IllegalStateException("the animation is finished.");
+        }
+
+        if (x < 0 || y < 0 || width < 1 || height < 1 || x + width > m_width || y + height > m_height) {
+            throw new IllegalArgumentException("frame area is outside of the image.");
+        }
+
+        final boolean first = m_frames == 0;
+
+        if (first && (width != m_width || height != m_height)) {
+            throw new IllegalArgumentException("the first frame must cover the whole image.");
+        }
+
+        byte[] control = new byte[26];
+
+        PngEncoder.putInt(control, 0, m_sequence++);
+        PngEncoder.putInt(control, 4, width);
+        PngEncoder.putInt(control, 8, height);
+        PngEncoder.putInt(control, 12, x);
+        PngEncoder.putInt(control, 16, y);
+
+        // the delay is a fraction, milliseconds over 1000
+        int millis = Math.max(0, Math.min(delay, 0xFFFF));
+
+        control[20] = (byte) (millis >> 8);
+        control[21] = (byte) millis;
+        control[22] = (byte) (1000 >> 8);
+        control[23] = (byte) 1000;
+
+        control[24] = 0; // dispose op, none
+        control[25] = 0; // blend op, source
+
+        PngEncoder.writeChunk(m_stream, "fcTL", control, control.length);
+
+        // the first frame is the default image and is stored in IDAT chunks, later frames in fdAT chunks
+
+        PngEncoder encoder = new PngEncoder(
+                m_stream, width, height, m_level, m_filter, m_threads, m_workers, false) {
+
+            @Override
+            void writeDataChunk(byte[] data, int length) throws IOException {
+                if (first) {
+                    super.writeDataChunk(data, length);
+                } else {
+                    writeFrameData(data, length);
+                }
+            }
+        };
+
+        try {
+            encoder.writeRows(pixels, y * m_width + x, m_width, height);
+            encoder.finish();
+        } finally {
+            encoder.close();
+        }
+
+        m_frames++;
+    }
+
+    /**
+     * Write the end of the animation, and the amount of frames into its header.
+     * <br>
+     * The output stream is flushed but not closed.
+     *
+     * @throws IOException           If writing to the output stream fails.
+     * @throws IllegalStateException If no frames were written.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (m_finished) {
+            return;
+        }
+
+        if (m_frames == 0) {
+            throw new IllegalStateException("no frames written.");
+        }
+
+        m_finished = true;
+
+        try {
+            PngEncoder.writeChunk(m_stream, "IEND", new byte[0], 0);
+
+            long end = m_output.getStreamPosition();
+
+            m_output.seek(m_controlPosition);
+
+            this.writeAnimationControl();
+
+            m_output.seek(end);
+            m_output.flush();
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * Release the compression threads without finishing the animation.
+     * <br>
+     * This is done by {@link #finish()}, calling it is only needed when an animation is abandoned part way.
+     * The output stream is not closed.
+     */
+    @Override
+    public void close() {
+        if (m_workers != null) {
+            m_workers.shutdownNow();
+            m_workers = null;
+        }
+    }
+
+    private void writeAnimationControl() throws IOException {
+        byte[] control = new byte[8];
+
+        PngEncoder.putInt(control, 0, m_frames);
+        PngEncoder.putInt(control, 4, m_plays);
+
+        PngEncoder.writeChunk(m_stream, "acTL", control, control.length);
+    }
+
+    private void writeFrameData(byte[] data, int length) throws IOException {
+        if (m_frameData == null || m_frameData.length < length + 4) {
+            m_frameData = new byte[length + 4];
+        }
+
+        PngEncoder.putInt(m_frameData, 0, m_sequence++);
+
+        System.arraycopy(data, 0, m_frameData, 4, length);
+
+        PngEncoder.writeChunk(m_stream, "fdAT", m_frameData, length + 4);
+    }
+}
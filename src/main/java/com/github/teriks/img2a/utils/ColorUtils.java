@@ -0,0 +1,165 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+/**
+ * Fast color formatting, quantization and scaling helpers for packed 0xRRGGBB colors.
+ */
+public class ColorUtils {
+
+    // two lower case hex digits for every byte value
+    private static final char[] HEX_PAIRS = new char[512];
+
+    static {
+        String digits = "0123456789abcdef";
+
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i * 2] = digits.charAt(i >> 4);
+            HEX_PAIRS[i * 2 + 1] = digits.charAt(i & 0xF);
+        }
+    }
+
+    private ColorUtils() {
+    }
+
+    /**
+     * Append a packed color to a string builder in the CSS form "#rrggbb", with lower case digits.
+     * <br>
+     * This produces the same text as String.format("#%02x%02x%02x", r, g, b) without parsing a format string.
+     *
+     * @param output The string builder.
+     * @param rgb    Color packed as 0xRRGGBB, any higher bits are ignored.
+     * @return output
+     */
+    public static StringBuilder appendHex(StringBuilder output, int rgb) {
+        int r = ((rgb >> 16) & 0xFF) * 2;
+        int g = ((rgb >> 8) & 0xFF) * 2;
+        int b = (rgb & 0xFF) * 2;
+
+        return output.append('#')
+                .append(HEX_PAIRS[r]).append(HEX_PAIRS[r + 1])
+                .append(HEX_PAIRS[g]).append(HEX_PAIRS[g + 1])
+                .append(HEX_PAIRS[b]).append(HEX_PAIRS[b + 1]);
+    }
+
+    /**
+     * Append a packed color to a string builder in the shortest CSS hex form.
+     * <br>
+     * The three digit form "#rgb" is used when both digits of every component are the same,
+     * which is always the case for colors quantized to 1, 2 or 4 bits, See: {@link #quantize(int, int)}.
+     * Otherwise this is the same as {@link #appendHex(StringBuilder, int)}.
+     *
+     * @param output The string builder.
+     * @param rgb    Color packed as 0xRRGGBB, any higher bits are ignored.
+     * @return output
+     */
+    public static StringBuilder appendShortHex(StringBuilder output, int rgb) {
+        rgb &= 0xFFFFFF;
+
+        // every nibble equal to its neighbor, such as 0xAABBCC
+        if (((rgb >> 4) & 0x0F0F0F) != (rgb & 0x0F0F0F)) {
+            return appendHex(output, rgb);
+        }
+
+        return output.append('#')
+                .append(HEX_PAIRS[((rgb >> 16) & 0xFF) * 2])
+                .append(HEX_PAIRS[((rgb >> 8) & 0xFF) * 2])
+                .append(HEX_PAIRS[(rgb & 0xFF) * 2]);
+    }
+
+    /**
+     * Format a packed color in the CSS form "#rrggbb", with lower case digits.
+     * <br>
+     * See: {@link #appendHex(StringBuilder, int)}
+     *
+     * @param rgb Color packed as 0xRRGGBB, any higher bits are ignored.
+     * @return The formatted color.
+     */
+    public static String toHex(int rgb) {
+        return appendHex(new StringBuilder(7), rgb).toString();
+    }
+
+    /**
+     * Reduce each component of a packed color to a given amount of bits of precision.
+     * <br>
+     * The reduced components are scaled back up to cover the full 0-255 range, so that
+     * black and white stay exact.  With 8 bits the color is returned unchanged.
+     * <br>
+     * A palette of colors quantized with N bits has at most 2^(3*N) entries.
+     *
+     * @param rgb  Color packed as 0xRRGGBB, any higher bits are ignored.
+     * @param bits Bits of precision per component, from 1 to 8.
+     * @return The quantized color, packed as 0xRRGGBB.
+     * @throws IllegalArgumentException If bits is not between 1 and 8.
+     */
+    public static int quantize(int rgb, int bits) throws IllegalArgumentException {
+        if (bits < 1 || bits > 8) {
+            throw new IllegalArgumentException("bits must be between 1 and 8.");
+        }
+
+        if (bits == 8) {
+            return rgb & 0xFFFFFF;
+        }
+
+        return (quantizeComponent((rgb >> 16) & 0xFF, bits) << 16) |
+                (quantizeComponent((rgb >> 8) & 0xFF, bits) << 8) |
+                quantizeComponent(rgb & 0xFF, bits);
+    }
+
+    private static int quantizeComponent(int value, int bits) {
+        int max = (1 << bits) - 1;
+
+        // round to the nearest level, then spread the levels over 0-255
+        int level = (value * max + 127) / 255;
+
+        return (level * 255 + max / 2) / max;
+    }
+
+    /**
+     * Calculate the color of a character drawn over a cell which is filled with the pixel color.
+     * <br>
+     * Each component is multiplied by the pixel luma, or by 0.5 if grayscale colors are in use,
+     * and rounded to the nearest integer.  This dims the character so that it stands out from
+     * the fill color, and is shared by every backend that implements color fill so that they
+     * produce the same colors.
+     *
+     * @param rgb       Pixel color packed as 0xRRGGBB, any higher bits are ignored.
+     * @param luma      Pixel luma, between 0.0f and 1.0f.
+     * @param grayscale Whether or not the pixel color is a grayscale color.
+     * @return The character color, packed as 0xRRGGBB.
+     */
+    public static int fillForeground(int rgb, float luma, boolean grayscale) {
+        float factor = grayscale ? 0.5f : luma;
+
+        int r = Math.round(((rgb >> 16) & 0xFF) * factor);
+        int g = Math.round(((rgb >> 8) & 0xFF) * factor);
+        int b = Math.round((rgb & 0xFF) * factor);
+
+        return (r << 16) | (g << 8) | b;
+    }
+}
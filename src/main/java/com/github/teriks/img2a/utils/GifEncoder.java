@@ -0,0 +1,418 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Writes an animated GIF through the Java Image I/O GIF writer's sequence API.
+ * <br>
+ * Frames are converted to indexed color with a palette which is kept from one frame to the next.
+ * New colors are added to it as they appear, and while the palette does not change, frames are
+ * written without a color table of their own.  When a frame has more colors than fit in the palette,
+ * the precision of the colors is reduced one bit at a time until they fit, and stays reduced for
+ * the rest of the animation.  Past 3 bits per component a fixed 6x7x6 color cube is used.
+ * <br>
+ * Only the area of each frame which changed since the frame before it is stored, and pixels
+ * in that area which did not change are stored as transparent, which compresses better.
+ */
+public class GifEncoder implements AnimationEncoder {
+    private static final String IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+
+    // the last palette entry is kept free for transparent pixels
+    private static final int TRANSPARENT_INDEX = 255;
+    private static final int MAX_COLORS = 255;
+
+    // colors which are not reduced any further, instead the color cube is used
+    private static final int MIN_COLOR_BITS = 3;
+
+    private static final int CUBE_RED = 6;
+    private static final int CUBE_GREEN = 7;
+    private static final int CUBE_BLUE = 6;
+
+    // browsers play frames with a delay of less than 2 hundredths of a second at 10 FPS
+    private static final int MIN_DELAY = 2;
+
+    // open addressing table of the palette colors, more than twice as large as the palette
+    private static final int HASH_SIZE = 1024;
+
+    private final ImageWriter m_writer;
+    private final int m_width;
+    private final int m_height;
+    private final int m_loops;
+
+    private final byte[] m_red = new byte[256];
+    private final byte[] m_green = new byte[256];
+    private final byte[] m_blue = new byte[256];
+    private int m_colors = 0;
+    private int m_colorBits = 8;
+    private boolean m_cube = false;
+    private IndexColorModel m_colorModel;
+
+    private final int[] m_hashColors = new int[HASH_SIZE];
+    private final byte[] m_hashIndices = new byte[HASH_SIZE];
+
+    private byte[] m_indices;
+    private int m_frames = 0;
+    private long m_time = 0;
+    private boolean m_finished = false;
+
+    /**
+     * Start writing an animated GIF.
+     *
+     * @param output The output stream, which is not closed by {@link #finish()}.
+     * @param width  Image width in pixels.
+     * @param height Image height in pixels.
+     * @param loops  Amount of times to repeat the animation after it is first played, 0 to loop forever,
+     *               or -1 to play it once.
+     * @throws IOException              If writing to the output stream fails, or there is no GIF writer available.
+     * @throws IllegalArgumentException If the dimensions are not between 1 and 65535, or loops is
+     *                                  not between -1 and 65535.
+     */
+    public GifEncoder(ImageOutputStream output, int width, int height, int loops) throws IOException {
+        if (width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("image dimensions must be between 1 and 65535.");
+        }
+
+        if (loops < -1 || loops > 0xFFFF) {
+            throw new IllegalArgumentException("loop count must be between -1 and 65535.");
+        }
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("gif");
+
+        if (!writers.hasNext()) {
+            throw new IOException("No GIF image writer is available.");
+        }
+
+        m_writer = writers.next();
+        m_width = width;
+        m_height = height;
+        m_loops = loops;
+
+        this.resetPalette();
+
+        m_writer.setOutput(output);
+        m_writer.prepareWriteSequence(null);
+    }
+
+    /**
+     * Get the image width.
+     *
+     * @return Width in pixels.
+     */
+    public final int getWidth() {
+        return m_width;
+    }
+
+    /**
+     * Get the image height.
+     *
+     * @return Height in pixels.
+     */
+    public final int getHeight() {
+        return m_height;
+    }
+
+    /**
+     * Get the amount of frames written so far.
+     *
+     * @return Frame count.
+     */
+    public final int getFramesWritten() {
+        return m_frames;
+    }
+
+    /**
+     * Write the next frame.
+     * <br>
+     * GIF delays are stored in hundredths of a second, the delays are rounded so that the time
+     * each frame starts at stays as close as possible to the sum of the delays before it.
+     * Delays are at least 2 hundredths of a second, as browsers slow down frames with a shorter delay.
+     * <br>
+     * See: {@link AnimationEncoder#writeFrame(int[], int[], int, int, int, int, int)}
+     */
+    @Override
+    public void writeFrame(int[] pixels, int[] previous, int x, int y, int width, int height, int delay) throws
+            IOException {
+
+        if (m_finished) {
+            throw new IllegalStateException("the animation is finished.");
+        }
+
+        if (x < 0 || y < 0 || width < 1 || height < 1 || x + width > m_width || y + height > m_height) {
+            throw new IllegalArgumentException("frame area is outside of the image.");
+        }
+
+        if (m_frames == 0 && (width != m_width || height != m_height)) {
+            throw new IllegalArgumentException("the first frame must cover the whole image.");
+        }
+
+        if (m_indices == null) {
+            m_indices = new byte[m_width * m_height];
+        }
+
+        // frames are drawn over the frame before them, unchanged pixels can be left out
+        if (m_frames == 0) {
+            previous = null;
+        }
+
+        int palette_colors = m_colors;
+
+        while (!this.mapColors(pixels, previous, x, y, width, height)) {
+            // out of room, reduce the precision of every color and start over
+            if (m_colorBits > MIN_COLOR_BITS) {
+                m_colorBits--;
+            } else {
+                m_cube = true;
+            }
+
+            this.resetPalette();
+
+            palette_colors = -1;
+        }
+
+        if (m_colorModel == null || palette_colors != m_colors) {
+            m_colorModel = new IndexColorModel(8, 256, m_red, m_green, m_blue);
+        }
+
+        WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(m_indices, width * height), width, height, width, 1, new int[]{0}, null);
+
+        BufferedImage image = new BufferedImage(m_colorModel, raster, false, null);
+
+        long start = m_time;
+
+        m_time += Math.max(0, delay);
+
+        int centiseconds = (int) Math.max(MIN_DELAY, Math.min(0xFFFF, (m_time + 5) / 10 - (start + 5) / 10));
+
+        IIOMetadata metadata = m_writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+
+        metadata.mergeTree(IMAGE_METADATA_FORMAT,
+                this.createFrameMetadata(x, y, width, height, centiseconds, previous != null));
+
+        m_writer.writeToSequence(new IIOImage(image, null, metadata), null);
+
+        m_frames++;
+    }
+
+    /**
+     * Write the end of the animation.
+     * <br>
+     * The output stream is flushed but not closed.
+     *
+     * @throws IOException           If writing to the output stream fails.
+     * @throws IllegalStateException If no frames were written.
+     */
+    @Override
+    public void finish() throws IOException {
+        if (m_finished) {
+            return;
+        }
+
+        if (m_frames == 0) {
+            throw new IllegalStateException("no frames written.");
+        }
+
+        m_finished = true;
+
+        try {
+            m_writer.endWriteSequence();
+
+            Object output = m_writer.getOutput();
+
+            if (output instanceof ImageOutputStream) {
+                ((ImageOutputStream) output).flush();
+            }
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * Release the GIF writer without finishing the animation.
+     * <br>
+     * This is done by {@link #finish()}, calling it is only needed when an animation is abandoned part way.
+     * The output stream is not closed.
+     */
+    @Override
+    public void close() {
+        m_writer.dispose();
+    }
+
+    private IIOMetadataNode createFrameMetadata(int x, int y, int width, int height,
+                                                int delay, boolean transparent) {
+
+        IIOMetadataNode root = new IIOMetadataNode(IMAGE_METADATA_FORMAT);
+
+        IIOMetadataNode descriptor = new IIOMetadataNode("ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", Integer.toString(x));
+        descriptor.setAttribute("imageTopPosition", Integer.toString(y));
+        descriptor.setAttribute("imageWidth", Integer.toString(width));
+        descriptor.setAttribute("imageHeight", Integer.toString(height));
+        descriptor.setAttribute("interlaceFlag", "FALSE");
+        root.appendChild(descriptor);
+
+        IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+        control.setAttribute("disposalMethod", "doNotDispose");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", transparent ? "TRUE" : "FALSE");
+        control.setAttribute("delayTime", Integer.toString(delay));
+        control.setAttribute("transparentColorIndex", Integer.toString(TRANSPARENT_INDEX));
+        root.appendChild(control);
+
+        if (m_frames == 0 && m_loops >= 0) {
+            // the NETSCAPE2.0 extension holds the loop count, it is only read from the first frame
+            IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+
+            extension.setAttribute("applicationID", "NETSCAPE");
+            extension.setAttribute("authenticationCode", "2.0");
+            extension.setUserObject(new byte[]{1, (byte) m_loops, (byte) (m_loops >> 8)});
+
+            extensions.appendChild(extension);
+            root.appendChild(extensions);
+        }
+
+        return root;
+    }
+
+    // Converts the area of a frame to palette indices in m_indices, adding colors to the
+    // palette as needed.  Returns false if the palette ran out of room.
+
+    private boolean mapColors(int[] pixels, int[] previous, int x, int y, int width, int height) {
+        byte[] indices = m_indices;
+        int bits = m_colorBits;
+        boolean cube = m_cube;
+
+        int index = 0;
+
+        for (int row = y; row < y + height; row++) {
+            int start = row * m_width + x;
+            int end = start + width;
+
+            for (int i = start; i < end; i++) {
+                int rgb = pixels[i] & 0xFFFFFF;
+
+                if (previous != null && rgb == (previous[i] & 0xFFFFFF)) {
+                    indices[index++] = (byte) TRANSPARENT_INDEX;
+                    continue;
+                }
+
+                if (cube) {
+                    indices[index++] = (byte) cubeIndex(rgb);
+                    continue;
+                }
+
+                int color = ColorUtils.quantize(rgb, bits);
+                int palette_index = this.findColor(color);
+
+                if (palette_index < 0) {
+                    return false;
+                }
+
+                indices[index++] = (byte) palette_index;
+            }
+        }
+
+        return true;
+    }
+
+    private int findColor(int color) {
+        int slot = (color * 0x9E3779B9) >>> 22;
+
+        while (true) {
+            int entry = m_hashColors[slot];
+
+            if (entry == color) {
+                return m_hashIndices[slot] & 0xFF;
+            }
+
+            if (entry == -1) {
+                if (m_colors == MAX_COLORS) {
+                    return -1;
+                }
+
+                int index = m_colors++;
+
+                m_red[index] = (byte) (color >> 16);
+                m_green[index] = (byte) (color >> 8);
+                m_blue[index] = (byte) color;
+
+                m_hashColors[slot] = color;
+                m_hashIndices[slot] = (byte) index;
+
+                return index;
+            }
+
+            slot = (slot + 1) & (HASH_SIZE - 1);
+        }
+    }
+
+    private void resetPalette() {
+        Arrays.fill(m_hashColors, -1);
+        Arrays.fill(m_red, (byte) 0);
+        Arrays.fill(m_green, (byte) 0);
+        Arrays.fill(m_blue, (byte) 0);
+
+        m_colors = 0;
+        m_colorModel = null;
+
+        if (m_cube) {
+            for (int r = 0; r < CUBE_RED; r++) {
+                for (int g = 0; g < CUBE_GREEN; g++) {
+                    for (int b = 0; b < CUBE_BLUE; b++) {
+                        int index = m_colors++;
+
+                        m_red[index] = (byte) (r * 255 / (CUBE_RED - 1));
+                        m_green[index] = (byte) (g * 255 / (CUBE_GREEN - 1));
+                        m_blue[index] = (byte) (b * 255 / (CUBE_BLUE - 1));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int cubeIndex(int rgb) {
+        int r = (((rgb >> 16) & 0xFF) * (CUBE_RED - 1) + 127) / 255;
+        int g = (((rgb >> 8) & 0xFF) * (CUBE_GREEN - 1) + 127) / 255;
+        int b = ((rgb & 0xFF) * (CUBE_BLUE - 1) + 127) / 255;
+
+        return (r * CUBE_GREEN + g) * CUBE_BLUE + b;
+    }
+}
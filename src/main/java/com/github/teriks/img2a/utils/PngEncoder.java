@@ -0,0 +1,676 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an 8 bit RGB PNG image to a stream a few rows at a time.
+ * <br>
+ * Rows are filtered and compressed as soon as they are written, only the previous
+ * row and the compressor state are kept, so images of any size can be written without
+ * holding all of their pixels in memory.
+ * <br>
+ * By default each row is filtered with the PNG filter type that gives the smallest sum of absolute
+ * differences, the same heuristic used by libpng and the Java Image I/O PNG writer, See: {@link PngFilter}.
+ * <br>
+ * With more than one thread, the filtered rows are cut into blocks which are deflated at the
+ * same time, each primed with the end of the block before it, and joined into one zlib stream.
+ * This is the technique used by pigz, the output is a few bytes larger per block than with one thread.
+ */
+public class PngEncoder implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private static final int BYTES_PER_PIXEL = 3;
+
+    // size of the compressed data in each IDAT chunk
+    private static final int CHUNK_SIZE = 65536;
+
+    // uncompressed size of the blocks deflated in parallel, and the deflate window size
+    private static final int BLOCK_SIZE = 131072;
+    private static final int DICTIONARY_SIZE = 32768;
+
+    private final OutputStream m_output;
+    private final boolean m_standalone;
+    private final int m_width;
+    private final int m_height;
+    private final int m_level;
+    private final int m_filter;
+
+    private byte[] m_row;
+    private byte[] m_previous;
+    private final byte[][] m_filtered = new byte[5][];
+
+    private int m_rowsWritten = 0;
+    private boolean m_finished = false;
+
+    // used with one thread
+    private Deflater m_deflater;
+    private DeflaterOutputStream m_compressed;
+
+    // used with more than one thread
+    private final int m_threads;
+    private final boolean m_ownsWorkers;
+    private ExecutorService m_workers;
+    private OutputStream m_chunks;
+    private final Adler32 m_checksum = new Adler32();
+    private final ArrayDeque<Future<byte[]>> m_pending = new ArrayDeque<Future<byte[]>>();
+    private byte[] m_block;
+    private int m_blockLength;
+    private byte[] m_dictionary;
+
+    /**
+     * Start writing a PNG image with the default compression level and adaptive filtering, using one thread.
+     * <br>
+     * The PNG signature and header are written immediately.
+     *
+     * @param output The output stream, which is not closed by {@link #finish()}.
+     * @param width  Image width in pixels.
+     * @param height Image height in pixels.
+     * @throws IOException If writing to the output stream fails.
+     */
+    public PngEncoder(OutputStream output, int width, int height) throws IOException {
+        this(output, width, height, Deflater.DEFAULT_COMPRESSION, PngFilter.ADAPTIVE, 1);
+    }
+
+    /**
+     * Start writing a PNG image.
+     * <br>
+     * The PNG signature and header are written immediately.
+     *
+     * @param output  The output stream, which is not closed by {@link #finish()}.
+     * @param width   Image width in pixels.
+     * @param height  Image height in pixels.
+     * @param level   Deflate compression level from 0 to 9, or -1 for the default level.
+     * @param filter  Row filter strategy.
+     * @param threads Amount of threads used for compression.
+     * @throws IOException              If writing to the output stream fails.
+     * @throws IllegalArgumentException If the dimensions are not greater than 0,
+     *                                  the level is out of range, or threads is less than 1.
+     */
+    public PngEncoder(OutputStream output, int width, int height, int level, PngFilter filter, int threads)
+            throws IOException {
+        this(output, width, height, level, filter, threads, null, true);
+    }
+
+    // With standalone set to false only the image data is written, in chunks passed to writeDataChunk(),
+    // which is how ApngEncoder writes each frame.  The given workers are used if there are any, and
+    // are not shut down by close().
+
+    PngEncoder(OutputStream output, int width, int height, int level, PngFilter filter, int threads,
+               ExecutorService workers, boolean standalone) throws IOException {
+
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("image dimensions must be greater than 0.");
+        }
+
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, or -1.");
+        }
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be at least 1.");
+        }
+
+        m_output = output;
+        m_standalone = standalone;
+        m_width = width;
+        m_height = height;
+        m_level = level;
+        m_filter = filter.getType();
+        m_threads = threads;
+        m_ownsWorkers = workers == null;
+
+        int row_size = width * BYTES_PER_PIXEL;
+
+        m_row = new byte[row_size];
+        m_previous = new byte[row_size];
+
+        for (int i = 0; i < m_filtered.length; i++) {
+            m_filtered[i] = new byte[row_size + 1];
+            m_filtered[i][0] = (byte) i;
+        }
+
+        if (standalone) {
+            writeHeader(m_output, width, height);
+        }
+
+        if (threads == 1) {
+            m_deflater = new Deflater(level);
+            m_compressed = new DeflaterOutputStream(new ChunkOutputStream(), m_deflater, CHUNK_SIZE);
+        } else {
+            m_workers = workers != null ? workers : createWorkers(threads);
+
+            m_chunks = new ChunkOutputStream();
+            m_block = new byte[BLOCK_SIZE];
+
+            writeZlibHeader(m_chunks, level);
+        }
+    }
+
+    // signature and header of an 8 bit RGB image
+    static void writeHeader(OutputStream output, int width, int height) throws IOException {
+        output.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+
+        header[8] = 8;  // bit depth
+        header[9] = 2;  // color type, RGB
+        header[10] = 0; // compression method, deflate
+        header[11] = 0; // filter method, adaptive
+        header[12] = 0; // interlace method, none
+
+        writeChunk(output, "IHDR", header, header.length);
+    }
+
+    static ExecutorService createWorkers(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "img2a-png-deflate");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the image width.
+     *
+     * @return Width in pixels.
+     */
+    public final int getWidth() {
+        return m_width;
+    }
+
+    /**
+     * Get the image height.
+     *
+     * @return Height in pixels.
+     */
+    public final int getHeight() {
+        return m_height;
+    }
+
+    /**
+     * Get the amount of rows written so far.
+     *
+     * @return Row count.
+     */
+    public final int getRowsWritten() {
+        return m_rowsWritten;
+    }
+
+    /**
+     * Write the next rows of the image from packed 0xRRGGBB pixels, any higher bits are ignored.
+     * <br>
+     * The pixel at (x, y) of the given rows is read from index offset + y * scanline + x.
+     *
+     * @param pixels   Pixel data.
+     * @param offset   Index of the first pixel of the first row.
+     * @param scanline Distance between the start of each row in the pixel data.
+     * @param rows     Amount of rows to write.
+     * @throws IOException           If writing to the output stream fails.
+     * @throws IllegalStateException If this would write more rows than the image height, or the image is finished.
+     */
+    public void writeRows(int[] pixels, int offset, int scanline, int rows) throws IOException {
+        if (m_finished || m_rowsWritten + rows > m_height) {
+            throw new IllegalStateException("more rows written than the image height.");
+        }
+
+        for (int y = 0; y < rows; y++) {
+            byte[] row = m_row;
+
+            int start = offset + y * scanline;
+
+            for (int x = 0, p = 0; x < m_width; x++) {
+                int rgb = pixels[start + x];
+
+                row[p++] = (byte) (rgb >> 16);
+                row[p++] = (byte) (rgb >> 8);
+                row[p++] = (byte) rgb;
+            }
+
+            byte[] filtered = this.filterRow(row, m_previous);
+
+            if (m_compressed != null) {
+                m_compressed.write(filtered, 0, filtered.length);
+            } else {
+                this.writeBlockData(filtered, filtered.length);
+            }
+
+            m_row = m_previous;
+            m_previous = row;
+
+            m_rowsWritten++;
+        }
+    }
+
+    /**
+     * Write the end of the image once all of its rows are written.
+     * <br>
+     * The output stream is flushed but not closed.
+     *
+     * @throws IOException           If writing to the output stream fails.
+     * @throws IllegalStateException If fewer rows were written than the image height.
+     */
+    public void finish() throws IOException {
+        if (m_finished) {
+            return;
+        }
+
+        if (m_rowsWritten != m_height) {
+            throw new IllegalStateException(
+                    String.format("%d of %d image rows written.", m_rowsWritten, m_height));
+        }
+
+        m_finished = true;
+
+        try {
+            if (m_compressed != null) {
+                m_compressed.finish();
+                m_compressed.flush();
+            } else {
+                this.submitBlock(true);
+
+                while (!m_pending.isEmpty()) {
+                    this.writeNextBlock();
+                }
+
+                byte[] checksum = new byte[4];
+                putInt(checksum, 0, (int) m_checksum.getValue());
+
+                m_chunks.write(checksum);
+                m_chunks.flush();
+            }
+        } finally {
+            this.close();
+        }
+
+        if (m_standalone) {
+            writeChunk(m_output, "IEND", new byte[0], 0);
+        }
+
+        m_output.flush();
+    }
+
+    /**
+     * Release the compressor and any threads without finishing the image.
+     * <br>
+     * This is done by {@link #finish()}, calling it is only needed when an image is abandoned part way.
+     * The output stream is not closed.
+     */
+    @Override
+    public void close() {
+        if (m_deflater != null) {
+            m_deflater.end();
+        }
+
+        if (m_workers != null) {
+            if (m_ownsWorkers) {
+                m_workers.shutdownNow();
+            } else {
+                // shared workers stay alive, only the blocks of this image are abandoned
+                for (Future<byte[]> block : m_pending) {
+                    block.cancel(true);
+                }
+            }
+            m_pending.clear();
+        }
+    }
+
+    // writes a chunk of compressed image data
+    void writeDataChunk(byte[] data, int length) throws IOException {
+        writeChunk(m_output, "IDAT", data, length);
+    }
+
+    private void writeBlockData(byte[] data, int length) throws IOException {
+        m_checksum.update(data, 0, length);
+
+        int offset = 0;
+
+        while (offset < length) {
+            int count = Math.min(length - offset, m_block.length - m_blockLength);
+
+            System.arraycopy(data, offset, m_block, m_blockLength, count);
+
+            m_blockLength += count;
+            offset += count;
+
+            if (m_blockLength == m_block.length) {
+                this.submitBlock(false);
+            }
+        }
+    }
+
+    private void submitBlock(final boolean last) throws IOException {
+        final byte[] block = m_block;
+        final int length = m_blockLength;
+        final byte[] dictionary = m_dictionary;
+        final int level = m_level;
+
+        // the next block can refer back to the end of this one, blocks are never smaller than the window
+        m_dictionary = Arrays.copyOfRange(block, length - Math.min(length, DICTIONARY_SIZE), length);
+
+        m_block = new byte[BLOCK_SIZE];
+        m_blockLength = 0;
+
+        m_pending.add(m_workers.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return deflateBlock(block, length, dictionary, level, last);
+            }
+        }));
+
+        // limit the amount of blocks held in memory when the output is slower than compression
+        while (m_pending.size() > m_threads * 2) {
+            this.writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        byte[] compressed;
+
+        try {
+            compressed = m_pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+
+        m_chunks.write(compressed);
+    }
+
+    private static byte[] deflateBlock(byte[] block, int length, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(block, 0, length);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[CHUNK_SIZE];
+
+            if (last) {
+                deflater.finish();
+
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    output.write(buffer, 0, count);
+                }
+            } else {
+                // a sync flush ends the block on a byte boundary, so the next block can follow it
+
+                int count;
+
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeZlibHeader(OutputStream output, int level) throws IOException {
+        // deflate with a 32K window, the level hint makes the header a multiple of 31
+        int flags;
+
+        if (level == 0 || level == 1) {
+            flags = 0x01;
+        } else if (level >= 2 && level <= 5) {
+            flags = 0x5E;
+        } else if (level == 7 || level == 8 || level == 9) {
+            flags = 0xDA;
+        } else {
+            flags = 0x9C;
+        }
+
+        output.write(0x78);
+        output.write(flags);
+    }
+
+    private byte[] filterRow(byte[] row, byte[] previous) {
+        int length = row.length;
+
+        byte[] none = m_filtered[FILTER_NONE];
+        byte[] sub = m_filtered[FILTER_SUB];
+        byte[] up = m_filtered[FILTER_UP];
+        byte[] average = m_filtered[FILTER_AVERAGE];
+        byte[] paeth = m_filtered[FILTER_PAETH];
+
+        // the first row has no previous row, which is treated as zeros
+        boolean first = m_rowsWritten == 0;
+
+        if (m_filter >= 0) {
+            byte[] output = m_filtered[m_filter];
+
+            for (int i = 0; i < length; i++) {
+                int x = row[i] & 0xFF;
+                int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+                int b = first ? 0 : previous[i] & 0xFF;
+                int c = first || i < BYTES_PER_PIXEL ? 0 : previous[i - BYTES_PER_PIXEL] & 0xFF;
+
+                output[i + 1] = (byte) (x - predict(m_filter, a, b, c));
+            }
+
+            return output;
+        }
+
+        long none_sum = 0;
+        long sub_sum = 0;
+        long up_sum = 0;
+        long average_sum = 0;
+        long paeth_sum = 0;
+
+        for (int i = 0; i < length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+            int b = first ? 0 : previous[i] & 0xFF;
+            int c = first || i < BYTES_PER_PIXEL ? 0 : previous[i - BYTES_PER_PIXEL] & 0xFF;
+
+            byte v_none = (byte) x;
+            byte v_sub = (byte) (x - a);
+            byte v_up = (byte) (x - b);
+            byte v_average = (byte) (x - ((a + b) >> 1));
+            byte v_paeth = (byte) (x - paethPredictor(a, b, c));
+
+            none[i + 1] = v_none;
+            sub[i + 1] = v_sub;
+            up[i + 1] = v_up;
+            average[i + 1] = v_average;
+            paeth[i + 1] = v_paeth;
+
+            // filtered bytes are summed as signed values
+            none_sum += Math.abs(v_none);
+            sub_sum += Math.abs(v_sub);
+            up_sum += Math.abs(v_up);
+            average_sum += Math.abs(v_average);
+            paeth_sum += Math.abs(v_paeth);
+        }
+
+        byte[] best = none;
+        long best_sum = none_sum;
+
+        if (sub_sum < best_sum) {
+            best = sub;
+            best_sum = sub_sum;
+        }
+
+        if (up_sum < best_sum) {
+            best = up;
+            best_sum = up_sum;
+        }
+
+        if (average_sum < best_sum) {
+            best = average;
+            best_sum = average_sum;
+        }
+
+        if (paeth_sum < best_sum) {
+            best = paeth;
+        }
+
+        return best;
+    }
+
+    private static int predict(int filter, int a, int b, int c) {
+        switch (filter) {
+            case FILTER_SUB:
+                return a;
+            case FILTER_UP:
+                return b;
+            case FILTER_AVERAGE:
+                return (a + b) >> 1;
+            case FILTER_PAETH:
+                return paethPredictor(a, b, c);
+            default:
+                return 0;
+        }
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    static void putInt(byte[] output, int offset, int value) {
+        output[offset] = (byte) (value >>> 24);
+        output[offset + 1] = (byte) (value >>> 16);
+        output[offset + 2] = (byte) (value >>> 8);
+        output[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream output, String type, byte[] data, int length) throws IOException {
+        byte[] type_bytes = type.getBytes(Charset.forName("US-ASCII"));
+        byte[] header = new byte[8];
+
+        putInt(header, 0, length);
+        System.arraycopy(type_bytes, 0, header, 4, 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(type_bytes, 0, 4);
+        crc.update(data, 0, length);
+
+        byte[] footer = new byte[4];
+        putInt(footer, 0, (int) crc.getValue());
+
+        output.write(header);
+        output.write(data, 0, length);
+        output.write(footer);
+    }
+
+    /**
+     * Collects compressed image data into chunks, See: {@link #writeDataChunk(byte[], int)}.
+     */
+    private final class ChunkOutputStream extends OutputStream {
+        private final byte[] m_buffer = new byte[CHUNK_SIZE];
+        private int m_length = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (m_length == m_buffer.length) {
+                this.flushChunk();
+            }
+            m_buffer[m_length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (m_length == m_buffer.length) {
+                    this.flushChunk();
+                }
+
+                int count = Math.min(len, m_buffer.length - m_length);
+
+                System.arraycopy(b, off, m_buffer, m_length, count);
+
+                m_length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushChunk();
+            m_output.flush();
+        }
+
+        private void flushChunk() throws IOException {
+            if (m_length > 0) {
+                writeDataChunk(m_buffer, m_length);
+                m_length = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+*
+* Copyright 2017 Teriks
+*
+* Redistribution and use in source and binary forms, with or without modification, are permitted
+* provided that the following conditions are met:
+*
+* 1. Redistributions of source code must retain the above copyright notice, this list of conditions
+* and the following disclaimer.
+*
+* 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+* and the following disclaimer in the documentation and/or other materials provided with the
+* distribution.
+*
+* 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse
+* or promote products derived from this software without specific prior written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+* IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+* FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+* DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+* DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+* IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+* THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.github.teriks.img2a.utils;
+
+/**
+ * PNG row filter strategies, See: {@link PngEncoder}.
+ */
+public enum PngFilter {
+
+    /**
+     * Each row uses the filter type which gives the smallest sum of absolute differences.
+     * This usually compresses best.
+     */
+    ADAPTIVE("adaptive", -1),
+
+    /**
+     * Rows are stored unfiltered.
+     */
+    NONE("none", 0),
+
+    /**
+     * Each byte is stored as the difference from the byte of the pixel to its left.
+     */
+    SUB("sub", 1),
+
+    /**
+     * Each byte is stored as the difference from the byte of the pixel above it.
+     */
+    UP("up", 2),
+
+    /**
+     * Each byte is stored as the difference from the average of the pixels to its left and above it.
+     */
+    AVERAGE("average", 3),
+
+    /**
+     * Each byte is stored as the difference from the Paeth predictor of the pixels to its left,
+     * above it, and above and to the left of it.
+     */
+    PAETH("paeth", 4);
+
+    private final String m_name;
+    private final int m_type;
+
+    PngFilter(String name, int type) {
+        m_name = name;
+        m_type = type;
+    }
+
+    /**
+     * Find a filter strategy by name, ignoring case.
+     *
+     * @param name The strategy name, such as "adaptive" or "paeth".
+     * @return The {@link PngFilter}, or null if there is no strategy with the given name.
+     */
+    public static PngFilter forName(String name) {
+        for (PngFilter filter : values()) {
+            if (filter.m_name.equalsIgnoreCase(name)) {
+                return filter;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the name of the strategy.
+     *
+     * @return The strategy name.
+     */
+    public final String getName() {
+        return m_name;
+    }
+
+    /**
+     * Get the PNG filter type number used for every row, or -1 for {@link #ADAPTIVE}.
+     *
+     * @return Filter type.
+     */
+    final int getType() {
+        return m_type;
+    }
+}